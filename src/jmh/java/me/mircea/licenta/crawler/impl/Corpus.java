@@ -0,0 +1,33 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * @author mircea
+ * Saved shelf pages and sitemaps the benchmarks run on, found under src/jmh/resources/corpus.
+ */
+final class Corpus {
+    /**
+     * Shelves are served as if they came from this shop, so relative links resolve like in a real crawl.
+     */
+    static final String BASE_URI = "https://www.libraria.ro/carti";
+    static final String DOMAIN = "libraria.ro";
+
+    private Corpus() {
+    }
+
+    static byte[] read(String fileName) {
+        try (InputStream inputStream = Corpus.class.getResourceAsStream("/corpus/" + fileName)) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("No corpus file named " + fileName);
+            }
+            return ByteStreams.toByteArray(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
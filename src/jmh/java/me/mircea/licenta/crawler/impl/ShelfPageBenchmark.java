@@ -0,0 +1,79 @@
+package me.mircea.licenta.crawler.impl;
+
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author mircea
+ * Cost of turning a shelf into product urls: sanitizing the html, then looking for products in it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShelfPageBenchmark {
+    @Param({"shelf-24.html", "shelf-600.html"})
+    public String shelfFile;
+
+    private String html;
+    private Document strippedShelf;
+    private Path selectorCacheFile;
+    private ProductSelectorCache selectorCache;
+
+    @Setup
+    public void readShelf() throws IOException {
+        html = new String(Corpus.read(shelfFile), StandardCharsets.UTF_8);
+        strippedShelf = ShelfPageUtil.getDocumentStripped(html, Corpus.BASE_URI);
+
+        selectorCacheFile = Files.createTempFile("product-selectors", ".json");
+        Files.delete(selectorCacheFile);
+        selectorCache = new ProductSelectorCache(selectorCacheFile);
+        // The first shelf of a domain teaches the cache its product selector
+        ShelfPageUtil.getSingleProductPages(strippedShelf, Corpus.DOMAIN, selectorCache);
+    }
+
+    @TearDown
+    public void deleteSelectorCache() throws IOException {
+        Files.deleteIfExists(selectorCacheFile);
+    }
+
+    @Benchmark
+    public Document getDocumentStripped() {
+        return ShelfPageUtil.getDocumentStripped(html, Corpus.BASE_URI);
+    }
+
+    @Benchmark
+    public List<String> getSingleProductPages() {
+        return ShelfPageUtil.getSingleProductPages(strippedShelf);
+    }
+
+    @Benchmark
+    public List<String> getSingleProductPagesWithLearnedSelector() {
+        return ShelfPageUtil.getSingleProductPages(strippedShelf, Corpus.DOMAIN, selectorCache);
+    }
+
+    @Benchmark
+    public List<String> stripAndGetSingleProductPages() {
+        return ShelfPageUtil.getSingleProductPages(ShelfPageUtil.getDocumentStripped(html, Corpus.BASE_URI));
+    }
+}
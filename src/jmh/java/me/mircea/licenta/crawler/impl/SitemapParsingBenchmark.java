@@ -0,0 +1,65 @@
+package me.mircea.licenta.crawler.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * @author mircea
+ * Throughput of reading sitemaps the way {@link SitemapSaxCrawler} does, from bytes already downloaded.
+ * Divide by the number of urls in a file (20000 in the products sitemap, 200 children in the index,
+ * 5000 lines in the text one) to get urls per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SitemapParsingBenchmark {
+    @Param({"sitemap-products.xml.gz", "sitemap-index.xml", "sitemap-products.txt"})
+    public String sitemapFile;
+
+    private byte[] sitemap;
+
+    @Setup
+    public void readSitemap() {
+        sitemap = Corpus.read(sitemapFile);
+    }
+
+    @Benchmark
+    public void parseSitemap(Blackhole blackhole) throws Exception {
+        InputStream inputStream = new ByteArrayInputStream(sitemap);
+        if (sitemapFile.endsWith(".gz")) {
+            inputStream = new GZIPInputStream(inputStream);
+        }
+
+        if (sitemapFile.endsWith(".txt")) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                blackhole.consume(line.trim());
+            }
+        } else {
+            SitemapSaxCrawler.SAX_PARSER_FACTORY.newSAXParser().parse(inputStream,
+                    new SitemapSaxHandler(blackhole::consume, (childUrl, lastModified) -> blackhole.consume(childUrl)));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package me.mircea.licenta.crawler.scheduler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author mircea
+ * Time for a node to run a number of sitemap jobs at once, each fetching its sitemaps on its own executor
+ * like {@link me.mircea.licenta.crawler.impl.SitemapSaxCrawler}. A fetch is a sleep standing in for a blocked
+ * network read, so only the threading differs:
+ * pool is the current model, a fixed pool per job; thread-per-fetch starts a platform thread for every
+ * fetch; virtual starts a virtual thread for every fetch and needs Java 21 (-P jdk21).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CrawlThreadsBenchmark {
+    /**
+     * The default of sitemap_fetch_threads_per_job.
+     */
+    private static final int POOL_THREADS_PER_JOB = 8;
+
+    @Param({"pool", "thread-per-fetch", "virtual"})
+    public String threads;
+
+    @Param({"1", "50"})
+    public int jobs;
+
+    @Param({"200"})
+    public int fetchesPerJob;
+
+    @Param({"20"})
+    public int fetchLatencyInMillis;
+
+    /**
+     * Workers of the http lane, one per job so that all jobs run at once.
+     */
+    private ExecutorService jobExecutor;
+
+    @Setup
+    public void startWorkers() {
+        jobExecutor = "virtual".equals(threads)
+                ? CrawlThreads.newVirtualExecutor("benchmark-job-%d")
+                : CrawlThreads.newPlatformExecutor("benchmark-job-%d", jobs);
+    }
+
+    @TearDown
+    public void stopWorkers() {
+        jobExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public void crawlJobs() throws Exception {
+        List<CompletableFuture<Void>> runningJobs = new ArrayList<>(jobs);
+        for (int job = 0; job < jobs; ++job) {
+            runningJobs.add(CompletableFuture.runAsync(this::crawlJob, jobExecutor));
+        }
+        CompletableFuture.allOf(runningJobs.toArray(new CompletableFuture[0])).get();
+    }
+
+    private void crawlJob() {
+        ExecutorService fetchExecutor = newFetchExecutor();
+        try {
+            List<CompletableFuture<Void>> fetches = new ArrayList<>(fetchesPerJob);
+            for (int fetch = 0; fetch < fetchesPerJob; ++fetch) {
+                fetches.add(CompletableFuture.runAsync(this::fetch, fetchExecutor));
+            }
+            CompletableFuture.allOf(fetches.toArray(new CompletableFuture[0])).join();
+        } finally {
+            fetchExecutor.shutdownNow();
+        }
+    }
+
+    private ExecutorService newFetchExecutor() {
+        switch (threads) {
+            case "pool":
+                return CrawlThreads.newPlatformExecutor("benchmark-pool-%d", POOL_THREADS_PER_JOB);
+            case "thread-per-fetch":
+                return Executors.newCachedThreadPool();
+            case "virtual":
+                return CrawlThreads.newVirtualExecutor("benchmark-virtual-%d");
+            default:
+                throw new IllegalArgumentException("Unknown threads " + threads);
+        }
+    }
+
+    private void fetch() {
+        try {
+            Thread.sleep(fetchLatencyInMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package me.mircea.licenta.crawler.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.JobType;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.impl.BrowserCrawler;
+import me.mircea.licenta.crawler.impl.HttpShelfCrawler;
+import me.mircea.licenta.crawler.impl.SitemapSaxCrawler;
+import me.mircea.licenta.crawler.metrics.CrawlMetrics;
+import me.mircea.licenta.crawler.metrics.JobMetrics;
+import me.mircea.licenta.crawler.persistence.InMemoryCrawlStore;
+import me.mircea.licenta.crawler.persistence.PageWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author mircea
+ * Crawls a {@link MockShop} with each crawler in turn and reports pages per second from the start of a crawler
+ * until its pages are stored, along with the heap and threads it took. Pages go to an {@link InMemoryCrawlStore},
+ * so no database is needed. Results are saved as json and, given the results of an earlier run, a scenario whose
+ * pages per second dropped by more than allowed fails the run, as does one that missed pages of a shop without errors.
+ * Every argument is a key=value setting, of the load test (see {@link LoadTestSettings}) or of the crawler.
+ */
+public final class LoadTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+
+    /**
+     * The shop is local, so politeness would only measure the throttle. Given settings take precedence.
+     */
+    private static final Map<String, String> CRAWLER_SETTINGS = createCrawlerSettings();
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Settings are given as key=value, not " + arg);
+            }
+            System.setProperty(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        Path workDirectory = Files.createTempDirectory("crawler-loadtest");
+        CRAWLER_SETTINGS.forEach(LoadTest::setIfAbsent);
+        setIfAbsent("checkpoint_directory", workDirectory.resolve("checkpoints").toString());
+        setIfAbsent("shelf_selector_cache_file", workDirectory.resolve("product-selectors.json").toString());
+
+        LoadTestSettings settings = new LoadTestSettings();
+        List<Scenario> scenarios = settings.getScenarios().stream().map(Scenario::of).collect(Collectors.toList());
+        InMemoryCrawlStore store = InMemoryCrawlStore.install();
+        List<LoadTestResult> results = new ArrayList<>();
+        try (MockShop shop = new MockShop(settings)) {
+            LOGGER.info("Mock shop listening on {}", shop.getBaseUrl());
+            int runIndex = 0;
+            for (Scenario scenario : scenarios) {
+                for (int warmup = 0; warmup < settings.getWarmups(); ++warmup) {
+                    LoadTestResult result = run(scenario, settings, shop, store, workDirectory, runIndex++);
+                    LOGGER.info("Warmup {} of {}: {} pages/s", warmup + 1, scenario.id, String.format("%.1f", result.getPagesPerSecond()));
+                }
+
+                List<LoadTestResult> iterations = new ArrayList<>();
+                for (int iteration = 0; iteration < settings.getIterations(); ++iteration) {
+                    LoadTestResult result = run(scenario, settings, shop, store, workDirectory, runIndex++);
+                    LOGGER.info("Iteration {} of {}: {} pages/s", iteration + 1, scenario.id, String.format("%.1f", result.getPagesPerSecond()));
+                    iterations.add(result);
+                }
+                iterations.sort(Comparator.comparingDouble(LoadTestResult::getPagesPerSecond));
+                results.add(iterations.get(iterations.size() / 2));
+            }
+        }
+
+        writeResults(results, settings.getResultFile());
+        printResults(results);
+        int failures = checkCompleteness(results, settings) + checkBaseline(results, settings);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static LoadTestResult run(Scenario scenario, LoadTestSettings settings, MockShop shop, InMemoryCrawlStore store,
+                                      Path workDirectory, int runIndex) throws IOException, InterruptedException {
+        // Sitemaps seen by an earlier run would be skipped as unchanged
+        System.setProperty("sitemap_cache_directory", workDirectory.resolve("sitemaps-" + runIndex).toString());
+        if (scenario.sitemapFetcher != null) {
+            System.setProperty("sitemap_fetcher", scenario.sitemapFetcher);
+        }
+
+        String homepage = shop.getBaseUrl() + "/";
+        List<String> seeds = scenario.crawlsShelves
+                ? IntStream.range(0, settings.getShelves())
+                        .mapToObj(shelf -> shop.getBaseUrl() + "/shelf/" + shelf)
+                        .collect(Collectors.toList())
+                : Collections.singletonList(homepage);
+        Job job = new Job(homepage, JobType.CRAWL, seeds, Collections.emptyList(), false);
+        Crawler crawler = scenario.crawlerFactory.apply(job);
+
+        store.clear();
+        shop.resetCounters();
+        ResourceSampler sampler = new ResourceSampler();
+        long start = System.nanoTime();
+        crawler.run();
+        PageWriter.getInstance().flush();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.close();
+
+        long fetchErrors = CrawlMetrics.getInstance().getJob(String.valueOf(job.getId()))
+                .map(JobMetrics::getFetchErrors)
+                .orElse(0L);
+        long expectedPages = scenario.crawlsShelves ? shop.getShelfPageCount() : shop.getSitemapPageCount();
+        return new LoadTestResult(scenario.id, crawler.getClass().getSimpleName(), expectedPages, store.getPageCount(),
+                seconds, shop, fetchErrors, sampler);
+    }
+
+    private static void writeResults(List<LoadTestResult> results, String resultFile) throws IOException {
+        File file = new File(resultFile);
+        if (file.getParentFile() != null) {
+            Files.createDirectories(file.getParentFile().toPath());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, results);
+        LOGGER.info("Results written to {}", file.getAbsolutePath());
+    }
+
+    private static void printResults(List<LoadTestResult> results) {
+        System.out.printf("%n%-18s %-18s %12s %10s %10s %10s %10s %10s %8s %8s%n", "Scenario", "Crawler", "Pages",
+                "Seconds", "Pages/s", "Heap MB", "Growth MB", "Threads", "GCs", "GC ms");
+        for (LoadTestResult result : results) {
+            System.out.printf("%-18s %-18s %12s %10.2f %10.1f %10d %10d %10d %8d %8d%n", result.getScenario(), result.getCrawler(),
+                    result.getStoredPages() + "/" + result.getExpectedPages(), result.getSeconds(), result.getPagesPerSecond(),
+                    result.getPeakHeapInMegabytes(), result.getHeapGrowthInMegabytes(), result.getPeakThreads(),
+                    result.getGcCount(), result.getGcTimeInMillis());
+        }
+    }
+
+    /**
+     * A shop without errors has to be crawled in full, or a faster crawler could just be one that finds less.
+     */
+    private static int checkCompleteness(List<LoadTestResult> results, LoadTestSettings settings) {
+        if (settings.getErrorRate() > 0) {
+            return 0;
+        }
+        int failures = 0;
+        for (LoadTestResult result : results) {
+            if (result.getStoredPages() < result.getExpectedPages()) {
+                LOGGER.error("{} found {} of {} pages", result.getScenario(), result.getStoredPages(), result.getExpectedPages());
+                ++failures;
+            }
+        }
+        return failures;
+    }
+
+    private static int checkBaseline(List<LoadTestResult> results, LoadTestSettings settings) throws IOException {
+        if (settings.getBaselineFile().isEmpty()) {
+            return 0;
+        }
+
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        for (JsonNode resultNode : new ObjectMapper().readTree(new File(settings.getBaselineFile()))) {
+            baseline.put(resultNode.path("scenario").asText(), resultNode.path("pagesPerSecond").asDouble());
+        }
+
+        int failures = 0;
+        for (LoadTestResult result : results) {
+            Double baselinePagesPerSecond = baseline.get(result.getScenario());
+            if (baselinePagesPerSecond == null) {
+                LOGGER.warn("{} is not in the baseline, nothing to compare it with", result.getScenario());
+                continue;
+            }
+            double change = result.getPagesPerSecond() / baselinePagesPerSecond - 1;
+            if (change < -settings.getMaxRegression()) {
+                LOGGER.error("{} dropped to {} pages/s from {} ({}%)", result.getScenario(), String.format("%.1f", result.getPagesPerSecond()),
+                        String.format("%.1f", baselinePagesPerSecond), String.format("%+.1f", change * 100));
+                ++failures;
+            } else {
+                LOGGER.info("{} at {} pages/s against {} ({}%)", result.getScenario(), String.format("%.1f", result.getPagesPerSecond()),
+                        String.format("%.1f", baselinePagesPerSecond), String.format("%+.1f", change * 100));
+            }
+        }
+        return failures;
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    private static Map<String, String> createCrawlerSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("host_throttle_initial_delay_in_milliseconds", "0");
+        settings.put("host_throttle_min_delay_in_milliseconds", "0");
+        settings.put("host_throttle_max_parallel_requests", "16");
+        settings.put("http_fetcher_max_connections_per_host", "16");
+        return settings;
+    }
+
+    private enum Scenario {
+        SHELF_HTTP("shelf-http", HttpShelfCrawler::new, true, null),
+        SHELF_BROWSER("shelf-browser", BrowserCrawler::new, true, null),
+        SITEMAP_ASYNC("sitemap-async", SitemapSaxCrawler::new, false, "async"),
+        SITEMAP_BLOCKING("sitemap-blocking", SitemapSaxCrawler::new, false, "blocking");
+
+        private final String id;
+        private final Function<Job, Crawler> crawlerFactory;
+        private final boolean crawlsShelves;
+        /**
+         * The blocking fetcher follows redirects itself, unlike the async one whose client does.
+         */
+        private final String sitemapFetcher;
+
+        Scenario(String id, Function<Job, Crawler> crawlerFactory, boolean crawlsShelves, String sitemapFetcher) {
+            this.id = id;
+            this.crawlerFactory = crawlerFactory;
+            this.crawlsShelves = crawlsShelves;
+            this.sitemapFetcher = sitemapFetcher;
+        }
+
+        static Scenario of(String id) {
+            for (Scenario scenario : values()) {
+                if (scenario.id.equals(id)) {
+                    return scenario;
+                }
+            }
+            throw new IllegalArgumentException("No scenario named " + id);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package me.mircea.licenta.crawler.loadtest;
+
+/**
+ * @author mircea
+ * What one run of a scenario measured, from the moment its crawler started until its last page was stored.
+ */
+public class LoadTestResult {
+    private final String scenario;
+    private final String crawler;
+    private final long expectedPages;
+    private final long storedPages;
+    private final double seconds;
+    private final long shopRequests;
+    private final long shopErrors;
+    private final long shopRedirects;
+    private final long fetchErrors;
+    private final long peakHeapInMegabytes;
+    private final long heapGrowthInMegabytes;
+    private final int peakThreads;
+    private final int threadsLeft;
+    private final long gcCount;
+    private final long gcTimeInMillis;
+
+    LoadTestResult(String scenario, String crawler, long expectedPages, long storedPages, double seconds,
+                   MockShop shop, long fetchErrors, ResourceSampler sampler) {
+        this.scenario = scenario;
+        this.crawler = crawler;
+        this.expectedPages = expectedPages;
+        this.storedPages = storedPages;
+        this.seconds = seconds;
+        this.shopRequests = shop.getRequests();
+        this.shopErrors = shop.getInjectedErrors();
+        this.shopRedirects = shop.getRedirects();
+        this.fetchErrors = fetchErrors;
+        this.peakHeapInMegabytes = sampler.getPeakHeapInMegabytes();
+        this.heapGrowthInMegabytes = sampler.getHeapGrowthInMegabytes();
+        this.peakThreads = sampler.getPeakThreads();
+        this.threadsLeft = sampler.getThreadsLeft();
+        this.gcCount = sampler.getGcCount();
+        this.gcTimeInMillis = sampler.getGcTimeInMillis();
+    }
+
+    public String getScenario() {
+        return scenario;
+    }
+
+    public String getCrawler() {
+        return crawler;
+    }
+
+    public long getExpectedPages() {
+        return expectedPages;
+    }
+
+    public long getStoredPages() {
+        return storedPages;
+    }
+
+    public double getSeconds() {
+        return seconds;
+    }
+
+    public double getPagesPerSecond() {
+        return seconds > 0 ? storedPages / seconds : 0;
+    }
+
+    public long getShopRequests() {
+        return shopRequests;
+    }
+
+    public long getShopErrors() {
+        return shopErrors;
+    }
+
+    public long getShopRedirects() {
+        return shopRedirects;
+    }
+
+    public long getFetchErrors() {
+        return fetchErrors;
+    }
+
+    public long getPeakHeapInMegabytes() {
+        return peakHeapInMegabytes;
+    }
+
+    public long getHeapGrowthInMegabytes() {
+        return heapGrowthInMegabytes;
+    }
+
+    public int getPeakThreads() {
+        return peakThreads;
+    }
+
+    public int getThreadsLeft() {
+        return threadsLeft;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcTimeInMillis() {
+        return gcTimeInMillis;
+    }
+}
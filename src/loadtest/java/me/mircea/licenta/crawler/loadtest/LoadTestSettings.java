@@ -0,0 +1,150 @@
+package me.mircea.licenta.crawler.loadtest;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * @author mircea
+ * Settings of the load test and its shop, read from system properties named like the crawler's own settings,
+ * so that both can be given the same way on the command line.
+ */
+class LoadTestSettings {
+    private static final String CONFIG_SCENARIOS = "loadtest_scenarios";
+    private static final String CONFIG_WARMUPS = "loadtest_warmups";
+    private static final String CONFIG_ITERATIONS = "loadtest_iterations";
+    private static final String CONFIG_RESULT_FILE = "loadtest_result_file";
+    private static final String CONFIG_BASELINE_FILE = "loadtest_baseline_file";
+    private static final String CONFIG_MAX_REGRESSION = "loadtest_max_regression";
+    private static final String CONFIG_HOST = "loadtest_shop_host";
+    private static final String CONFIG_SHOP_THREADS = "loadtest_shop_threads";
+    private static final String CONFIG_SHELVES = "loadtest_shop_shelves";
+    private static final String CONFIG_PAGES_PER_SHELF = "loadtest_shop_pages_per_shelf";
+    private static final String CONFIG_PRODUCTS_PER_PAGE = "loadtest_shop_products_per_page";
+    private static final String CONFIG_SITEMAPS = "loadtest_shop_sitemaps";
+    private static final String CONFIG_URLS_PER_SITEMAP = "loadtest_shop_urls_per_sitemap";
+    private static final String CONFIG_REDIRECT_EVERY = "loadtest_shop_redirect_every";
+    private static final String CONFIG_LATENCY = "loadtest_shop_latency_in_milliseconds";
+    private static final String CONFIG_LATENCY_JITTER = "loadtest_shop_latency_jitter_in_milliseconds";
+    private static final String CONFIG_ERROR_RATE = "loadtest_shop_error_rate";
+    private static final String CONFIG_ERROR_STATUS = "loadtest_shop_error_status";
+
+    private final List<String> scenarios = Arrays.stream(System.getProperty(CONFIG_SCENARIOS, "shelf-http,sitemap-async,sitemap-blocking").split(","))
+            .map(String::trim)
+            .filter(scenario -> !scenario.isEmpty())
+            .collect(Collectors.toList());
+    private final int warmups = Integer.parseInt(System.getProperty(CONFIG_WARMUPS, "1"));
+    private final int iterations = Integer.parseInt(System.getProperty(CONFIG_ITERATIONS, "3"));
+    private final String resultFile = System.getProperty(CONFIG_RESULT_FILE, "target/loadtest-result.json");
+    private final String baselineFile = System.getProperty(CONFIG_BASELINE_FILE, "");
+    private final double maxRegression = Double.parseDouble(System.getProperty(CONFIG_MAX_REGRESSION, "0.1"));
+
+    private final String host = System.getProperty(CONFIG_HOST, "localhost");
+    private final int shopThreads = Integer.parseInt(System.getProperty(CONFIG_SHOP_THREADS, "64"));
+    private final int shelves = Integer.parseInt(System.getProperty(CONFIG_SHELVES, "20"));
+    private final int pagesPerShelf = Integer.parseInt(System.getProperty(CONFIG_PAGES_PER_SHELF, "25"));
+    private final int productsPerPage = Integer.parseInt(System.getProperty(CONFIG_PRODUCTS_PER_PAGE, "24"));
+    private final int sitemaps = Integer.parseInt(System.getProperty(CONFIG_SITEMAPS, "2000"));
+    private final int urlsPerSitemap = Integer.parseInt(System.getProperty(CONFIG_URLS_PER_SITEMAP, "50"));
+    private final int redirectEvery = Integer.parseInt(System.getProperty(CONFIG_REDIRECT_EVERY, "10"));
+    private final long latencyInMillis = Long.parseLong(System.getProperty(CONFIG_LATENCY, "5"));
+    private final long latencyJitterInMillis = Long.parseLong(System.getProperty(CONFIG_LATENCY_JITTER, "5"));
+    private final double errorRate = Double.parseDouble(System.getProperty(CONFIG_ERROR_RATE, "0"));
+    private final int errorStatus = Integer.parseInt(System.getProperty(CONFIG_ERROR_STATUS, "503"));
+
+    /**
+     * @return Names of the scenarios to run, in order: shelf-http, shelf-browser, sitemap-async or sitemap-blocking.
+     */
+    List<String> getScenarios() {
+        return scenarios;
+    }
+
+    /**
+     * @return Runs of each scenario left out of the results, while the JVM warms up.
+     */
+    int getWarmups() {
+        return warmups;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    String getResultFile() {
+        return resultFile;
+    }
+
+    /**
+     * @return Results of an earlier run to compare with, or empty for none.
+     */
+    String getBaselineFile() {
+        return baselineFile;
+    }
+
+    /**
+     * @return Largest share of the baseline's pages per second a scenario may lose before the run fails.
+     */
+    double getMaxRegression() {
+        return maxRegression;
+    }
+
+    /**
+     * @return Host name in the urls of the shop, which always listens on the loopback address.
+     */
+    String getHost() {
+        return host;
+    }
+
+    int getShopThreads() {
+        return shopThreads;
+    }
+
+    int getShelves() {
+        return shelves;
+    }
+
+    int getPagesPerShelf() {
+        return pagesPerShelf;
+    }
+
+    int getProductsPerPage() {
+        return productsPerPage;
+    }
+
+    int getSitemaps() {
+        return sitemaps;
+    }
+
+    int getUrlsPerSitemap() {
+        return urlsPerSitemap;
+    }
+
+    /**
+     * @return Every how many shelves and sitemaps one is reached through a redirect, or 0 for none.
+     */
+    int getRedirectEvery() {
+        return redirectEvery;
+    }
+
+    long getLatencyInMillis() {
+        return latencyInMillis;
+    }
+
+    /**
+     * @return Most latency added at random on top of the fixed one.
+     */
+    long getLatencyJitterInMillis() {
+        return latencyJitterInMillis;
+    }
+
+    /**
+     * @return Share of shelves and sitemaps answered with the error status instead.
+     */
+    double getErrorRate() {
+        return errorRate;
+    }
+
+    int getErrorStatus() {
+        return errorStatus;
+    }
+}
@@ -0,0 +1,288 @@
+package me.mircea.licenta.crawler.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author mircea
+ * A shop served from this JVM, with a synthetic catalogue for every kind of crawler:
+ * <ul>
+ *     <li>shelves at /shelf/{shelf}?p={page}, paginated the way the browser and http shelf crawlers expect,</li>
+ *     <li>a gzipped sitemap index listed in robots.txt, linking to gzipped sitemaps of products,</li>
+ *     <li>redirects in front of every n-th shelf and sitemap, to a url that serves it,</li>
+ *     <li>latency and errors added to every response but robots.txt and the sitemap index.</li>
+ * </ul>
+ * Sitemaps are made up front, so serving them costs as little as possible next to the crawler measured.
+ */
+class MockShop implements AutoCloseable {
+    private static final Pattern SHELF_PATH = Pattern.compile("/shelf/(\\d+)");
+    private static final Pattern PAGE_QUERY = Pattern.compile("(?:^|&)p=(\\d+)");
+    private static final Pattern SITEMAP_PATH = Pattern.compile("/(sitemaps|moved)/products-(\\d+)\\.xml\\.gz");
+    private static final String SITEMAP_INDEX_PATH = "/sitemap-index.xml.gz";
+    private static final int BACKLOG = 1024;
+
+    private final LoadTestSettings settings;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String baseUrl;
+    private final byte[] robotsTxt;
+    private final byte[] sitemapIndex;
+    private final byte[][] sitemaps;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong redirects = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    MockShop(LoadTestSettings settings) throws IOException {
+        this.settings = settings;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), BACKLOG);
+        this.baseUrl = "http://" + settings.getHost() + ":" + server.getAddress().getPort();
+
+        this.robotsTxt = ("User-agent: *\nAllow: /\n\nSitemap: " + baseUrl + SITEMAP_INDEX_PATH + "\n").getBytes(StandardCharsets.UTF_8);
+        this.sitemapIndex = gzip(createSitemapIndex());
+        this.sitemaps = new byte[settings.getSitemaps()][];
+        for (int sitemap = 0; sitemap < sitemaps.length; ++sitemap) {
+            sitemaps[sitemap] = gzip(createSitemap(sitemap));
+        }
+
+        this.executor = Executors.newFixedThreadPool(settings.getShopThreads(), new ThreadFactoryBuilder()
+                .setNameFormat("mock-shop-%d")
+                .setDaemon(true)
+                .build());
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String getBaseUrl() {
+        return baseUrl;
+    }
+
+    /**
+     * @return Pages a crawler of shelves should find: every shelf page and the products on it.
+     */
+    long getShelfPageCount() {
+        return (long) settings.getShelves() * settings.getPagesPerShelf() * (settings.getProductsPerPage() + 1);
+    }
+
+    /**
+     * @return Pages a crawler of sitemaps should find: every url of every sitemap.
+     */
+    long getSitemapPageCount() {
+        return (long) settings.getSitemaps() * settings.getUrlsPerSitemap();
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    long getRedirects() {
+        return redirects.get();
+    }
+
+    long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    void resetCounters() {
+        requests.set(0);
+        injectedErrors.set(0);
+        redirects.set(0);
+        bytesServed.set(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            String path = exchange.getRequestURI().getPath();
+            if ("/robots.txt".equals(path)) {
+                respond(exchange, HttpURLConnection.HTTP_OK, "text/plain", robotsTxt);
+                return;
+            }
+            if (SITEMAP_INDEX_PATH.equals(path)) {
+                respond(exchange, HttpURLConnection.HTTP_OK, "application/x-gzip", sitemapIndex);
+                return;
+            }
+
+            if (!delay()) {
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < settings.getErrorRate()) {
+                injectedErrors.incrementAndGet();
+                respond(exchange, settings.getErrorStatus(), "text/plain", text("Injected error"));
+                return;
+            }
+
+            Matcher sitemapMatcher = SITEMAP_PATH.matcher(path);
+            Matcher shelfMatcher = SHELF_PATH.matcher(path);
+            if (sitemapMatcher.matches()) {
+                serveSitemap(exchange, "moved".equals(sitemapMatcher.group(1)), Integer.parseInt(sitemapMatcher.group(2)));
+            } else if (shelfMatcher.matches()) {
+                serveShelf(exchange, Integer.parseInt(shelfMatcher.group(1)), exchange.getRequestURI().getRawQuery());
+            } else {
+                respond(exchange, HttpURLConnection.HTTP_NOT_FOUND, "text/plain", text("Not found"));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void serveSitemap(HttpExchange exchange, boolean moved, int sitemap) throws IOException {
+        if (sitemap >= sitemaps.length) {
+            respond(exchange, HttpURLConnection.HTTP_NOT_FOUND, "text/plain", text("Not found"));
+        } else if (moved) {
+            redirect(exchange, HttpURLConnection.HTTP_MOVED_PERM, baseUrl + "/sitemaps/products-" + sitemap + ".xml.gz");
+        } else {
+            respond(exchange, HttpURLConnection.HTTP_OK, "application/x-gzip", sitemaps[sitemap]);
+        }
+    }
+
+    /**
+     * A shelf reached without a page redirects to its first page if it is one of every n-th, and is its first page otherwise.
+     */
+    private void serveShelf(HttpExchange exchange, int shelf, String query) throws IOException {
+        Matcher pageMatcher = query != null ? PAGE_QUERY.matcher(query) : null;
+        boolean pageGiven = pageMatcher != null && pageMatcher.find();
+        int page = pageGiven ? Integer.parseInt(pageMatcher.group(1)) : 1;
+        if (shelf >= settings.getShelves() || page < 1 || page > settings.getPagesPerShelf()) {
+            respond(exchange, HttpURLConnection.HTTP_NOT_FOUND, "text/plain", text("Not found"));
+        } else if (!pageGiven && isRedirected(shelf)) {
+            redirect(exchange, HttpURLConnection.HTTP_MOVED_TEMP, baseUrl + "/shelf/" + shelf + "?p=1");
+        } else {
+            respond(exchange, HttpURLConnection.HTTP_OK, "text/html; charset=utf-8", createShelf(shelf, page).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Every response has a body of known length, since a server answering without one may close the connection,
+     * which clients reusing it see as a failure of their next request.
+     */
+    private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+        bytesServed.addAndGet(body.length);
+    }
+
+    /**
+     * @return False if interrupted, e.g. when the shop is closed.
+     */
+    private boolean delay() {
+        long delayInMillis = settings.getLatencyInMillis();
+        if (settings.getLatencyJitterInMillis() > 0) {
+            delayInMillis += ThreadLocalRandom.current().nextLong(settings.getLatencyJitterInMillis() + 1);
+        }
+        if (delayInMillis <= 0) {
+            return true;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayInMillis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void redirect(HttpExchange exchange, int status, String location) throws IOException {
+        redirects.incrementAndGet();
+        exchange.getResponseHeaders().set("Location", location);
+        respond(exchange, status, "text/plain", text("Moved to " + location));
+    }
+
+    private boolean isRedirected(int item) {
+        return settings.getRedirectEvery() > 0 && item % settings.getRedirectEvery() == 0;
+    }
+
+    private String createSitemapIndex() {
+        StringBuilder index = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<sitemapindex xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+        for (int sitemap = 0; sitemap < settings.getSitemaps(); ++sitemap) {
+            String directory = isRedirected(sitemap) ? "moved" : "sitemaps";
+            index.append("<sitemap><loc>").append(baseUrl).append('/').append(directory)
+                    .append("/products-").append(sitemap).append(".xml.gz</loc></sitemap>\n");
+        }
+        return index.append("</sitemapindex>\n").toString();
+    }
+
+    private String createSitemap(int sitemap) {
+        StringBuilder urlset = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<urlset xmlns=\"http://www.sitemaps.org/schemas/sitemap/0.9\">\n");
+        for (int url = 0; url < settings.getUrlsPerSitemap(); ++url) {
+            urlset.append("<url><loc>").append(baseUrl).append("/p/s").append(sitemap).append('-').append(url)
+                    .append("</loc><changefreq>weekly</changefreq></url>\n");
+        }
+        return urlset.append("</urlset>\n").toString();
+    }
+
+    private String createShelf(int shelf, int page) {
+        StringBuilder html = new StringBuilder(8192)
+                .append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Shelf ").append(shelf)
+                .append(" - page ").append(page).append("</title></head>\n<body>\n")
+                .append("<nav class=\"menu\"><a href=\"/\">Home</a> <a href=\"/shelf/0\">Books</a></nav>\n")
+                .append("<div class=\"products\">\n");
+        for (int product = 0; product < settings.getProductsPerPage(); ++product) {
+            String productPath = "/p/" + shelf + "-" + page + "-" + product;
+            html.append("<div class=\"product-item\"><a href=\"").append(productPath).append("\">")
+                    .append("<img src=\"/static/cover-").append(product).append(".png\" alt=\"\"></a>")
+                    .append("<a class=\"title\" href=\"").append(productPath).append("\">Book ").append(product).append("</a>")
+                    .append("<span class=\"price\">").append(10 + product).append(",99 lei</span></div>\n");
+        }
+        html.append("</div>\n<ul class=\"pagination\">\n");
+        for (int otherPage = 1; otherPage <= settings.getPagesPerShelf(); ++otherPage) {
+            html.append("<li class=\"").append(otherPage == page ? "active" : "").append("\"><a href=\"?p=")
+                    .append(otherPage).append("\">").append(otherPage).append("</a></li>\n");
+        }
+        if (page == settings.getPagesPerShelf()) {
+            html.append("<li class=\"disabled\"><a href=\"#\">&raquo;</a></li>\n");
+        } else {
+            html.append("<li class=\"\"><a href=\"?p=").append(page + 1).append("\">&raquo;</a></li>\n");
+        }
+        return html.append("</ul>\n</body></html>\n").toString();
+    }
+
+    private static byte[] text(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(String content) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(compressed)) {
+            gzipStream.write(content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,118 @@
+package me.mircea.licenta.crawler.loadtest;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * @author mircea
+ * Watches the heap and threads of this JVM while a crawler runs. Heap use is sampled, so its peak may miss
+ * garbage collected in between samples; the peak thread count is exact.
+ */
+class ResourceSampler implements AutoCloseable {
+    private static final long SAMPLE_INTERVAL_IN_MILLISECONDS = 10;
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Thread samplerThread;
+    private final long heapBeforeInBytes;
+    private final int threadsBefore;
+    private final long gcCountBefore;
+    private final long gcTimeBeforeInMillis;
+    private volatile long peakHeapInBytes;
+    private volatile boolean stopped = false;
+
+    private long heapGrowthInMegabytes;
+    private int peakThreads;
+    private int threadsLeft;
+    private long gcCount;
+    private long gcTimeInMillis;
+
+    /**
+     * Start sampling, after collecting garbage so runs start from comparable heaps.
+     */
+    ResourceSampler() {
+        System.gc();
+        this.heapBeforeInBytes = memory.getHeapMemoryUsage().getUsed();
+        this.peakHeapInBytes = heapBeforeInBytes;
+        this.threadsBefore = threads.getThreadCount();
+        this.gcCountBefore = countCollections();
+        this.gcTimeBeforeInMillis = sumCollectionTimesInMillis();
+        threads.resetPeakThreadCount();
+
+        this.samplerThread = new Thread(this::sample, "loadtest-sampler");
+        this.samplerThread.setDaemon(true);
+        this.samplerThread.start();
+    }
+
+    /**
+     * Stop sampling and take the final readings.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        stopped = true;
+        samplerThread.join();
+        heapGrowthInMegabytes = (peakHeapInBytes - heapBeforeInBytes) / BYTES_PER_MEGABYTE;
+        peakThreads = threads.getPeakThreadCount();
+        threadsLeft = threads.getThreadCount() - threadsBefore;
+        gcCount = countCollections() - gcCountBefore;
+        gcTimeInMillis = sumCollectionTimesInMillis() - gcTimeBeforeInMillis;
+    }
+
+    long getPeakHeapInMegabytes() {
+        return peakHeapInBytes / BYTES_PER_MEGABYTE;
+    }
+
+    /**
+     * @return How far the heap grew past what was live when the run started.
+     */
+    long getHeapGrowthInMegabytes() {
+        return heapGrowthInMegabytes;
+    }
+
+    int getPeakThreads() {
+        return peakThreads;
+    }
+
+    /**
+     * @return Threads started during the run and still alive after it, shared pools included.
+     */
+    int getThreadsLeft() {
+        return threadsLeft;
+    }
+
+    long getGcCount() {
+        return gcCount;
+    }
+
+    long getGcTimeInMillis() {
+        return gcTimeInMillis;
+    }
+
+    private void sample() {
+        while (!stopped) {
+            peakHeapInBytes = Math.max(peakHeapInBytes, memory.getHeapMemoryUsage().getUsed());
+            try {
+                Thread.sleep(SAMPLE_INTERVAL_IN_MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static long countCollections() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionCount)
+                .filter(count -> count > 0)
+                .sum();
+    }
+
+    private static long sumCollectionTimesInMillis() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+                .mapToLong(GarbageCollectorMXBean::getCollectionTime)
+                .filter(time -> time > 0)
+                .sum();
+    }
+}
@@ -0,0 +1,63 @@
+package me.mircea.licenta.crawler.persistence;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.Page;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author mircea
+ * Keeps pages by url like the crawl database would, so the load test measures crawlers and the page writer
+ * without a database in between.
+ */
+public class InMemoryCrawlStore extends CrawlStore {
+    private final Map<String, Page> pages = new ConcurrentHashMap<>();
+    private final AtomicLong upserts = new AtomicLong();
+
+    private InMemoryCrawlStore() {
+    }
+
+    /**
+     * @return A store that every crawler of this JVM uses from now on.
+     */
+    public static InMemoryCrawlStore install() {
+        InMemoryCrawlStore store = new InMemoryCrawlStore();
+        CrawlStore.replaceInstance(store);
+        return store;
+    }
+
+    @Override
+    public void upsertJob(Job job) {
+        // Jobs are only looked up through the database, which the load test does not have
+    }
+
+    @Override
+    public void upsertPages(List<Page> batch) {
+        upserts.addAndGet(batch.size());
+        for (Page page : batch) {
+            pages.put(page.getUrl(), page);
+        }
+    }
+
+    /**
+     * @return Distinct pages stored since the last clear.
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    /**
+     * @return Pages upserted since the last clear, those written again included.
+     */
+    public long getUpsertCount() {
+        return upserts.get();
+    }
+
+    public void clear() {
+        pages.clear();
+        upserts.set(0);
+    }
+}
@@ -0,0 +1,32 @@
+package me.mircea.licenta.crawler;
+
+/**
+ * @author mircea
+ * Tells a job to stop and why. Crawlers look at it between pages and sitemaps, while whoever cancels the job
+ * also interrupts what it is waiting on, so that a crawler stuck on a page or a fetch notices just as well.
+ */
+public class CancellationToken {
+    private volatile StopReason reason;
+
+    /**
+     * @return True if this call cancelled the job, false if it was already cancelled.
+     */
+    public synchronized boolean cancel(StopReason reason) {
+        if (this.reason != null) {
+            return false;
+        }
+        this.reason = reason;
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return reason != null;
+    }
+
+    /**
+     * @return Why the job was cancelled, or null if it was not.
+     */
+    public StopReason getReason() {
+        return reason;
+    }
+}
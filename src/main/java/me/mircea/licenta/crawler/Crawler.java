@@ -1,31 +1,355 @@
 package me.mircea.licenta.crawler;
 
-import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import crawlercommons.robots.BaseRobotRules;
 import me.mircea.licenta.core.crawl.db.model.Job;
 import me.mircea.licenta.core.crawl.db.model.JobStatus;
+import me.mircea.licenta.crawler.checkpoint.CheckpointStore;
+import me.mircea.licenta.crawler.checkpoint.CrawlCheckpoint;
+import me.mircea.licenta.crawler.dedup.UrlFingerprintSet;
+import me.mircea.licenta.crawler.fetch.HostThrottle;
+import me.mircea.licenta.crawler.fetch.RobotRulesCache;
+import me.mircea.licenta.crawler.fetch.RobotRulesWithSitemaps;
+import me.mircea.licenta.crawler.metrics.CrawlMetrics;
+import me.mircea.licenta.crawler.metrics.JobMetrics;
+import me.mircea.licenta.crawler.persistence.CrawlStore;
+import me.mircea.licenta.crawler.persistence.PageWriteException;
+import me.mircea.licenta.crawler.persistence.PageWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 public abstract class Crawler implements Runnable {
     private static final Logger LOGGER = LoggerFactory.getLogger(Crawler.class);
+    private static final String CONFIG_FILE_DEDUP_MAX_URLS_PER_JOB = "url_dedup_max_urls_per_job";
+    private static final String CONFIG_FILE_CHECKPOINT_INTERVAL = "checkpoint_interval_in_seconds";
+    private static final String CONFIG_FILE_MAX_DURATION = "job_max_duration_in_seconds";
+    private static final String CONFIG_FILE_MAX_PAGES = "job_max_pages";
+    private static final ScheduledThreadPoolExecutor DEADLINE_SCHEDULER = createDeadlineScheduler();
+
     protected final Job job;
+    /**
+     * Urls this job already handed over for writing, so pages seen again are not written again.
+     */
+    protected final UrlFingerprintSet seenUrls;
+    protected final JobMetrics metrics;
+    protected final CancellationToken cancellation = new CancellationToken();
+    private final long checkpointIntervalInNanos;
+    private long lastCheckpointNanos = System.nanoTime();
+    private long maxDurationInSeconds;
+    private long maxPages;
+    private Map<String, Object> requestOptions = Collections.emptyMap();
+    private List<String> additionalSitemaps = Collections.emptyList();
+    /**
+     * Epoch milliseconds of the first start of the job, which may have been on an earlier run of the service.
+     */
+    private long startedAt;
+
+    private final Object runnerLock = new Object();
+    /**
+     * The thread running the job, interrupted when the job is cancelled, or null when none is.
+     */
+    private Thread runner;
+    private ScheduledFuture<?> deadline;
 
     protected Crawler(Job job) {
         this.job = job;
+        this.seenUrls = new UrlFingerprintSet(Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_DEDUP_MAX_URLS_PER_JOB)));
+        this.metrics = CrawlMetrics.getInstance().newJob(job, getClass().getSimpleName());
+        this.checkpointIntervalInNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_CHECKPOINT_INTERVAL)));
+        this.maxDurationInSeconds = Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_DURATION));
+        this.maxPages = Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_PAGES));
+    }
+
+    /**
+     * Replace the time budget from the config file, before the job starts.
+     * @param maxDurationInSeconds Longest the job may run, or 0 for no limit.
+     */
+    public void setMaxDurationInSeconds(long maxDurationInSeconds) {
+        this.maxDurationInSeconds = maxDurationInSeconds;
+    }
+
+    /**
+     * Replace the page budget from the config file, before the job starts. Shelf jobs look at it between
+     * shelves, so they may go over by the products of one shelf.
+     * @param maxPages Most pages the job may find, or 0 for no limit.
+     */
+    public void setMaxPages(long maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Keep what the request asked of this crawler in every checkpoint, so the crawler resuming the job does the same.
+     */
+    public void setRequestOptions(Map<String, Object> requestOptions) {
+        this.requestOptions = requestOptions;
+    }
+
+    /**
+     * Read these sitemaps too, on top of the ones robots.txt lists, before the job starts.
+     */
+    public void setAdditionalSitemaps(List<String> additionalSitemaps) {
+        this.additionalSitemaps = additionalSitemaps;
+    }
+
+    /**
+     * Count the time budget from an earlier start of the job, before the job starts again.
+     * @param startedAt Epoch milliseconds.
+     */
+    public void setStartedAt(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * Stop the job. Whatever it waits on is interrupted and it finishes with the pages found so far.
+     * Has no effect on a job already stopping.
+     */
+    public void cancel(StopReason reason) {
+        if (!cancellation.cancel(reason)) {
+            return;
+        }
+
+        LOGGER.warn("Stopping job {}: {}", this.job, reason);
+        synchronized (runnerLock) {
+            if (runner != null) {
+                runner.interrupt();
+            }
+        }
+        onCancelled();
+    }
+
+    /**
+     * Cancel a job that never started, e.g. one dropped from a queue, and finish it right away.
+     */
+    public void cancelBeforeStart() {
+        cancelBeforeStart(StopReason.CANCELLED);
+    }
+
+    public void cancelBeforeStart(StopReason reason) {
+        cancel(reason);
+        finishCrawlJob();
+    }
+
+    /**
+     * Let go of what the job holds that an interrupt does not reach, e.g. a browser. Runs on the cancelling thread.
+     */
+    protected void onCancelled() {
+    }
+
+    /**
+     * Check between pages whether the job should stop, which also enforces the page budget.
+     */
+    protected boolean shouldStop() {
+        if (maxPages > 0 && !cancellation.isCancelled() && metrics.getDiscoveredPages() >= maxPages) {
+            cancel(StopReason.PAGE_BUDGET_EXCEEDED);
+        }
+        return cancellation.isCancelled() || Thread.currentThread().isInterrupted();
     }
 
     protected void startCrawlJob() {
         LOGGER.info("Started crawling job {}", this.job);
-        CrawlDatabaseManager.instance.upsertJob(this.job);
+        synchronized (runnerLock) {
+            runner = Thread.currentThread();
+        }
+        if (startedAt == 0) {
+            startedAt = System.currentTimeMillis();
+        }
+        if (maxDurationInSeconds > 0) {
+            long remainingMillis = TimeUnit.SECONDS.toMillis(maxDurationInSeconds) - (System.currentTimeMillis() - startedAt);
+            deadline = DEADLINE_SCHEDULER.schedule(() -> cancel(StopReason.DEADLINE_EXCEEDED), Math.max(remainingMillis, 0), TimeUnit.MILLISECONDS);
+        }
+        CrawlMetrics.getInstance().register(metrics);
+        metrics.markStarted();
+        honourCrawlDelay();
+        CrawlStore.getInstance().upsertJob(this.job);
     }
 
+    /**
+     * An interrupted job, e.g. by an undeploy, is not finished: it stays active and keeps its checkpoint.
+     * A cancelled one is, with the pages it found so far, unless another node took it over.
+     */
     protected void finishCrawlJob() {
+        synchronized (runnerLock) {
+            runner = null;
+        }
+        if (deadline != null) {
+            deadline.cancel(false);
+        }
+        metrics.markFinished();
+
+        StopReason stopReason = cancellation.getReason();
+        if (stopReason != null) {
+            // The interrupt was meant for what the job waited on, its pages still have to be written
+            Thread.interrupted();
+            metrics.markStopped(stopReason);
+        } else if (Thread.currentThread().isInterrupted()) {
+            // Pages still queued are written when the writer shuts down
+            CheckpointStore.getInstance().save(getJobId(), createCheckpoint());
+            LOGGER.warn("Job {} was interrupted, it stays active to resume from its checkpoint", this.job);
+            return;
+        }
+
+        // A job whose pages may not all be in the database stays active, to resume from its last checkpoint
+        try {
+            PageWriter.getInstance().flush(getJobId());
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while waiting for the pages of job {} to be written, it stays active", this.job);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (PageWriteException e) {
+            LOGGER.error("Could not write the pages of job {}, it stays active: {}", this.job, e.getMessage());
+            return;
+        } finally {
+            PageWriter.getInstance().forget(getJobId());
+        }
+
+        LOGGER.info("Seen urls of job {}: {}", this.job, seenUrls);
+        if (stopReason == StopReason.LEASE_LOST) {
+            LOGGER.warn("Job {} was taken over by another node, leaving it to finish there", this.job);
+            return;
+        }
         this.job.setEnd(Instant.now());
         this.job.setStatus(JobStatus.FINISHED);
-        CrawlDatabaseManager.instance.upsertJob(this.job);
+        CrawlStore.getInstance().upsertJob(this.job);
+        CheckpointStore.getInstance().delete(getJobId());
+
+        if (stopReason != null) {
+            LOGGER.info("Stopped crawling job {}: {}", this.job, stopReason);
+        } else {
+            LOGGER.info("Finished crawling job {}", this.job);
+            onCompleted();
+        }
+    }
+
+    /**
+     * Called once a job that went through all its pages, without being stopped, has them all in the database.
+     */
+    protected void onCompleted() {
+    }
+
+    /**
+     * Apply the crawl-delay of robots.txt to the hosts the job is known to visit: its domain, seeds and sitemaps.
+     */
+    private void honourCrawlDelay() {
+        BaseRobotRules robotRules = getRobotRules();
+        long crawlDelayInMillis = robotRules.getCrawlDelay();
+        if (crawlDelayInMillis <= 0) {
+            return;
+        }
+
+        Set<String> hosts = new HashSet<>();
+        hosts.add(this.job.getDomain());
+        Stream.concat(this.job.getSeeds().stream(), robotRules.getSitemaps().stream())
+                .map(Crawler::getHost)
+                .filter(Objects::nonNull)
+                .forEach(hosts::add);
+        hosts.forEach(host -> HostThrottle.getShared().honourCrawlDelay(host, crawlDelayInMillis));
+        LOGGER.info("Keeping requests of job {} at least {} ms apart on {}, as robots.txt asks", this.job, crawlDelayInMillis, hosts);
+    }
+
+    /**
+     * @return The rules of robots.txt of the job's domain, with the sitemaps this job was given added.
+     */
+    public BaseRobotRules getRobotRules() {
+        return getRobotRules(this.job, additionalSitemaps);
+    }
+
+    /**
+     * @return The rules of robots.txt of the job's domain, from the cache shared by all jobs, with additionalSitemaps
+     * added to a copy of its sitemaps, since the cached rules are shared.
+     */
+    public static BaseRobotRules getRobotRules(Job job, List<String> additionalSitemaps) {
+        String pageUrl = job.getSeeds().isEmpty() ? "http://" + job.getDomain() : job.getSeeds().iterator().next();
+        BaseRobotRules hostRules = RobotRulesCache.getShared().getRules(pageUrl);
+        return additionalSitemaps.isEmpty() ? hostRules : new RobotRulesWithSitemaps(hostRules, additionalSitemaps);
+    }
+
+    /**
+     * @return Whether the job drives a browser, which it should then get one of the few browser workers for.
+     */
+    public boolean needsBrowser() {
+        return false;
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URI(url).getHost();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Where the job was when it last saved a checkpoint, if this kind of crawler saved it.
+     */
+    protected Optional<CrawlCheckpoint> restoreCheckpoint() {
+        Optional<CrawlCheckpoint> checkpoint = CheckpointStore.getInstance().load(getJobId())
+                .filter(savedCheckpoint -> getClass().getSimpleName().equals(savedCheckpoint.getCrawler()));
+        checkpoint.ifPresent(savedCheckpoint -> LOGGER.info("Resuming job {} from its checkpoint of {}",
+                this.job, Instant.ofEpochMilli(savedCheckpoint.getSavedAt())));
+        return checkpoint;
+    }
+
+    /**
+     * Save a checkpoint if the last one is old enough. The pages queued so far are written first,
+     * so that nothing before the checkpoint is lost if the node goes down right after.
+     */
+    protected void checkpointIfDue() {
+        if (System.nanoTime() - lastCheckpointNanos < checkpointIntervalInNanos) {
+            return;
+        }
+
+        CrawlCheckpoint checkpoint = createCheckpoint();
+        try {
+            PageWriter.getInstance().flush(getJobId());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (PageWriteException e) {
+            LOGGER.warn("Not saving a checkpoint of job {}: {}", this.job, e.getMessage());
+            return;
+        }
+        CheckpointStore.getInstance().save(getJobId(), checkpoint);
+        lastCheckpointNanos = System.nanoTime();
+    }
+
+    /**
+     * @return A snapshot of what is left to crawl, taken before the pages found so far are flushed.
+     */
+    protected abstract CrawlCheckpoint createCheckpoint();
+
+    protected CrawlCheckpoint newCheckpoint() {
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint();
+        checkpoint.setCrawler(getClass().getSimpleName());
+        checkpoint.setSavedAt(System.currentTimeMillis());
+        checkpoint.setOptions(requestOptions);
+        checkpoint.setJobStartedAt(startedAt);
+        return checkpoint;
+    }
+
+    protected String getJobId() {
+        return String.valueOf(this.job.getId());
+    }
 
-        LOGGER.info("Finished crawling job {}", this.job);
+    private static ScheduledThreadPoolExecutor createDeadlineScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat("crawl-deadlines").setDaemon(true).build());
+        // Most jobs end well before their deadline, which should not linger in the queue until then
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
     }
 }
@@ -0,0 +1,44 @@
+package me.mircea.licenta.crawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * @author mircea
+ * Settings shared by every crawler type, as opposed to the browser_* ones.
+ * A system property of the same name wins over the file, so that nodes built alike can still differ,
+ * e.g. -Dcoordination_node_id=worker-1.
+ */
+public class CrawlerSettingsUtil {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlerSettingsUtil.class);
+    private static Map<String, String> crawlerSettings;
+
+    static {
+        try {
+            final String crawlerSettingsFile = "crawlerDefault.properties";
+            final InputStream crawlerSettingsInputStream = CrawlerSettingsUtil.class.getResourceAsStream("/" + crawlerSettingsFile);
+
+            crawlerSettings = new HashMap<>();
+            Properties persistedProps = new Properties();
+            persistedProps.load(crawlerSettingsInputStream);
+            persistedProps.forEach((key, value) ->
+                    crawlerSettings.put(key.toString(), value.toString()));
+        } catch (IOException e) {
+            LOGGER.error("Fatal error: Could not open crawler settings file {}", e);
+            System.exit(-1);
+        }
+    }
+
+    private CrawlerSettingsUtil() {
+    }
+
+    public static String getSetting(String key) {
+        return System.getProperty(key, crawlerSettings.get(key));
+    }
+}
@@ -0,0 +1,24 @@
+package me.mircea.licenta.crawler;
+
+/**
+ * @author mircea
+ * Why a job stopped before crawling everything it found.
+ */
+public enum StopReason {
+    /**
+     * Someone asked for the job to stop.
+     */
+    CANCELLED,
+    /**
+     * The job ran for longer than its budget.
+     */
+    DEADLINE_EXCEEDED,
+    /**
+     * The job found as many pages as its budget allows.
+     */
+    PAGE_BUDGET_EXCEEDED,
+    /**
+     * Another node took the job over after this one failed to renew its lease, so it is left to finish there.
+     */
+    LEASE_LOST
+}
@@ -0,0 +1,84 @@
+package me.mircea.licenta.crawler.checkpoint;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+
+/**
+ * @author mircea
+ * Keeps the checkpoint of every unfinished job in a json file named after the job, since the job record
+ * belongs to core. A file is replaced atomically on every save and removed once its job finishes.
+ */
+public class CheckpointStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CheckpointStore.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final String CONFIG_FILE_CHECKPOINT_DIRECTORY = "checkpoint_directory";
+
+    private final Path directory;
+
+    CheckpointStore(Path directory) {
+        this.directory = directory;
+    }
+
+    public static CheckpointStore getInstance() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @return The last checkpoint of the job, or empty if it has none or it cannot be read.
+     */
+    public Optional<CrawlCheckpoint> load(String jobId) {
+        Path file = getFile(jobId);
+        if (!Files.isReadable(file)) {
+            return Optional.empty();
+        }
+
+        try {
+            return Optional.of(MAPPER.readValue(file.toFile(), CrawlCheckpoint.class));
+        } catch (IOException e) {
+            LOGGER.warn("Could not read checkpoint {}, the job starts over: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Write to a temporary file first, so a crash never leaves a truncated checkpoint behind.
+     */
+    public void save(String jobId, CrawlCheckpoint checkpoint) {
+        Path file = getFile(jobId);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            MAPPER.writeValue(temporaryFile.toFile(), checkpoint);
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not save checkpoint {}: {}", file, e.getMessage());
+        }
+    }
+
+    public void delete(String jobId) {
+        try {
+            Files.deleteIfExists(getFile(jobId));
+        } catch (IOException e) {
+            LOGGER.warn("Could not delete the checkpoint of job {}: {}", jobId, e.getMessage());
+        }
+    }
+
+    private Path getFile(String jobId) {
+        return directory.toAbsolutePath().resolve(jobId.replaceAll("[^A-Za-z0-9.-]", "_") + ".json");
+    }
+
+    private static class SharedInstanceHolder {
+        private static final CheckpointStore INSTANCE = new CheckpointStore(
+                Paths.get(CrawlerSettingsUtil.getSetting(CONFIG_FILE_CHECKPOINT_DIRECTORY)));
+    }
+}
@@ -0,0 +1,112 @@
+package me.mircea.licenta.crawler.checkpoint;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author mircea
+ * Where a job stopped, saved every now and then so a restarted job continues from there instead of its seeds.
+ * Shelf crawlers fill in the seed and shelf they were on, the sitemap crawler the sitemaps it had yet to finish.
+ * A job queued on a node gets one without a crawler right away, which marks the job as that node's to recover.
+ */
+public class CrawlCheckpoint {
+    private String crawler;
+    private long savedAt;
+    private int seedIndex;
+    private String shelfUrl;
+    private Map<String, String> pendingSitemaps = new LinkedHashMap<>();
+    private List<String> finishedSitemaps = new ArrayList<>();
+    private Map<String, Object> options = new LinkedHashMap<>();
+    private long jobStartedAt;
+
+    /**
+     * @return Simple name of the crawler class that saved the checkpoint, since only it can resume from it,
+     * or null if no crawler ran the job yet.
+     */
+    public String getCrawler() {
+        return crawler;
+    }
+
+    public void setCrawler(String crawler) {
+        this.crawler = crawler;
+    }
+
+    /**
+     * @return Epoch milliseconds of the save.
+     */
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    public void setSavedAt(long savedAt) {
+        this.savedAt = savedAt;
+    }
+
+    /**
+     * @return Index of the seed being traversed, the ones before it are done.
+     */
+    public int getSeedIndex() {
+        return seedIndex;
+    }
+
+    public void setSeedIndex(int seedIndex) {
+        this.seedIndex = seedIndex;
+    }
+
+    /**
+     * @return The shelf of the current seed to start from, or null for the seed itself.
+     */
+    public String getShelfUrl() {
+        return shelfUrl;
+    }
+
+    public void setShelfUrl(String shelfUrl) {
+        this.shelfUrl = shelfUrl;
+    }
+
+    /**
+     * @return Sitemaps queued or being parsed, along with the lastmod their index advertised (possibly null).
+     */
+    public Map<String, String> getPendingSitemaps() {
+        return pendingSitemaps;
+    }
+
+    public void setPendingSitemaps(Map<String, String> pendingSitemaps) {
+        this.pendingSitemaps = pendingSitemaps;
+    }
+
+    /**
+     * @return Sitemaps whose urls were all written, so they are not fetched again.
+     */
+    public List<String> getFinishedSitemaps() {
+        return finishedSitemaps;
+    }
+
+    public void setFinishedSitemaps(List<String> finishedSitemaps) {
+        this.finishedSitemaps = finishedSitemaps;
+    }
+
+    /**
+     * @return What the request asked of the crawler beyond the job, e.g. its budgets, for the resumed crawler to keep.
+     */
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    public void setOptions(Map<String, Object> options) {
+        this.options = options;
+    }
+
+    /**
+     * @return Epoch milliseconds of the first start of the job, which its time budget counts from, or 0 if it never started.
+     */
+    public long getJobStartedAt() {
+        return jobStartedAt;
+    }
+
+    public void setJobStartedAt(long jobStartedAt) {
+        this.jobStartedAt = jobStartedAt;
+    }
+}
@@ -0,0 +1,60 @@
+package me.mircea.licenta.crawler.coordination;
+
+import me.mircea.licenta.crawler.scheduler.CrawlLane;
+
+import java.util.Map;
+
+/**
+ * @author mircea
+ * A job a node took from the {@link LeaseStore}, with what it needs to create the crawler of the job.
+ */
+public class JobLease {
+    private final String jobId;
+    private final String domain;
+    private final int priority;
+    private final CrawlLane lane;
+    private final Map<String, Object> options;
+    private final int claims;
+
+    JobLease(String jobId, String domain, int priority, CrawlLane lane, Map<String, Object> options, int claims) {
+        this.jobId = jobId;
+        this.domain = domain;
+        this.priority = priority;
+        this.lane = lane;
+        this.options = options;
+        this.claims = claims;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return Lane the crawler of the job needs, or null if no node created one yet.
+     */
+    public CrawlLane getLane() {
+        return lane;
+    }
+
+    /**
+     * @return What the request of the job asked of its crawler, as given when it was queued.
+     */
+    public Map<String, Object> getOptions() {
+        return options;
+    }
+
+    /**
+     * @return How many times a node took the job, more than once if a node let it go or its lease ran out.
+     */
+    public int getClaims() {
+        return claims;
+    }
+}
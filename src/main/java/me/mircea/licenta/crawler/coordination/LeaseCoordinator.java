@@ -0,0 +1,266 @@
+package me.mircea.licenta.crawler.coordination;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import me.mircea.licenta.crawler.scheduler.CrawlLane;
+import me.mircea.licenta.crawler.scheduler.CrawlListener;
+import me.mircea.licenta.crawler.scheduler.CrawlScheduler;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * @author mircea
+ * Lets several nodes share the jobs in the {@link LeaseStore}: each node takes jobs while its scheduler has free
+ * workers, renews the leases of the jobs it holds, and lets go of a job whose lease another node took after
+ * this one failed to renew it. Jobs needing a browser are only taken by nodes with a browser worker free, while
+ * jobs no node created a crawler for yet are taken by http workers, which find out what they need.
+ */
+public class LeaseCoordinator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LeaseCoordinator.class);
+
+    private static final String CONFIG_FILE_MODE = "coordination_mode";
+    private static final String CONFIG_FILE_NODE_ID = "coordination_node_id";
+    private static final String CONFIG_FILE_LEASE_DURATION = "coordination_lease_duration_in_seconds";
+    private static final String CONFIG_FILE_HEARTBEAT_INTERVAL = "coordination_heartbeat_interval_in_seconds";
+    private static final String CONFIG_FILE_POLL_INTERVAL = "coordination_poll_interval_in_seconds";
+    private static final String LEASE_MODE = "lease";
+    private static final long STOP_TIMEOUT_IN_SECONDS = 10;
+
+    private final LeaseStore leaseStore;
+    private final CrawlScheduler scheduler;
+    private final String nodeId;
+    private final Duration leaseDuration;
+    private final long heartbeatIntervalInSeconds;
+    private final long pollIntervalInSeconds;
+
+    /**
+     * Jobs this node holds the lease of, with the lane their crawler needs, unknown until a node created one.
+     */
+    private final Map<String, Optional<CrawlLane>> heldJobs = new ConcurrentHashMap<>();
+    /**
+     * Jobs taken for a browser worker that did not get to the browser queue yet, which that worker is kept for.
+     */
+    private final Set<String> awaitingBrowser = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService executor;
+    private BiFunction<Job, Map<String, Object>, Crawler> crawlerFactory;
+
+    public LeaseCoordinator(LeaseStore leaseStore, CrawlScheduler scheduler, String nodeId, Duration leaseDuration,
+                            long heartbeatIntervalInSeconds, long pollIntervalInSeconds) {
+        this.leaseStore = leaseStore;
+        this.scheduler = scheduler;
+        this.nodeId = nodeId;
+        this.leaseDuration = leaseDuration;
+        this.heartbeatIntervalInSeconds = heartbeatIntervalInSeconds;
+        this.pollIntervalInSeconds = pollIntervalInSeconds;
+    }
+
+    public static LeaseCoordinator getShared() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @return Whether nodes take jobs from the lease store, instead of running the jobs posted to them.
+     */
+    public static boolean isEnabled() {
+        return LEASE_MODE.equalsIgnoreCase(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MODE));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getHeldJobCount() {
+        return heldJobs.size();
+    }
+
+    /**
+     * Start taking jobs and renewing their leases.
+     * @param crawlerFactory Creates the crawler of a job taken, given the options it was queued with.
+     */
+    public synchronized void start(BiFunction<Job, Map<String, Object>, Crawler> crawlerFactory) {
+        if (executor != null) {
+            return;
+        }
+        this.crawlerFactory = crawlerFactory;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("lease-coordinator")
+                .setDaemon(true)
+                .build());
+        executor.scheduleWithFixedDelay(this::renewLeases, heartbeatIntervalInSeconds, heartbeatIntervalInSeconds, TimeUnit.SECONDS);
+        executor.scheduleWithFixedDelay(this::claimJobs, 0, pollIntervalInSeconds, TimeUnit.SECONDS);
+        LOGGER.info("Node {} takes jobs from the lease store, leases last {}", nodeId, leaseDuration);
+    }
+
+    /**
+     * Stop taking jobs and give back the ones held, for other nodes to take right away instead of once their
+     * leases expire. Meant to be called once the scheduler stopped running them.
+     */
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(STOP_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        LOGGER.info("Giving back {} jobs held by node {}", heldJobs.size(), nodeId);
+        heldJobs.forEach((jobId, lane) -> {
+            try {
+                leaseStore.giveBack(jobId, nodeId, lane.orElse(null));
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not give back job {}, it is taken again once its lease expires: {}", jobId, e.toString());
+            }
+        });
+        heldJobs.clear();
+    }
+
+    private void renewLeases() {
+        for (String jobId : heldJobs.keySet()) {
+            try {
+                if (!leaseStore.renew(jobId, nodeId, leaseDuration)) {
+                    LOGGER.warn("Lost the lease of job {}, letting go of it", jobId);
+                    heldJobs.remove(jobId);
+                    awaitingBrowser.remove(jobId);
+                    scheduler.release(jobId);
+                }
+            } catch (RuntimeException e) {
+                // The lease may still be renewed on the next heartbeat, before it expires
+                LOGGER.warn("Could not renew the lease of job {}: {}", jobId, e.toString());
+            }
+        }
+    }
+
+    private void claimJobs() {
+        try {
+            claimFor(CrawlLane.BROWSER);
+            claimFor(CrawlLane.HTTP);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not take jobs from the lease store: {}", e.toString());
+        }
+    }
+
+    private void claimFor(CrawlLane lane) {
+        while (getFreeWorkers(lane) > 0) {
+            Optional<JobLease> possibleLease = leaseStore.claim(nodeId, lane, leaseDuration);
+            if (!possibleLease.isPresent()) {
+                return;
+            }
+            JobLease lease = possibleLease.get();
+            if (lease.getClaims() > 1) {
+                LOGGER.info("Took over job {} on {}, taken {} times so far", lease.getJobId(), lease.getDomain(), lease.getClaims());
+            }
+            startJob(lease);
+        }
+    }
+
+    private void startJob(JobLease lease) {
+        Job job = CrawlDatabaseManager.instance.getJobById(new ObjectId(lease.getJobId()));
+        if (job == null) {
+            LOGGER.warn("Dropping the lease of job {}, which is not in the database", lease.getJobId());
+            leaseStore.complete(lease.getJobId(), nodeId);
+            return;
+        }
+
+        heldJobs.put(lease.getJobId(), Optional.ofNullable(lease.getLane()));
+        if (lease.getLane() == CrawlLane.BROWSER) {
+            awaitingBrowser.add(lease.getJobId());
+        }
+        try {
+            scheduler.submit(job, queuedJob -> crawlerFactory.apply(queuedJob, lease.getOptions()), lease.getPriority(), new LeaseListener(lease.getJobId()));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Could not queue job {}, giving it back: {}", lease.getJobId(), e.getMessage());
+            letGo(lease.getJobId(), lease.getLane());
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not start job {}, giving it back: {}", lease.getJobId(), e);
+            letGo(lease.getJobId(), lease.getLane());
+        }
+    }
+
+    /**
+     * Free workers of a lane, less the browser workers kept for jobs that have not reached them yet.
+     */
+    private int getFreeWorkers(CrawlLane lane) {
+        int freeWorkers = scheduler.getFreeWorkers(lane);
+        return lane == CrawlLane.BROWSER ? freeWorkers - awaitingBrowser.size() : freeWorkers;
+    }
+
+    private void letGo(String jobId, CrawlLane lane) {
+        heldJobs.remove(jobId);
+        awaitingBrowser.remove(jobId);
+        leaseStore.giveBack(jobId, nodeId, lane);
+    }
+
+    /**
+     * Keeps the lease of a job in step with what the scheduler does with it.
+     */
+    private class LeaseListener implements CrawlListener {
+        private final String jobId;
+
+        LeaseListener(String jobId) {
+            this.jobId = jobId;
+        }
+
+        @Override
+        public boolean shouldWaitForLane(Job job, CrawlLane lane) {
+            boolean keptWorker = awaitingBrowser.remove(jobId);
+            if (keptWorker || getFreeWorkers(lane) > 0) {
+                heldJobs.replace(jobId, Optional.of(lane));
+                return true;
+            }
+
+            LOGGER.info("Giving back job {}, no {} worker is free on node {}", jobId, lane, nodeId);
+            letGo(jobId, lane);
+            return false;
+        }
+
+        @Override
+        public void onFinished(Job job) {
+            heldJobs.remove(jobId);
+            awaitingBrowser.remove(jobId);
+            leaseStore.complete(jobId, nodeId);
+        }
+    }
+
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "node";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    private static class SharedInstanceHolder {
+        private static final LeaseCoordinator INSTANCE = new LeaseCoordinator(
+                LeaseStore.getShared(),
+                CrawlScheduler.getInstance(),
+                Optional.ofNullable(CrawlerSettingsUtil.getSetting(CONFIG_FILE_NODE_ID))
+                        .filter(nodeId -> !nodeId.isEmpty())
+                        .orElseGet(LeaseCoordinator::defaultNodeId),
+                Duration.ofSeconds(Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_LEASE_DURATION))),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_HEARTBEAT_INTERVAL)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_POLL_INTERVAL)));
+    }
+}
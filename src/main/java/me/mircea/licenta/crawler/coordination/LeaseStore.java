@@ -0,0 +1,153 @@
+package me.mircea.licenta.crawler.coordination;
+
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import me.mircea.licenta.crawler.scheduler.CrawlLane;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * @author mircea
+ * Jobs waiting for a node and the leases of the ones taken, in a collection next to the jobs. A job is taken
+ * with a single atomic update, so two nodes never get the same job, and its lease lasts until it expires unless
+ * renewed. A lease left to expire, e.g. by a node that went down, can be taken by any node.
+ * Expiry is compared against the clock of the node asking, so leases should last far longer than clocks drift apart.
+ */
+public class LeaseStore {
+    private static final String CONFIG_FILE_MONGODB_URI = "coordination_mongodb_uri";
+    private static final String CONFIG_FILE_DATABASE = "coordination_database";
+    private static final String COLLECTION = "crawl_leases";
+
+    private static final String ID = "_id";
+    private static final String DOMAIN = "domain";
+    private static final String PRIORITY = "priority";
+    private static final String SUBMITTED_AT = "submittedAt";
+    private static final String LANE = "lane";
+    private static final String OPTIONS = "options";
+    private static final String NODE_ID = "nodeId";
+    private static final String EXPIRES_AT = "expiresAt";
+    private static final String CLAIMS = "claims";
+
+    private final MongoCollection<Document> leases;
+
+    public LeaseStore(MongoCollection<Document> leases) {
+        this.leases = leases;
+        this.leases.createIndex(Indexes.compoundIndex(Indexes.ascending(LANE), Indexes.descending(PRIORITY), Indexes.ascending(SUBMITTED_AT)));
+        this.leases.createIndex(Indexes.ascending(NODE_ID));
+    }
+
+    /**
+     * @return The store shared by this node, connected on first use.
+     */
+    public static LeaseStore getShared() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Offer a job to every node.
+     * @param options What the request asked of the crawler of the job, handed to whichever node takes it.
+     */
+    public void enqueue(String jobId, String domain, int priority, Map<String, Object> options) {
+        leases.insertOne(new Document(ID, jobId)
+                .append(DOMAIN, domain)
+                .append(PRIORITY, priority)
+                .append(SUBMITTED_AT, new Date())
+                .append(OPTIONS, new Document(options))
+                .append(CLAIMS, 0));
+    }
+
+    /**
+     * Offer a job to every node, unless it already is.
+     * @return Whether the job was not offered before.
+     */
+    public boolean enqueueIfAbsent(String jobId, String domain, int priority) {
+        return leases.updateOne(Filters.eq(ID, jobId), Updates.combine(
+                Updates.setOnInsert(DOMAIN, domain),
+                Updates.setOnInsert(PRIORITY, priority),
+                Updates.setOnInsert(SUBMITTED_AT, new Date()),
+                Updates.setOnInsert(OPTIONS, new Document()),
+                Updates.setOnInsert(CLAIMS, 0)), new UpdateOptions().upsert(true)).getUpsertedId() != null;
+    }
+
+    /**
+     * Take the first job by priority that needs a worker of lane and is free or whose lease expired.
+     * Jobs no node created a crawler for yet are taken by http workers, which create it.
+     */
+    public Optional<JobLease> claim(String nodeId, CrawlLane lane, Duration leaseDuration) {
+        Instant now = Instant.now();
+        Bson laneFilter = lane == CrawlLane.HTTP
+                ? Filters.in(LANE, Arrays.asList(null, CrawlLane.HTTP.name()))
+                : Filters.eq(LANE, lane.name());
+        Bson takeable = Filters.and(laneFilter, Filters.or(Filters.eq(NODE_ID, null), Filters.lt(EXPIRES_AT, Date.from(now))));
+
+        Document lease = leases.findOneAndUpdate(takeable,
+                Updates.combine(Updates.set(NODE_ID, nodeId), Updates.set(EXPIRES_AT, Date.from(now.plus(leaseDuration))), Updates.inc(CLAIMS, 1)),
+                new FindOneAndUpdateOptions()
+                        .sort(Sorts.orderBy(Sorts.descending(PRIORITY), Sorts.ascending(SUBMITTED_AT)))
+                        .returnDocument(ReturnDocument.AFTER));
+        return Optional.ofNullable(lease).map(LeaseStore::toJobLease);
+    }
+
+    /**
+     * @return Whether the node still held the lease, which now lasts leaseDuration from now.
+     */
+    public boolean renew(String jobId, String nodeId, Duration leaseDuration) {
+        return leases.updateOne(Filters.and(Filters.eq(ID, jobId), Filters.eq(NODE_ID, nodeId)),
+                Updates.set(EXPIRES_AT, Date.from(Instant.now().plus(leaseDuration)))).getMatchedCount() > 0;
+    }
+
+    /**
+     * Hand a job back to every node, remembering the lane its crawler needs so only a node with a free worker
+     * of that lane takes it.
+     */
+    public void giveBack(String jobId, String nodeId, CrawlLane lane) {
+        leases.updateOne(Filters.and(Filters.eq(ID, jobId), Filters.eq(NODE_ID, nodeId)), Updates.combine(
+                lane != null ? Updates.set(LANE, lane.name()) : Updates.unset(LANE),
+                Updates.unset(NODE_ID),
+                Updates.unset(EXPIRES_AT)));
+    }
+
+    /**
+     * Drop the lease of a job the node is done with, unless another node took it over in the meantime.
+     */
+    public void complete(String jobId, String nodeId) {
+        leases.deleteOne(Filters.and(Filters.eq(ID, jobId), Filters.eq(NODE_ID, nodeId)));
+    }
+
+    /**
+     * Drop a job whichever node holds it, which that node notices on its next renewal.
+     * @return Whether the job was offered or taken.
+     */
+    public boolean remove(String jobId) {
+        return leases.deleteOne(Filters.eq(ID, jobId)).getDeletedCount() > 0;
+    }
+
+    private static JobLease toJobLease(Document lease) {
+        String lane = lease.getString(LANE);
+        Document options = lease.get(OPTIONS, Document.class);
+        return new JobLease(lease.getString(ID), lease.getString(DOMAIN), lease.getInteger(PRIORITY, 0),
+                lane != null ? CrawlLane.valueOf(lane) : null, options != null ? options : new Document(),
+                lease.getInteger(CLAIMS, 1));
+    }
+
+    private static class SharedInstanceHolder {
+        private static final LeaseStore INSTANCE = new LeaseStore(MongoClients.create(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MONGODB_URI))
+                .getDatabase(CrawlerSettingsUtil.getSetting(CONFIG_FILE_DATABASE))
+                .getCollection(COLLECTION));
+    }
+}
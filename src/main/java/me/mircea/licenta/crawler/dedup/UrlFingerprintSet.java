@@ -0,0 +1,136 @@
+package me.mircea.licenta.crawler.dedup;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author mircea
+ * Compact set of the urls a job has already seen, kept as 64-bit fingerprints of their normalized form in an
+ * open addressing table of primitive longs, so a url costs tens of bytes instead of a few hundred for a
+ * set of strings. Two urls sharing a fingerprint is unlikely enough (around one in a million for five
+ * million urls) to accept losing one of them.
+ * Once the set holds as many urls as allowed it stops growing and every new url is reported as unseen,
+ * so duplicates may get through again but no page is lost.
+ */
+public class UrlFingerprintSet {
+    private static final HashFunction FINGERPRINT_FUNCTION = Hashing.murmur3_128();
+    private static final long EMPTY_SLOT = 0L;
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final double MAX_LOAD_FACTOR = 0.75;
+
+    private final int maxUrls;
+    private long[] slots = new long[INITIAL_CAPACITY];
+    private int size = 0;
+    private long duplicates = 0;
+    private boolean saturated = false;
+
+    public UrlFingerprintSet(int maxUrls) {
+        this.maxUrls = maxUrls;
+    }
+
+    /**
+     * @return True if the url was not seen before, or if the set is full and cannot tell.
+     */
+    public synchronized boolean add(String url) {
+        long fingerprint = fingerprint(url);
+        int mask = slots.length - 1;
+        int slot = mix(fingerprint) & mask;
+        while (slots[slot] != EMPTY_SLOT) {
+            if (slots[slot] == fingerprint) {
+                ++duplicates;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size >= maxUrls) {
+            saturated = true;
+            return true;
+        }
+        if (size + 1 > slots.length * MAX_LOAD_FACTOR) {
+            grow();
+            return add(url);
+        }
+
+        slots[slot] = fingerprint;
+        ++size;
+        return true;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Urls turned away because they were already seen.
+     */
+    public synchronized long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return Whether the set reached its limit and let urls through without remembering them.
+     */
+    public synchronized boolean isSaturated() {
+        return saturated;
+    }
+
+    public synchronized long getMemoryInBytes() {
+        return (long) slots.length * Long.BYTES;
+    }
+
+    /**
+     * @return Memory the set uses for each million urls it holds, at its current fill.
+     */
+    public synchronized long getMemoryPerMillionUrlsInBytes() {
+        return size == 0 ? 0 : getMemoryInBytes() * 1_000_000L / size;
+    }
+
+    /**
+     * @return Memory the set uses at most, once it holds as many urls as allowed.
+     */
+    public long getMaxMemoryInBytes() {
+        int capacity = INITIAL_CAPACITY;
+        while (maxUrls > capacity * MAX_LOAD_FACTOR) {
+            capacity <<= 1;
+        }
+        return (long) capacity * Long.BYTES;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d urls, %d duplicates, %d KiB (%d KiB per million urls, at most %d KiB)%s",
+                size, duplicates, getMemoryInBytes() / 1024, getMemoryPerMillionUrlsInBytes() / 1024,
+                getMaxMemoryInBytes() / 1024, saturated ? ", saturated" : "");
+    }
+
+    private void grow() {
+        long[] oldSlots = slots;
+        slots = new long[oldSlots.length << 1];
+        int mask = slots.length - 1;
+        for (long fingerprint : oldSlots) {
+            if (fingerprint != EMPTY_SLOT) {
+                int slot = mix(fingerprint) & mask;
+                while (slots[slot] != EMPTY_SLOT) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = fingerprint;
+            }
+        }
+    }
+
+    private static long fingerprint(String url) {
+        long fingerprint = FINGERPRINT_FUNCTION.hashString(UrlNormalizer.normalize(url), StandardCharsets.UTF_8).asLong();
+        // Zero marks an empty slot
+        return fingerprint == EMPTY_SLOT ? 1L : fingerprint;
+    }
+
+    /**
+     * The fingerprint is already a good hash, folding the high bits in only helps small tables.
+     */
+    private static int mix(long fingerprint) {
+        return (int) (fingerprint ^ (fingerprint >>> 32));
+    }
+}
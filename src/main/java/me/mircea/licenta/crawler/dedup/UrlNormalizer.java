@@ -0,0 +1,57 @@
+package me.mircea.licenta.crawler.dedup;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+
+/**
+ * @author mircea
+ * Brings the spellings of an url that lead to the same page to a single form, so they are recognized as duplicates.
+ */
+public class UrlNormalizer {
+    private static final int DEFAULT_HTTP_PORT = 80;
+    private static final int DEFAULT_HTTPS_PORT = 443;
+
+    private UrlNormalizer() {
+    }
+
+    /**
+     * Lowercase the scheme and host, drop the default port and the fragment, and give an empty path a slash.
+     * The path and query are kept as they are, since shops often tell products apart by them.
+     * @return The normalized url, or the trimmed input if it is not a valid absolute url.
+     */
+    public static String normalize(String url) {
+        String trimmedUrl = url.trim();
+        try {
+            URI uri = new URI(trimmedUrl);
+            if (uri.getScheme() == null || uri.getRawAuthority() == null || uri.getHost() == null) {
+                return trimmedUrl;
+            }
+
+            String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            StringBuilder normalizedUrl = new StringBuilder(trimmedUrl.length())
+                    .append(scheme)
+                    .append("://");
+            if (uri.getRawUserInfo() != null) {
+                normalizedUrl.append(uri.getRawUserInfo()).append('@');
+            }
+            normalizedUrl.append(uri.getHost().toLowerCase(Locale.ROOT));
+            if (uri.getPort() != -1 && !isDefaultPort(scheme, uri.getPort())) {
+                normalizedUrl.append(':').append(uri.getPort());
+            }
+
+            String path = uri.getRawPath();
+            normalizedUrl.append(path == null || path.isEmpty() ? "/" : path);
+            if (uri.getRawQuery() != null) {
+                normalizedUrl.append('?').append(uri.getRawQuery());
+            }
+            return normalizedUrl.toString();
+        } catch (URISyntaxException e) {
+            return trimmedUrl;
+        }
+    }
+
+    private static boolean isDefaultPort(String scheme, int port) {
+        return ("http".equals(scheme) && port == DEFAULT_HTTP_PORT) || ("https".equals(scheme) && port == DEFAULT_HTTPS_PORT);
+    }
+}
@@ -0,0 +1,141 @@
+package me.mircea.licenta.crawler.fetch;
+
+import me.mircea.licenta.core.crawl.db.RobotDefaults;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpResponseException;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking fetcher on top of the Jetty NIO client. No thread is held while connecting or waiting for
+ * the response headers, connections are kept alive and pooled per host across jobs, and gzip
+ * content encoding is decoded transparently.
+ * @author mircea
+ */
+public class AsyncHttpFetcher implements Fetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncHttpFetcher.class);
+    private static final int HTTP_CONNECT_TIMEOUT_IN_MILLISECONDS = 50_000;
+    private static final int HTTP_IDLE_TIMEOUT_IN_MILLISECONDS = 50_000;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MIN_THREADS = 2;
+    private static final int MAX_STALE_CONNECTION_RETRIES = 1;
+
+    private static final String CONFIG_FILE_THREADS = "http_fetcher_threads";
+    private static final String CONFIG_FILE_MAX_CONNECTIONS_PER_HOST = "http_fetcher_max_connections_per_host";
+
+    private final HttpClient client;
+
+    /**
+     * @param maxThreads Threads shared by every fetch, which only run callbacks and never wait on sockets.
+     * @param maxConnectionsPerHost Size of the keep-alive pool of each host.
+     */
+    public AsyncHttpFetcher(int maxThreads, int maxConnectionsPerHost) {
+        QueuedThreadPool threadPool = new QueuedThreadPool(maxThreads, Math.min(MIN_THREADS, maxThreads));
+        threadPool.setName("http-fetcher");
+        threadPool.setDaemon(true);
+
+        this.client = new HttpClient(new SslContextFactory.Client());
+        this.client.setExecutor(threadPool);
+        this.client.setScheduler(new ScheduledExecutorScheduler("http-fetcher-scheduler", true));
+        this.client.setMaxConnectionsPerDestination(maxConnectionsPerHost);
+        this.client.setConnectTimeout(HTTP_CONNECT_TIMEOUT_IN_MILLISECONDS);
+        this.client.setIdleTimeout(HTTP_IDLE_TIMEOUT_IN_MILLISECONDS);
+        this.client.setFollowRedirects(true);
+        this.client.setMaxRedirects(MAX_REDIRECTS);
+        this.client.setUserAgentField(new HttpField(HttpHeader.USER_AGENT, RobotDefaults.getDefault("user_agent")));
+
+        try {
+            this.client.start();
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not start the http client", e);
+        }
+    }
+
+    /**
+     * @return The fetcher shared by all jobs of this node.
+     */
+    public static AsyncHttpFetcher getShared() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    @Override
+    public CompletableFuture<Optional<FetchResponse>> fetch(URL url, Map<String, String> headers) {
+        CompletableFuture<Optional<FetchResponse>> futureResponse = new CompletableFuture<>();
+        send(url, headers, MAX_STALE_CONNECTION_RETRIES, futureResponse);
+        return futureResponse;
+    }
+
+    /**
+     * A pooled connection may have been closed by the server while idle, which only shows up as an
+     * end of stream before any response, so such failures are retried on a fresh connection.
+     */
+    private void send(URL url, Map<String, String> headers, int retriesLeft, CompletableFuture<Optional<FetchResponse>> futureResponse) {
+        InputStreamResponseListener listener = new InputStreamResponseListener() {
+            @Override
+            public void onHeaders(Response response) {
+                super.onHeaders(response);
+                try {
+                    futureResponse.complete(Optional.of(new FetchResponse(response.getRequest().getURI().toURL(),
+                            response.getStatus(), toHeaderMap(response), getInputStream())));
+                } catch (MalformedURLException e) {
+                    futureResponse.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Response response, Throwable failure) {
+                super.onFailure(response, failure);
+                if (failure instanceof EOFException && response.getStatus() == 0 && retriesLeft > 0) {
+                    LOGGER.debug("Connection to {} was closed before responding, retrying", url);
+                    send(url, headers, retriesLeft - 1, futureResponse);
+                } else if (failure instanceof HttpResponseException && HttpStatus.isRedirection(response.getStatus())) {
+                    LOGGER.warn("Redirects number exceeded maximum redirects on url {}", url);
+                    futureResponse.complete(Optional.empty());
+                } else {
+                    futureResponse.completeExceptionally(failure);
+                }
+            }
+        };
+
+        try {
+            Request request = client.newRequest(url.toURI());
+            headers.forEach(request::header);
+            request.send(listener);
+        } catch (Exception e) {
+            futureResponse.completeExceptionally(new IOException("Could not send request to " + url, e));
+        }
+    }
+
+    private static Map<String, String> toHeaderMap(Response response) {
+        Map<String, String> headers = new HashMap<>();
+        for (HttpField field : response.getHeaders()) {
+            headers.putIfAbsent(field.getName(), field.getValue());
+        }
+        return headers;
+    }
+
+    private static class SharedInstanceHolder {
+        private static final AsyncHttpFetcher INSTANCE = new AsyncHttpFetcher(
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_THREADS)),
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_CONNECTIONS_PER_HOST)));
+    }
+}
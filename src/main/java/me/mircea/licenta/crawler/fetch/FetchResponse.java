@@ -0,0 +1,65 @@
+package me.mircea.licenta.crawler.fetch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Response of the last hop of a fetch. The body is streamed, so it is only available once.
+ * @author mircea
+ */
+public class FetchResponse implements Closeable {
+    private final URL url;
+    private final int status;
+    private final Map<String, String> headers;
+    private final InputStream body;
+
+    public FetchResponse(URL url, int status, Map<String, String> headers, InputStream body) {
+        this.url = url;
+        this.status = status;
+        this.headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        this.headers.putAll(headers);
+        this.body = body;
+    }
+
+    /**
+     * @return The url the response actually came from, after redirects.
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return Value of header, or null if the server did not send it.
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * @return The same response, read through another stream, e.g. one wrapping the original body.
+     */
+    FetchResponse withBody(InputStream otherBody) {
+        return new FetchResponse(url, status, headers, otherBody);
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+}
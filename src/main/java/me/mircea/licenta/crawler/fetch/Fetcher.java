@@ -0,0 +1,20 @@
+package me.mircea.licenta.crawler.fetch;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Downloads resources over http on behalf of crawlers.
+ * @author mircea
+ */
+public interface Fetcher {
+    /**
+     * Fetch url, following redirects on the way.
+     * @param headers Extra request headers, such as validators for a conditional request.
+     * @return A future that completes as soon as the response headers of the final hop are in, or with
+     * an empty optional if there were too many redirects. The caller must close the response.
+     */
+    CompletableFuture<Optional<FetchResponse>> fetch(URL url, Map<String, String> headers);
+}
@@ -0,0 +1,291 @@
+package me.mircea.licenta.crawler.fetch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter shared by every job of this node, with a token bucket per host: requests start at most one
+ * delay apart, with a small burst allowed, and only a bounded number run on a host at once.
+ * Both adapt to how the host copes. Fast responses shorten the delay and, once enough of them came in
+ * a row, allow one more parallel request. Slow responses, failures, 429 and 503 lengthen the delay
+ * and cut the parallelism, and a Retry-After pauses the host altogether. The delay never goes below
+ * the crawl-delay robots.txt asks for, even if that is above the maximum delay, and a host with a crawl-delay
+ * gets no burst.
+ * Permits are handed out as futures, so no thread is ever parked waiting for one.
+ * @author mircea
+ */
+public class HostThrottle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostThrottle.class);
+    private static final ScheduledExecutorService DELAY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("host-throttle-%d").setDaemon(true).build());
+
+    private static final String CONFIG_FILE_INITIAL_DELAY = "host_throttle_initial_delay_in_milliseconds";
+    private static final String CONFIG_FILE_MIN_DELAY = "host_throttle_min_delay_in_milliseconds";
+    private static final String CONFIG_FILE_MAX_DELAY = "host_throttle_max_delay_in_milliseconds";
+    private static final String CONFIG_FILE_BURST = "host_throttle_burst";
+    private static final String CONFIG_FILE_MAX_PARALLEL_REQUESTS = "host_throttle_max_parallel_requests";
+    private static final String CONFIG_FILE_TARGET_LATENCY = "host_throttle_target_latency_in_milliseconds";
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    /**
+     * Fast responses in a row, per parallel request already allowed, before allowing one more.
+     */
+    private static final int FAST_RESPONSES_TO_GROW = 10;
+
+    private final long initialDelayInNanos;
+    private final long minDelayInNanos;
+    private final long maxDelayInNanos;
+    private final int burst;
+    private final int maxParallelRequests;
+    private final long targetLatencyInMillis;
+    private final ConcurrentMap<String, HostSlot> slots = new ConcurrentHashMap<>();
+
+    HostThrottle(long initialDelayInMillis, long minDelayInMillis, long maxDelayInMillis, int burst,
+                 int maxParallelRequests, long targetLatencyInMillis) {
+        this.initialDelayInNanos = TimeUnit.MILLISECONDS.toNanos(initialDelayInMillis);
+        this.minDelayInNanos = TimeUnit.MILLISECONDS.toNanos(minDelayInMillis);
+        this.maxDelayInNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayInMillis);
+        this.burst = burst;
+        this.maxParallelRequests = maxParallelRequests;
+        this.targetLatencyInMillis = targetLatencyInMillis;
+    }
+
+    /**
+     * @return The throttle shared by all jobs of this node.
+     */
+    public static HostThrottle getShared() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Never start requests on host closer than crawlDelay, as its robots.txt asks, not even in a burst.
+     */
+    public void honourCrawlDelay(String host, long crawlDelayInMillis) {
+        HostSlot slot = getSlot(host);
+        synchronized (slot) {
+            slot.minDelayInNanos = Math.max(minDelayInNanos, TimeUnit.MILLISECONDS.toNanos(crawlDelayInMillis));
+            slot.maxDelayInNanos = Math.max(maxDelayInNanos, slot.minDelayInNanos);
+            slot.delayInNanos = Math.max(slot.delayInNanos, slot.minDelayInNanos);
+            slot.burst = 1;
+        }
+    }
+
+    /**
+     * @return A future that completes once a request may be started on host. Every completed acquisition
+     * must be paired with one of the release methods. Dependent stages should run on their own executor,
+     * since the future may be completed by a releasing or scheduling thread.
+     */
+    public CompletableFuture<Void> acquire(String host) {
+        HostSlot slot = getSlot(host);
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+
+        long waitInNanos = -1;
+        synchronized (slot) {
+            if (slot.inFlight < slot.parallelRequests) {
+                ++slot.inFlight;
+                waitInNanos = slot.reserveNextStart();
+            } else {
+                slot.waiters.add(permit);
+            }
+        }
+
+        if (waitInNanos >= 0) {
+            grant(permit, waitInNanos);
+        }
+        return permit;
+    }
+
+    /**
+     * Block until a request may be started on host, for callers that cannot go on without the permit, e.g. a browser.
+     * @return Whether the permit was acquired, false if interrupted while waiting, in which case the permit is
+     * released as soon as it is granted, since it stays reserved for the waiter otherwise.
+     */
+    public boolean awaitPermit(String host) {
+        CompletableFuture<Void> permit = acquire(host);
+        try {
+            permit.get();
+            return true;
+        } catch (InterruptedException e) {
+            permit.thenRun(() -> release(host));
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Permits are never refused", e);
+        }
+    }
+
+    /**
+     * Release a permit that was not used to send a request.
+     */
+    public void release(String host) {
+        HostSlot slot = slots.get(host);
+        if (slot == null) {
+            return;
+        }
+
+        synchronized (slot) {
+            releasePermit(slot);
+        }
+    }
+
+    /**
+     * Release a permit after a response came in.
+     * @param latencyInMillis Time until the response headers came in.
+     * @param retryAfter The Retry-After header of the response, or null.
+     */
+    public void release(String host, long latencyInMillis, int status, String retryAfter) {
+        HostSlot slot = slots.get(host);
+        if (slot == null) {
+            return;
+        }
+
+        synchronized (slot) {
+            if (status == HTTP_TOO_MANY_REQUESTS || status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                slot.slowDown(2, true);
+                long pauseInNanos = parseRetryAfterInNanos(retryAfter);
+                slot.nextAllowedStart = Math.max(slot.nextAllowedStart, System.nanoTime() + Math.min(pauseInNanos, slot.maxDelayInNanos));
+                LOGGER.info("Backing off {} after http status {}: {}", host, status, slot);
+            } else if (latencyInMillis > targetLatencyInMillis) {
+                slot.slowDown(1.5, false);
+                LOGGER.debug("Slowing down on {} after a {} ms response: {}", host, latencyInMillis, slot);
+            } else {
+                slot.speedUp();
+            }
+            releasePermit(slot);
+        }
+    }
+
+    /**
+     * Release a permit after a request failed without a response, e.g. timed out or was refused.
+     */
+    public void releaseAfterFailure(String host) {
+        HostSlot slot = slots.get(host);
+        if (slot == null) {
+            return;
+        }
+
+        synchronized (slot) {
+            slot.slowDown(2, true);
+            LOGGER.info("Backing off {} after a failed request: {}", host, slot);
+            releasePermit(slot);
+        }
+    }
+
+    /**
+     * Hand the freed permit, and any allowed by a grown parallelism, to the requests waiting for one.
+     * Called with the slot locked; granting only schedules the completion, so it is safe to do here.
+     */
+    private void releasePermit(HostSlot slot) {
+        --slot.inFlight;
+        while (slot.inFlight < slot.parallelRequests && !slot.waiters.isEmpty()) {
+            ++slot.inFlight;
+            grant(slot.waiters.poll(), slot.reserveNextStart());
+        }
+    }
+
+    private void grant(CompletableFuture<Void> permit, long waitInNanos) {
+        if (waitInNanos > 0) {
+            DELAY_SCHEDULER.schedule(() -> permit.complete(null), waitInNanos, TimeUnit.NANOSECONDS);
+        } else {
+            // Completed on the scheduler too, so whatever depends on the permit never runs under a slot's lock
+            DELAY_SCHEDULER.execute(() -> permit.complete(null));
+        }
+    }
+
+    private HostSlot getSlot(String host) {
+        return slots.computeIfAbsent(host, h -> new HostSlot());
+    }
+
+    /**
+     * @return The pause a Retry-After header asks for, given in seconds or as an http date, or 0.
+     */
+    private static long parseRetryAfterInNanos(String retryAfter) {
+        if (retryAfter == null) {
+            return 0;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Instant retryAt = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return Math.max(0, Duration.between(Instant.now(), retryAt).toNanos());
+            } catch (DateTimeParseException | ArithmeticException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private class HostSlot {
+        private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        private long minDelayInNanos = HostThrottle.this.minDelayInNanos;
+        private long maxDelayInNanos = HostThrottle.this.maxDelayInNanos;
+        private int burst = HostThrottle.this.burst;
+        private long delayInNanos = Math.max(initialDelayInNanos, minDelayInNanos);
+        private int parallelRequests = 1;
+        private int inFlight = 0;
+        private int fastResponses = 0;
+        /**
+         * When the next request may start if no burst is left, which moves one delay ahead with every request.
+         */
+        private long nextAllowedStart = System.nanoTime();
+
+        /**
+         * @return How long the caller has to wait before its request may start.
+         */
+        long reserveNextStart() {
+            long now = System.nanoTime();
+            // Up to burst requests may start right away after an idle period, then one per delay
+            long start = Math.max(now, nextAllowedStart - (burst - 1) * delayInNanos);
+            nextAllowedStart = Math.max(nextAllowedStart, now) + delayInNanos;
+            return start - now;
+        }
+
+        void slowDown(double delayFactor, boolean halveParallelism) {
+            delayInNanos = Math.min(maxDelayInNanos, Math.max(minDelayInNanos, (long) (delayInNanos * delayFactor)));
+            parallelRequests = halveParallelism ? Math.max(1, parallelRequests / 2) : Math.max(1, parallelRequests - 1);
+            fastResponses = 0;
+        }
+
+        void speedUp() {
+            delayInNanos = Math.max(minDelayInNanos, delayInNanos - delayInNanos / 10);
+            if (++fastResponses >= FAST_RESPONSES_TO_GROW * parallelRequests && parallelRequests < maxParallelRequests) {
+                ++parallelRequests;
+                fastResponses = 0;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("delay %d ms, %d parallel requests", TimeUnit.NANOSECONDS.toMillis(delayInNanos), parallelRequests);
+        }
+    }
+
+    private static class SharedInstanceHolder {
+        private static final HostThrottle INSTANCE = new HostThrottle(
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_INITIAL_DELAY)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MIN_DELAY)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_DELAY)),
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_BURST)),
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_PARALLEL_REQUESTS)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_TARGET_LATENCY)));
+    }
+}
@@ -0,0 +1,59 @@
+package me.mircea.licenta.crawler.fetch;
+
+import me.mircea.licenta.crawler.metrics.JobMetrics;
+import org.apache.commons.io.input.CountingInputStream;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the latency, outcome and downloaded bytes of every fetch of a job, whatever fetcher does the work.
+ * Latency is measured up to the response headers, bytes are counted as the body is read and added on close.
+ * @author mircea
+ */
+public class MeteredFetcher implements Fetcher {
+    private final Fetcher fetcher;
+    private final JobMetrics metrics;
+
+    public MeteredFetcher(Fetcher fetcher, JobMetrics metrics) {
+        this.fetcher = fetcher;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public CompletableFuture<Optional<FetchResponse>> fetch(URL url, Map<String, String> headers) {
+        long fetchStart = System.nanoTime();
+        return fetcher.fetch(url, headers)
+                .whenComplete((possibleResponse, e) -> {
+                    long latencyInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fetchStart);
+                    if (e != null) {
+                        metrics.recordFetchError(e);
+                    } else {
+                        // No response means too many redirects
+                        boolean redirected = possibleResponse.map(response -> !response.getUrl().toString().equals(url.toString())).orElse(true);
+                        metrics.recordFetch(latencyInMillis, redirected);
+                    }
+                })
+                .thenApply(possibleResponse -> possibleResponse.map(this::countBytes));
+    }
+
+    private FetchResponse countBytes(FetchResponse response) {
+        CountingInputStream countingBody = new CountingInputStream(response.getBody()) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    metrics.addBytesDownloaded(getByteCount());
+                }
+                super.close();
+            }
+        };
+        return response.withBody(countingBody);
+    }
+}
@@ -0,0 +1,172 @@
+package me.mircea.licenta.crawler.fetch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import crawlercommons.robots.BaseRobotRules;
+import crawlercommons.robots.SimpleRobotRules;
+import crawlercommons.robots.SimpleRobotRulesParser;
+import me.mircea.licenta.core.crawl.db.RobotDefaults;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @author mircea
+ * Rules of robots.txt shared by every job of this node, fetched once per host and kept for a while, so jobs
+ * submitted again and again for the same shops do not fetch them every time. Jobs asking for the rules of a host
+ * at the same time wait for a single fetch. Only answers are kept: rules a server failed to give, e.g. on a timeout
+ * or a 5xx, are used by the job that asked and fetched again by the next one.
+ */
+public class RobotRulesCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RobotRulesCache.class);
+
+    private static final String CONFIG_FILE_MAX_HOSTS = "robots_cache_max_hosts";
+    private static final String CONFIG_FILE_TTL = "robots_cache_ttl_in_minutes";
+    private static final String CONFIG_FILE_FETCH_TIMEOUT = "robots_fetch_timeout_in_seconds";
+
+    private static final String ROBOTS_TXT_PATH = "/robots.txt";
+    /**
+     * Google stops reading robots.txt past 500 KiB as well.
+     */
+    private static final int MAX_ROBOTS_TXT_BYTES = 500 * 1024;
+
+    private final Cache<String, BaseRobotRules> rules;
+    private final Fetcher fetcher;
+    private final long fetchTimeoutInSeconds;
+    private final SimpleRobotRulesParser parser = new SimpleRobotRulesParser();
+
+    /**
+     * @param maxHosts Most hosts whose rules are kept, the least recently used ones are dropped first.
+     * @param ttlInMinutes How long rules are kept after being fetched.
+     */
+    public RobotRulesCache(Fetcher fetcher, long maxHosts, long ttlInMinutes, long fetchTimeoutInSeconds) {
+        this.rules = CacheBuilder.newBuilder()
+                .maximumSize(maxHosts)
+                .expireAfterWrite(ttlInMinutes, TimeUnit.MINUTES)
+                .build();
+        this.fetcher = fetcher;
+        this.fetchTimeoutInSeconds = fetchTimeoutInSeconds;
+    }
+
+    /**
+     * @return The cache shared by all jobs, fetching through the shared client and host throttle.
+     */
+    public static RobotRulesCache getShared() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * @param pageUrl Any url of the host, whose robots.txt is at its root.
+     * @return The rules of the host, allowing everything if its robots.txt could not be read.
+     */
+    public BaseRobotRules getRules(String pageUrl) {
+        String robotsUrl;
+        try {
+            robotsUrl = new URL(new URL(pageUrl), ROBOTS_TXT_PATH).toString();
+        } catch (MalformedURLException e) {
+            LOGGER.warn("Cannot tell where the robots.txt of {} is: {}", pageUrl, e.getMessage());
+            return allowAll();
+        }
+
+        try {
+            return rules.get(robotsUrl, () -> fetchRules(robotsUrl));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof UnavailableRulesException) {
+                return ((UnavailableRulesException) e.getCause()).fallbackRules;
+            }
+            LOGGER.warn("Could not read {}: {}", robotsUrl, e.getCause());
+            return allowAll();
+        }
+    }
+
+    private BaseRobotRules fetchRules(String robotsUrl) throws IOException, UnavailableRulesException {
+        CompletableFuture<Optional<FetchResponse>> futureResponse = fetcher.fetch(new URL(robotsUrl), Collections.emptyMap());
+        Optional<FetchResponse> possibleResponse;
+        try {
+            possibleResponse = futureResponse.get(fetchTimeoutInSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnavailableRulesException(allowAll());
+        } catch (ExecutionException | TimeoutException e) {
+            LOGGER.warn("Could not fetch {}, allowing everything for now: {}", robotsUrl, e.toString());
+            // A response still on its way has to be closed, or its host permit is never given back
+            futureResponse.thenAccept(lateResponse -> lateResponse.ifPresent(RobotRulesCache::closeQuietly));
+            throw new UnavailableRulesException(allowAll());
+        }
+
+        if (!possibleResponse.isPresent()) {
+            LOGGER.warn("Too many redirects for {}, allowing everything", robotsUrl);
+            return allowAll();
+        }
+
+        try (FetchResponse response = possibleResponse.get()) {
+            int status = response.getStatus();
+            if (status == HttpURLConnection.HTTP_OK) {
+                byte[] content = readAtMost(response.getBody(), MAX_ROBOTS_TXT_BYTES);
+                LOGGER.debug("Fetched {} bytes of {}", content.length, robotsUrl);
+                return parser.parseContent(robotsUrl, content, response.getContentType(), RobotDefaults.getUserAgent());
+            }
+
+            BaseRobotRules failedFetchRules = parser.failedFetch(status);
+            if (status >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                LOGGER.warn("Server error {} for {}, trying again on the next job", status, robotsUrl);
+                throw new UnavailableRulesException(failedFetchRules);
+            }
+            return failedFetchRules;
+        }
+    }
+
+    private static byte[] readAtMost(InputStream body, int maxBytes) throws IOException {
+        return ByteStreams.toByteArray(ByteStreams.limit(body, maxBytes));
+    }
+
+    private static BaseRobotRules allowAll() {
+        return new SimpleRobotRules(SimpleRobotRules.RobotRulesMode.ALLOW_ALL);
+    }
+
+    private static void closeQuietly(FetchResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close response of {}: {}", response.getUrl(), e.getMessage());
+        }
+    }
+
+    /**
+     * Carries rules to use only this once, since throwing is the way to keep the cache from holding them.
+     */
+    private static class UnavailableRulesException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final transient BaseRobotRules fallbackRules;
+
+        UnavailableRulesException(BaseRobotRules fallbackRules) {
+            super(null, null, false, false);
+            this.fallbackRules = fallbackRules;
+        }
+    }
+
+    private static class SharedInstanceHolder {
+        // Fetches only start once the throttle allows it and never block, so they may start on the throttle's thread
+        private static final RobotRulesCache INSTANCE = new RobotRulesCache(
+                new ThrottledFetcher(AsyncHttpFetcher.getShared(), HostThrottle.getShared(), MoreExecutors.directExecutor()),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_HOSTS)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_TTL)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_FETCH_TIMEOUT)));
+    }
+}
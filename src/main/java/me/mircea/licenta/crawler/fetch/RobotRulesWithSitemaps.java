@@ -0,0 +1,41 @@
+package me.mircea.licenta.crawler.fetch;
+
+import crawlercommons.robots.BaseRobotRules;
+
+import java.util.Collection;
+
+/**
+ * Rules of robots.txt as one job sees them: those of the host, plus the sitemaps the job was given on top of the
+ * ones robots.txt lists. The rules of the host are only read, since they are shared by every job through the cache.
+ * @author mircea
+ */
+public class RobotRulesWithSitemaps extends BaseRobotRules {
+    private static final long serialVersionUID = 1L;
+
+    private final BaseRobotRules hostRules;
+
+    public RobotRulesWithSitemaps(BaseRobotRules hostRules, Collection<String> additionalSitemaps) {
+        this.hostRules = hostRules;
+        setCrawlDelay(hostRules.getCrawlDelay());
+        setDeferVisits(hostRules.isDeferVisits());
+        hostRules.getSitemaps().forEach(this::addSitemap);
+        additionalSitemaps.stream()
+                .filter(sitemap -> !getSitemaps().contains(sitemap))
+                .forEach(this::addSitemap);
+    }
+
+    @Override
+    public boolean isAllowed(String url) {
+        return hostRules.isAllowed(url);
+    }
+
+    @Override
+    public boolean isAllowAll() {
+        return hostRules.isAllowAll();
+    }
+
+    @Override
+    public boolean isAllowNone() {
+        return hostRules.isAllowNone();
+    }
+}
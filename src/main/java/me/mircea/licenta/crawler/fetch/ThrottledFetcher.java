@@ -0,0 +1,94 @@
+package me.mircea.licenta.crawler.fetch;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Starts every fetch only once the {@link HostThrottle} allows it and reports back how the host responded.
+ * The permit is held until the response is closed, so a body still being read counts as a request in flight.
+ * @author mircea
+ */
+public class ThrottledFetcher implements Fetcher {
+    private final Fetcher fetcher;
+    private final HostThrottle throttle;
+    private final Executor executor;
+
+    /**
+     * @param executor Starts the fetches once permitted. It must not be a direct executor if the fetcher blocks,
+     *                 or it would block the throttle.
+     */
+    public ThrottledFetcher(Fetcher fetcher, HostThrottle throttle, Executor executor) {
+        this.fetcher = fetcher;
+        this.throttle = throttle;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<Optional<FetchResponse>> fetch(URL url, Map<String, String> headers) {
+        String host = url.getHost();
+        CompletableFuture<Optional<FetchResponse>> futureResponse = new CompletableFuture<>();
+        throttle.acquire(host).thenRun(() -> {
+            try {
+                executor.execute(() -> fetchPermitted(host, url, headers).whenComplete((possibleResponse, e) -> {
+                    if (e != null) {
+                        futureResponse.completeExceptionally(e);
+                    } else {
+                        futureResponse.complete(possibleResponse);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // The permit was never used, e.g. the job is shutting down
+                throttle.release(host);
+                futureResponse.completeExceptionally(e);
+            }
+        });
+        return futureResponse;
+    }
+
+    private CompletableFuture<Optional<FetchResponse>> fetchPermitted(String host, URL url, Map<String, String> headers) {
+        long fetchStart = System.nanoTime();
+        CompletableFuture<Optional<FetchResponse>> futureResponse;
+        try {
+            futureResponse = fetcher.fetch(url, headers);
+        } catch (RuntimeException e) {
+            futureResponse = new CompletableFuture<>();
+            futureResponse.completeExceptionally(e);
+        }
+
+        return futureResponse.whenComplete((possibleResponse, e) -> {
+            if (e != null) {
+                throttle.releaseAfterFailure(host);
+            } else if (!possibleResponse.isPresent()) {
+                throttle.release(host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fetchStart), 0, null);
+            }
+        }).thenApply(possibleResponse -> possibleResponse.map(response ->
+                releaseOnClose(host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - fetchStart), response)));
+    }
+
+    private FetchResponse releaseOnClose(String host, long latencyInMillis, FetchResponse response) {
+        InputStream releasingBody = new FilterInputStream(response.getBody()) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        throttle.release(host, latencyInMillis, response.getStatus(), response.getHeader("Retry-After"));
+                    }
+                }
+            }
+        };
+        return response.withBody(releasingBody);
+    }
+}
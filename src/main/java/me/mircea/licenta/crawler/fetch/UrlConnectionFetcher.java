@@ -0,0 +1,108 @@
+package me.mircea.licenta.crawler.fetch;
+
+import me.mircea.licenta.core.crawl.db.RobotDefaults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Blocking fetcher on top of {@link HttpURLConnection}. The whole fetch happens on the calling thread.
+ * @author mircea
+ */
+public class UrlConnectionFetcher implements Fetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UrlConnectionFetcher.class);
+    private static final int HTTP_CONNECT_TIMEOUT_IN_MILLISECONDS = 50_000;
+    private static final int HTTP_READ_TIMEOUT_IN_MILLISECONDS = 50_000;
+
+    @Override
+    public CompletableFuture<Optional<FetchResponse>> fetch(URL url, Map<String, String> headers) {
+        CompletableFuture<Optional<FetchResponse>> futureResponse = new CompletableFuture<>();
+        try {
+            Optional<HttpURLConnection> possibleConnection = followPossibleRedirects(url, headers);
+            if (possibleConnection.isPresent()) {
+                futureResponse.complete(Optional.of(toResponse(possibleConnection.get())));
+            } else {
+                futureResponse.complete(Optional.empty());
+            }
+        } catch (IOException e) {
+            futureResponse.completeExceptionally(e);
+        }
+        return futureResponse;
+    }
+
+    private FetchResponse toResponse(HttpURLConnection connection) throws IOException {
+        Map<String, String> responseHeaders = new HashMap<>();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            // The status line is reported under a null key
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                responseHeaders.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+
+        int status = connection.getResponseCode();
+        InputStream body = status >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream() : connection.getInputStream();
+        if (body == null) {
+            body = new ByteArrayInputStream(new byte[0]);
+        }
+        return new FetchResponse(connection.getURL(), status, responseHeaders, body);
+    }
+
+    /**
+     * Follow redirects if required.
+     */
+    private Optional<HttpURLConnection> followPossibleRedirects(final URL originalUrl, Map<String, String> headers) throws IOException {
+        URL url = originalUrl;
+
+        HttpURLConnection connection;
+        boolean redirect;
+        int redirectCounter = 0;
+        final int MAX_REDIRECTS = 5;
+        do {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(HTTP_CONNECT_TIMEOUT_IN_MILLISECONDS);
+            connection.setReadTimeout(HTTP_READ_TIMEOUT_IN_MILLISECONDS);
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestProperty("User-Agent", RobotDefaults.getDefault("user_agent"));
+            headers.forEach(connection::setRequestProperty);
+            connection.connect();
+
+            int httpStatus = connection.getResponseCode();
+            redirect = shouldRedirect(httpStatus);
+
+            if (redirect) {
+                String location = URLDecoder.decode(connection.getHeaderField("Location"), "UTF-8");
+                url = new URL(url, location);
+            }
+
+            ++redirectCounter;
+        } while (redirect && redirectCounter < MAX_REDIRECTS);
+
+        if (redirectCounter >= MAX_REDIRECTS) {
+            LOGGER.warn("Redirects number exceeded maximum redirects on url {}", originalUrl);
+            return Optional.empty();
+        }
+
+        return Optional.of(connection);
+    }
+
+    /**
+     * @param httpStatus
+     * @return Decision if request should be retried.
+     */
+    private boolean shouldRedirect(int httpStatus) {
+        return (httpStatus == HttpURLConnection.HTTP_MOVED_PERM)
+                || (httpStatus == HttpURLConnection.HTTP_MOVED_TEMP)
+                || (httpStatus == HttpURLConnection.HTTP_SEE_OTHER);
+    }
+}
@@ -1,32 +1,31 @@
 package me.mircea.licenta.crawler.impl;
 
-import com.google.common.base.Preconditions;
-import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
-import me.mircea.licenta.core.crawl.db.RobotDefaults;
 import me.mircea.licenta.core.crawl.db.model.Job;
 import me.mircea.licenta.core.crawl.db.model.Page;
 import me.mircea.licenta.core.crawl.db.model.PageType;
-import me.mircea.licenta.core.parser.utils.CssUtil;
-import me.mircea.licenta.core.parser.utils.HtmlUtil;
 import me.mircea.licenta.crawler.Crawler;
-import org.jsoup.Jsoup;
+import me.mircea.licenta.crawler.checkpoint.CrawlCheckpoint;
+import me.mircea.licenta.crawler.fetch.HostThrottle;
+import me.mircea.licenta.crawler.persistence.PageWriter;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.openqa.selenium.*;
-import org.openqa.selenium.firefox.FirefoxDriver;
-import org.openqa.selenium.firefox.FirefoxOptions;
-import org.openqa.selenium.firefox.FirefoxProfile;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 /**
@@ -46,77 +45,100 @@ public class BrowserCrawler extends Crawler {
 	private static final int EXPLICIT_MAX_WAIT_IN_SECONDS = 60;
 	private static final int MAX_TIMEOUTS_ON_PAGE = 3;
 
+	private static final String CONFIG_FILE_PRODUCT_EXTRACTION = "browser_product_extraction";
+	private static final String JSOUP_EXTRACTION = "jsoup";
+	private static final String VERIFIED_EXTRACTION = "verify";
+	private static final int MAX_URLS_IN_VERIFICATION_LOG = 5;
 
-	private static final String WEBDRIVER_GECKO_DRIVER = "webdriver.gecko.driver";
 
-	private static final String BROWSER_IMAGE_BEHAVIOUR_PREFERENCE = "permissions.default.image";
-	private static final String BROWSER_DOM_POPUPS_PREFERENCE = "dom.popup_maximum";
-	private static final String BROWSER_POPUPS_MESSAGE_PREFERENCE = "privacy.popups.showBrowserMessage";
-	private static final String BROWSER_USER_AGENT_PREFERENCE = "general.useragent.override";
-	private static final String BROWSER_COOKIE_PREFERENCE = "network.cookie.cookieBehavior";
+	private final String productExtraction;
+	private ResourceFilter resourceFilter = ResourceFilter.getDefault();
+	private volatile BrowserLease lease;
+	private WebDriver driver;
+	private PageReadiness readiness;
+	private InPageShelfExtractor inPageExtractor;
+	private int seedIndex = 0;
+	private String currentShelfUrl;
 
-	private static final int BROWSER_BLOCK_ALL_COOKIES = 2;
-
-	private static final String CONFIG_FILE_WEBDRIVER_PATH_KEY = "browser_webdriver_path";
-	private static final String CONFIG_FILE_BROWSER_LOG_FILE_PATH_KEY = "browser_log_file";
-	private static final String CONFIG_FILE_BROWSER_LOAD_IMAGES_KEY = "browser_load_images";
-	private static final String CONFIG_FILE_BROWSER_POPUP_MAXIMUM = "browser_popup_maximum";
-	private static final String CONFIG_FILE_BROWSER_POPUP_SHOW_BROWSER_MESSAGE = "browser_popup_show_browser_message";
-	private static final String CONFIG_FILE_BROWSER_HEADLESS = "browser_headless";
-
-	private static final int WEB_DRIVER_IMPLICIT_WAIT_AMOUNT = 10;
-	private static final int WEB_DRIVER_WINDOW_WIDTH = 1920;
-	private static final int WEB_DRIVER_WINDOW_HEIGHT = 1080;
-
-	private final WebDriver driver;
-	
 	public BrowserCrawler(Job job) {
 		super(job);
+		this.productExtraction = BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_PRODUCT_EXTRACTION);
+	}
 
-		System.setProperty(WEBDRIVER_GECKO_DRIVER, BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_WEBDRIVER_PATH_KEY));
-		System.setProperty(FirefoxDriver.SystemProperty.BROWSER_LOGFILE, BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_LOG_FILE_PATH_KEY));
-		
-		FirefoxProfile profile = new FirefoxProfile();
-		profile.setPreference(BROWSER_USER_AGENT_PREFERENCE, RobotDefaults.getUserAgent());
-
-		profile.setPreference(BROWSER_IMAGE_BEHAVIOUR_PREFERENCE, Integer.valueOf(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_LOAD_IMAGES_KEY)));
-		profile.setPreference(BROWSER_DOM_POPUPS_PREFERENCE, Integer.valueOf(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_POPUP_MAXIMUM)));
-		profile.setPreference(BROWSER_POPUPS_MESSAGE_PREFERENCE, Boolean.valueOf(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_POPUP_SHOW_BROWSER_MESSAGE)));
-
-		if (job.isDisallowCookies()) {
-			profile.setPreference(BROWSER_COOKIE_PREFERENCE, BROWSER_BLOCK_ALL_COOKIES);
-		}
-
-		FirefoxOptions opts = new FirefoxOptions();
-		opts.setHeadless(Boolean.valueOf(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_HEADLESS)));
-		opts.setProfile(profile);
-		opts.setUnhandledPromptBehaviour(UnexpectedAlertBehaviour.DISMISS);
-		this.driver = new FirefoxDriver(opts);
-		this.driver.manage().timeouts().implicitlyWait(WEB_DRIVER_IMPLICIT_WAIT_AMOUNT, TimeUnit.SECONDS);
+	/**
+	 * @return Whether name, in any case, is a kind of resource a browser can leave out.
+	 */
+	public static boolean isKnownResourceType(String name) {
+		return ResourceFilter.isKnownType(name);
+	}
 
-		LOGGER.error("Current window size: {}", this.driver.manage().window().getSize());
-		this.driver.manage().window().setSize(new Dimension(WEB_DRIVER_WINDOW_WIDTH, WEB_DRIVER_WINDOW_HEIGHT));
-		LOGGER.error("Resized to: {}", this.driver.manage().window().getSize());
+	/**
+	 * Change what the browser of this job leaves out, before it runs. Each argument is null to keep the default.
+	 * @param blockedResourceTypes Kinds of resources not to load: image, stylesheet, font or media.
+	 * @param deniedDomains Hosts, subdomains included, not to request anything from.
+	 * @param allowedDomains Hosts to request from anyway, e.g. of a script the pagination needs.
+	 * @throws IllegalArgumentException If a resource type is unknown.
+	 */
+	public void overrideResourceFilter(List<String> blockedResourceTypes, List<String> deniedDomains, List<String> allowedDomains) {
+		this.resourceFilter = this.resourceFilter.withOverrides(blockedResourceTypes, deniedDomains, allowedDomains);
 	}
 	
+	@Override
+	public boolean needsBrowser() {
+		return true;
+	}
+
 	@Override
 	public void run() {
 		startCrawlJob();
-		crawl(job.getSeeds());
+		try (BrowserLease browserLease = BrowserSessionPool.getInstance().lease(job.getDomain(), job.isDisallowCookies(), resourceFilter)) {
+			this.lease = browserLease;
+			this.driver = browserLease.getDriver();
+			this.readiness = new PageReadiness(driver, Duration.ofSeconds(EXPLICIT_MAX_WAIT_IN_SECONDS));
+			this.inPageExtractor = new InPageShelfExtractor(driver, NEXT_PAGE_LINK_XPATH_SELECTOR);
+			crawl(new ArrayList<>(job.getSeeds()));
+			LOGGER.info("Page wait times on {}: {}", job.getDomain(), metrics.getBrowserWaitHistogram());
+		} catch (InterruptedException e) {
+			LOGGER.warn("Interrupted while waiting for a browser for job {}", job);
+			Thread.currentThread().interrupt();
+		} catch (WebDriverException e) {
+			if (!shouldStop()) {
+				LOGGER.error("Browser of job {} failed: {}", job, e.getMessage());
+			}
+		} finally {
+			this.lease = null;
+		}
 		finishCrawlJob();
 	}
 
 	/**
-	 * @param seeds Collection of URLs that provide a starting point.
-	 * Crawl starting from a collection of seeds.
+	 * A browser busy loading or waiting on a page does not see interrupts, so it is quit instead.
 	 */
-	private void crawl(Collection<String> seeds) {
-		for (String seed: seeds) {
-			traverseMultiProductPage(seed);
+	@Override
+	protected void onCancelled() {
+		BrowserLease currentLease = this.lease;
+		if (currentLease != null) {
+			currentLease.discard();
 		}
+	}
 
-		LOGGER.info("Quitting the automated browser...");
-		driver.close();
+	/**
+	 * @param seeds List of URLs that provide a starting point.
+	 * Crawl starting from a list of seeds, or from the shelf the job was on when it was checkpointed.
+	 * Shelves paginated by script keep the url of the seed, in which case the seed is traversed again.
+	 */
+	private void crawl(List<String> seeds) {
+		Optional<CrawlCheckpoint> checkpoint = restoreCheckpoint();
+		int firstSeedIndex = checkpoint.map(CrawlCheckpoint::getSeedIndex).orElse(0);
+		for (seedIndex = firstSeedIndex; seedIndex < seeds.size() && !shouldStop(); ++seedIndex) {
+			String startUrl = seeds.get(seedIndex);
+			if (seedIndex == firstSeedIndex && checkpoint.isPresent() && checkpoint.get().getShelfUrl() != null) {
+				startUrl = checkpoint.get().getShelfUrl();
+			}
+			traverseMultiProductPage(startUrl);
+		}
+
+		LOGGER.info("Handing the automated browser back to the pool...");
 	}
 
 	/**
@@ -125,85 +147,133 @@ public class BrowserCrawler extends Crawler {
 	 */
 	private void traverseMultiProductPage(final String firstMultiProductPage) {
 		LOGGER.info("Following pagination links starting from {}", firstMultiProductPage);
-		driver.get(firstMultiProductPage);
+		boolean loaded = navigateThrottled(firstMultiProductPage, () -> {
+			driver.get(firstMultiProductPage);
+			timePageWait(readiness::awaitDocumentComplete);
+			return true;
+		});
+		if (!loaded) {
+			return;
+		}
 
 		boolean havePagesLeft = true;
 		String previousShelfUrl = null;
-		while (havePagesLeft) {
-			Document shelfDoc = getDocumentStripped(driver.getPageSource());
+		while (havePagesLeft && !shouldStop()) {
 			String shelfUrl = driver.getCurrentUrl();
 			Instant retrievedTime = Instant.now();
+			currentShelfUrl = shelfUrl;
+			checkpointIfDue();
+			InPageShelfExtractor.ShelfLinks shelfLinks = extractShelfLinks();
 			
 			Page shelfPage = new Page(shelfUrl, previousShelfUrl, PageType.SHELF, retrievedTime);
-			List<String> productUrls = getSingleProductPages(shelfDoc);
+			List<String> productUrls = shelfLinks.getProductUrls();
 			LOGGER.info("Got {} product urls on {}", productUrls.size(), shelfPage.getUrl());
 
 			List<Page> batchOfPages = productUrls.stream()
+					.filter(seenUrls::add)
 					.map(productUrl -> new Page(productUrl, shelfUrl, PageType.PRODUCT, retrievedTime))
 					.collect(Collectors.toList());
-			batchOfPages.add(shelfPage);
-			CrawlDatabaseManager.instance.upsertManyPages(batchOfPages);
+			if (seenUrls.add(shelfUrl)) {
+				batchOfPages.add(shelfPage);
+			}
+			PageWriter.getInstance().writeAll(batchOfPages, getJobId());
+			metrics.addDiscoveredPages(batchOfPages.size());
+			measureResources(shelfUrl);
 			
 			previousShelfUrl = shelfUrl;
 			LOGGER.info("Got document {} at {}", shelfUrl, retrievedTime);
-			havePagesLeft = visitNextPage();
+			havePagesLeft = shelfLinks.hasNextPage() && visitNextPage();
+		}
+	}
+
+	@Override
+	protected CrawlCheckpoint createCheckpoint() {
+		CrawlCheckpoint checkpoint = newCheckpoint();
+		checkpoint.setSeedIndex(seedIndex);
+		checkpoint.setShelfUrl(currentShelfUrl);
+		return checkpoint;
+	}
+
+	/**
+	 * Extract the links of the current shelf inside the browser, unless configured otherwise or the script fails,
+	 * in which case the page source is parsed with Jsoup. When verifying, both run and the Jsoup result is used.
+	 */
+	private InPageShelfExtractor.ShelfLinks extractShelfLinks() {
+		Optional<InPageShelfExtractor.ShelfLinks> inPageLinks = Optional.empty();
+		if (!JSOUP_EXTRACTION.equals(productExtraction)) {
+			String learnedSelector = ProductSelectorCache.getInstance().getSelector(this.job.getDomain()).orElse(null);
+			inPageLinks = inPageExtractor.extract(learnedSelector);
+			if (inPageLinks.isPresent() && !VERIFIED_EXTRACTION.equals(productExtraction)) {
+				return inPageLinks.get();
+			}
+		}
+
+		Document shelfDoc = getDocumentStripped(driver.getPageSource());
+		InPageShelfExtractor.ShelfLinks jsoupLinks = new InPageShelfExtractor.ShelfLinks(getSingleProductPages(shelfDoc),
+				!driver.findElements(By.xpath(NEXT_PAGE_LINK_XPATH_SELECTOR)).isEmpty());
+		inPageLinks.ifPresent(links -> verifyShelfLinks(links, jsoupLinks));
+		return jsoupLinks;
+	}
+
+	private void verifyShelfLinks(InPageShelfExtractor.ShelfLinks inPageLinks, InPageShelfExtractor.ShelfLinks jsoupLinks) {
+		Set<String> onlyInPage = new LinkedHashSet<>(inPageLinks.getProductUrls());
+		onlyInPage.removeAll(jsoupLinks.getProductUrls());
+		Set<String> onlyJsoup = new LinkedHashSet<>(jsoupLinks.getProductUrls());
+		onlyJsoup.removeAll(inPageLinks.getProductUrls());
+
+		if (onlyInPage.isEmpty() && onlyJsoup.isEmpty() && inPageLinks.hasNextPage() == jsoupLinks.hasNextPage()) {
+			LOGGER.debug("In-page extraction matches Jsoup on {}", driver.getCurrentUrl());
+		} else {
+			LOGGER.warn("In-page extraction differs from Jsoup on {}: {} urls only in page (e.g. {}), {} only in Jsoup (e.g. {}), next page {} vs {}",
+					driver.getCurrentUrl(), onlyInPage.size(), onlyInPage.stream().limit(MAX_URLS_IN_VERIFICATION_LOG).collect(Collectors.toList()),
+					onlyJsoup.size(), onlyJsoup.stream().limit(MAX_URLS_IN_VERIFICATION_LOG).collect(Collectors.toList()),
+					inPageLinks.hasNextPage(), jsoupLinks.hasNextPage());
 		}
 	}
 	
 	public List<String> getSingleProductPages(Document multiProductPage) {
-		List<String> singleProductPages = new ArrayList<>();
-		Elements singleBookElements = multiProductPage.select(CssUtil.makeLeafOfSelector("[class*='produ']:has(img):has(a)"));
-		Elements links = new Elements();
-		singleBookElements.forEach(bookElement -> links.add(bookElement.selectFirst("a[href]")));
-		
-		for (Element link : links) {
-			String url = link.absUrl("href");
-			singleProductPages.add(url);
-		}
-		return singleProductPages;
+		return ShelfPageUtil.getSingleProductPages(multiProductPage, this.job.getDomain());
 	}
 
-	private Document getDocumentStripped(String url) {
-		Preconditions.checkNotNull(url);
-		Document doc = Jsoup.parse(url, this.job.getDomain());
-		return HtmlUtil.sanitizeHtml(doc);
+	private Document getDocumentStripped(String html) {
+		return ShelfPageUtil.getDocumentStripped(html, this.job.getDomain());
 	}
 	
 	private boolean visitNextPage() {
-		if (!driver.findElements(By.xpath(NEXT_PAGE_LINK_XPATH_SELECTOR)).isEmpty()) {
-			int timeouts = 0;
-			while (timeouts < MAX_TIMEOUTS_ON_PAGE) {
-				try {
-					WebElement nextPageLink = driver.findElement(By.xpath(NEXT_PAGE_LINK_XPATH_SELECTOR));
-					waitForElementToBeClickable();
-					tryToClickElement(nextPageLink);
+		int timeouts = 0;
+		while (timeouts < MAX_TIMEOUTS_ON_PAGE && !shouldStop()) {
+			try {
+				WebElement nextPageLink = waitForElementToBeClickable();
+				return navigateThrottled(driver.getCurrentUrl(), () -> {
+					readiness.mark();
+					if (!tryToClickElement(nextPageLink)) {
+						return false;
+					}
+					timePageWait(readiness::awaitChangeSettled);
 					return true;
-				} catch (TimeoutException e) {
-					LOGGER.info("Timeout occurred on page {}", driver.getCurrentUrl());
-					++timeouts;
-				} catch (RuntimeException e) {
-					LOGGER.error("Visiting next link on domain {} with location {} threw {}", this.job.getDomain(), driver.getCurrentUrl(), e);
-				}
+				});
+			} catch (TimeoutException e) {
+				LOGGER.info("Timeout occurred on page {}", driver.getCurrentUrl());
+				metrics.recordTimeout();
+				++timeouts;
+			} catch (RuntimeException e) {
+				LOGGER.error("Visiting next link on domain {} with location {} threw {}", this.job.getDomain(), driver.getCurrentUrl(), e);
 			}
-
-			LOGGER.error("Max number of timeouts on page {} exceeded", driver.getCurrentUrl());
-			return false;
-		} else {
-			return false;
 		}
+
+		LOGGER.error("Max number of timeouts on page {} exceeded", driver.getCurrentUrl());
+		return false;
 	}
 
-	private void tryToClickElement(WebElement nextPageLink) {
+	private boolean tryToClickElement(WebElement nextPageLink) {
 		final int MAX_CLICK_TRIES = 10;
 
 		((JavascriptExecutor) driver).executeScript("arguments[0].scrollIntoView(true);", nextPageLink);
 		for (int tryNumber = 0; tryNumber < MAX_CLICK_TRIES; ++tryNumber) {
 			try {
-				waitForElementToBeClickable();
-
-				nextPageLink = driver.findElement(By.xpath(NEXT_PAGE_LINK_XPATH_SELECTOR));
+				nextPageLink = waitForElementToBeClickable();
 				nextPageLink.click();
-				return;
+				return true;
 			} catch (ElementClickInterceptedException e) {
 				LOGGER.warn("Tried to click element but something is probably obscuring it at the edge of the viewport. Will move by implicit offset.");
 				String scrollByOffsetsScript = String.format("scrollBy(%d, %d);", ELEMENT_CLICK_INTERCEPTED_X_OFFSET, ELEMENT_CLICK_INTERCEPTED_Y_OFFSET);
@@ -212,10 +282,71 @@ public class BrowserCrawler extends Crawler {
 		}
 
 		LOGGER.warn("Could not click the element");
+		return false;
 	}
 
-	private void waitForElementToBeClickable() {
-		new WebDriverWait(driver, EXPLICIT_MAX_WAIT_IN_SECONDS)
+	private WebElement waitForElementToBeClickable() {
+		return new WebDriverWait(driver, EXPLICIT_MAX_WAIT_IN_SECONDS)
 				.until(ExpectedConditions.elementToBeClickable(By.xpath(NEXT_PAGE_LINK_XPATH_SELECTOR)));
 	}
+
+	/**
+	 * Navigate once the shared host throttle allows it and report back how long the page took, so that browser
+	 * jobs slow down on a struggling host just like http ones. A navigation that throws counts as a failure.
+	 * @return What the navigation returned, or false if interrupted while waiting for the throttle.
+	 */
+	private boolean navigateThrottled(String url, BooleanSupplier navigation) {
+		String host = getHost(url);
+		HostThrottle throttle = HostThrottle.getShared();
+		if (!throttle.awaitPermit(host)) {
+			LOGGER.warn("Interrupted while waiting to navigate to {}", url);
+			return false;
+		}
+
+		long navigationStart = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			boolean result = navigation.getAsBoolean();
+			succeeded = true;
+			return result;
+		} finally {
+			if (succeeded) {
+				throttle.release(host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - navigationStart), HttpURLConnection.HTTP_OK, null);
+			} else {
+				throttle.releaseAfterFailure(host);
+			}
+		}
+	}
+
+	private String getHost(String url) {
+		try {
+			String host = new URI(url).getHost();
+			return host != null ? host : this.job.getDomain();
+		} catch (URISyntaxException e) {
+			return this.job.getDomain();
+		}
+	}
+
+	/**
+	 * Count the requests the current shelf made and the ones the resource filter spared it.
+	 */
+	private void measureResources(String shelfUrl) {
+		resourceFilter.measure(driver).ifPresent(resources -> {
+			LOGGER.debug("Shelf {} loaded {} resources of at least {} bytes, {} were blocked",
+					shelfUrl, resources.getLoadedRequests(), resources.getLoadedBytes(), resources.getBlockedRequests());
+			metrics.recordPageResources(resources.getLoadedRequests(), resources.getLoadedBytes(), resources.getBlockedRequests());
+		});
+	}
+
+	/**
+	 * Run a readiness wait and keep track of how long it took, timeouts included.
+	 */
+	private void timePageWait(Runnable pageWait) {
+		long waitStart = System.nanoTime();
+		try {
+			pageWait.run();
+		} finally {
+			metrics.recordBrowserWait(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart));
+		}
+	}
 }
@@ -0,0 +1,43 @@
+package me.mircea.licenta.crawler.impl;
+
+import org.openqa.selenium.WebDriver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author mircea
+ * A browser borrowed from {@link BrowserSessionPool}. Closing the lease hands the browser back.
+ */
+class BrowserLease implements AutoCloseable {
+    private final BrowserSessionPool pool;
+    private final BrowserSessionPool.BrowserSession session;
+    private final long leaseStart = System.nanoTime();
+    private final AtomicBoolean returned = new AtomicBoolean(false);
+
+    BrowserLease(BrowserSessionPool pool, BrowserSessionPool.BrowserSession session) {
+        this.pool = pool;
+        this.session = session;
+    }
+
+    WebDriver getDriver() {
+        return session.getDriver();
+    }
+
+    @Override
+    public void close() {
+        if (returned.compareAndSet(false, true)) {
+            pool.giveBack(session, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - leaseStart));
+        }
+    }
+
+    /**
+     * Quit the browser instead of handing it back, e.g. to stop a job stuck on a page. May be called while
+     * another thread drives the browser, whose next command then fails.
+     */
+    void discard() {
+        if (returned.compareAndSet(false, true)) {
+            pool.discardLeased(session, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - leaseStart));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package me.mircea.licenta.crawler.impl;
+
+/**
+ * @author mircea
+ * Snapshot of the state of the {@link BrowserSessionPool}.
+ */
+public class BrowserPoolMetrics {
+    private final int maxSessions;
+    private final int openSessions;
+    private final int idleSessions;
+    private final int waiters;
+    private final long totalLeases;
+    private final long averageLeaseTimeInMillis;
+    private final long maxLeaseTimeInMillis;
+    private final long averageWaitTimeInMillis;
+    private final long discardedSessions;
+
+    BrowserPoolMetrics(int maxSessions, int openSessions, int idleSessions, int waiters, long totalLeases,
+                       long averageLeaseTimeInMillis, long maxLeaseTimeInMillis, long averageWaitTimeInMillis,
+                       long discardedSessions) {
+        this.maxSessions = maxSessions;
+        this.openSessions = openSessions;
+        this.idleSessions = idleSessions;
+        this.waiters = waiters;
+        this.totalLeases = totalLeases;
+        this.averageLeaseTimeInMillis = averageLeaseTimeInMillis;
+        this.maxLeaseTimeInMillis = maxLeaseTimeInMillis;
+        this.averageWaitTimeInMillis = averageWaitTimeInMillis;
+        this.discardedSessions = discardedSessions;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * @return Browsers currently running, leased or idle.
+     */
+    public int getOpenSessions() {
+        return openSessions;
+    }
+
+    public int getIdleSessions() {
+        return idleSessions;
+    }
+
+    public int getLeasedSessions() {
+        return openSessions - idleSessions;
+    }
+
+    /**
+     * @return Jobs waiting for a browser to be returned.
+     */
+    public int getWaiters() {
+        return waiters;
+    }
+
+    public long getTotalLeases() {
+        return totalLeases;
+    }
+
+    public long getAverageLeaseTimeInMillis() {
+        return averageLeaseTimeInMillis;
+    }
+
+    public long getMaxLeaseTimeInMillis() {
+        return maxLeaseTimeInMillis;
+    }
+
+    public long getAverageWaitTimeInMillis() {
+        return averageWaitTimeInMillis;
+    }
+
+    /**
+     * @return Browsers quit because they were unhealthy, worn out or idle for too long.
+     */
+    public long getDiscardedSessions() {
+        return discardedSessions;
+    }
+}
@@ -0,0 +1,409 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.mircea.licenta.core.crawl.db.RobotDefaults;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.UnexpectedAlertBehaviour;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.firefox.FirefoxDriver;
+import org.openqa.selenium.firefox.FirefoxOptions;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author mircea
+ * Bounded pool of browsers shared by all browser crawl jobs of this node. Starting Firefox takes several
+ * seconds and hundreds of megabytes, so sessions are reused between jobs and their number is capped,
+ * which also keeps a burst of jobs from starting more browsers than the container can hold.
+ * The cookie policy and the resource filter are profile preferences that cannot be changed on a live browser,
+ * so a session only serves jobs with the same cookie policy and resource filter as the ones it was started with.
+ * WebDriver can only clear the cookies of the site currently loaded, so a session also only serves jobs of the
+ * domain it was started for: cookies a shop left behind never reach another shop's job.
+ */
+public class BrowserSessionPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BrowserSessionPool.class);
+
+    private static final String WEBDRIVER_GECKO_DRIVER = "webdriver.gecko.driver";
+
+    private static final String BROWSER_DOM_POPUPS_PREFERENCE = "dom.popup_maximum";
+    private static final String BROWSER_POPUPS_MESSAGE_PREFERENCE = "privacy.popups.showBrowserMessage";
+    private static final String BROWSER_USER_AGENT_PREFERENCE = "general.useragent.override";
+    private static final String BROWSER_COOKIE_PREFERENCE = "network.cookie.cookieBehavior";
+
+    private static final int BROWSER_BLOCK_ALL_COOKIES = 2;
+
+    private static final String CONFIG_FILE_WEBDRIVER_PATH_KEY = "browser_webdriver_path";
+    private static final String CONFIG_FILE_BROWSER_LOG_FILE_PATH_KEY = "browser_log_file";
+    private static final String CONFIG_FILE_BROWSER_POPUP_MAXIMUM = "browser_popup_maximum";
+    private static final String CONFIG_FILE_BROWSER_POPUP_SHOW_BROWSER_MESSAGE = "browser_popup_show_browser_message";
+    private static final String CONFIG_FILE_BROWSER_HEADLESS = "browser_headless";
+    private static final String CONFIG_FILE_POOL_MAX_SESSIONS = "browser_pool_max_sessions";
+    private static final String CONFIG_FILE_POOL_MAX_LEASES_PER_SESSION = "browser_pool_max_leases_per_session";
+    private static final String CONFIG_FILE_POOL_IDLE_TIMEOUT = "browser_pool_idle_timeout_in_seconds";
+
+    private static final int WEB_DRIVER_WINDOW_WIDTH = 1920;
+    private static final int WEB_DRIVER_WINDOW_HEIGHT = 1080;
+    private static final String BLANK_PAGE = "about:blank";
+    private static final String CLEAR_STORAGE_SCRIPT = "try { window.localStorage.clear(); window.sessionStorage.clear(); } catch (e) {}";
+
+    private static final BrowserSessionPool INSTANCE = new BrowserSessionPool(
+            Integer.parseInt(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_POOL_MAX_SESSIONS)),
+            Integer.parseInt(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_POOL_MAX_LEASES_PER_SESSION)),
+            Long.parseLong(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_POOL_IDLE_TIMEOUT)));
+
+    private final int maxSessions;
+    private final int maxLeasesPerSession;
+    private final long idleTimeoutInNanos;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition sessionReturned = lock.newCondition();
+    private final Deque<BrowserSession> idleSessions = new ArrayDeque<>();
+    private final Set<BrowserSession> leasedSessions = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ScheduledExecutorService idleEvictor;
+
+    private int openSessions = 0;
+    private int waiters = 0;
+    private long totalLeases = 0;
+    private long totalLeaseTimeInMillis = 0;
+    private long maxLeaseTimeInMillis = 0;
+    private long totalWaitTimeInMillis = 0;
+    private long discardedSessions = 0;
+    private boolean shutdown = false;
+
+    BrowserSessionPool(int maxSessions, int maxLeasesPerSession, long idleTimeoutInSeconds) {
+        this.maxSessions = maxSessions;
+        this.maxLeasesPerSession = maxLeasesPerSession;
+        this.idleTimeoutInNanos = TimeUnit.SECONDS.toNanos(idleTimeoutInSeconds);
+
+        this.idleEvictor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("browser-pool-evictor").setDaemon(true).build());
+        this.idleEvictor.scheduleWithFixedDelay(this::evictIdleSessions, idleTimeoutInSeconds, idleTimeoutInSeconds, TimeUnit.SECONDS);
+    }
+
+    public static BrowserSessionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrow a healthy browser, starting one if the cap allows it, or wait for one to be returned.
+     * @param domain Domain of the job that will drive the browser.
+     * @param disallowCookies Cookie policy of the job that will drive the browser.
+     * @param resourceFilter What the browser of the job should not load.
+     */
+    BrowserLease lease(String domain, boolean disallowCookies, ResourceFilter resourceFilter) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        BrowserSession session = null;
+        while (session == null) {
+            BrowserSession candidate = null;
+            BrowserSession mismatched = null;
+            boolean mayStartSession = false;
+
+            lock.lock();
+            try {
+                while (true) {
+                    if (shutdown) {
+                        throw new IllegalStateException("Browser pool was shut down");
+                    }
+
+                    candidate = pollIdleSession(domain, disallowCookies, resourceFilter);
+                    if (candidate != null) {
+                        break;
+                    }
+                    if (openSessions < maxSessions) {
+                        ++openSessions;
+                        mayStartSession = true;
+                        break;
+                    }
+                    if (!idleSessions.isEmpty()) {
+                        // Only browsers started for other domains or profiles are idle, so one of them makes room for ours
+                        mismatched = idleSessions.pollLast();
+                        mayStartSession = true;
+                        break;
+                    }
+
+                    ++waiters;
+                    try {
+                        sessionReturned.await();
+                    } finally {
+                        --waiters;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (mismatched != null) {
+                quitQuietly(mismatched.driver);
+            }
+
+            if (candidate != null) {
+                if (isHealthy(candidate)) {
+                    session = candidate;
+                } else {
+                    LOGGER.warn("Discarding an unresponsive browser");
+                    discard(candidate);
+                }
+            } else if (mayStartSession) {
+                try {
+                    session = new BrowserSession(createDriver(disallowCookies, resourceFilter), domain, disallowCookies, resourceFilter);
+                } catch (RuntimeException e) {
+                    releaseSlot();
+                    throw e;
+                }
+            }
+        }
+
+        boolean poolShutDown;
+        lock.lock();
+        try {
+            poolShutDown = shutdown;
+            if (!poolShutDown) {
+                leasedSessions.add(session);
+                totalWaitTimeInMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart);
+                ++totalLeases;
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (poolShutDown) {
+            // Shut down while the browser was checked or started, so the shutdown did not see it
+            discard(session);
+            throw new IllegalStateException("Browser pool was shut down");
+        }
+
+        ++session.leases;
+        return new BrowserLease(this, session);
+    }
+
+    /**
+     * Reset the browser so the next job starts from a clean slate, then hand it back.
+     */
+    void giveBack(BrowserSession session, long leaseTimeInMillis) {
+        boolean reusable = session.leases < maxLeasesPerSession && resetSession(session);
+
+        lock.lock();
+        try {
+            totalLeaseTimeInMillis += leaseTimeInMillis;
+            maxLeaseTimeInMillis = Math.max(maxLeaseTimeInMillis, leaseTimeInMillis);
+            if (!leasedSessions.remove(session)) {
+                // Already quit by the shutdown
+                return;
+            }
+
+            if (reusable && !shutdown) {
+                session.idleSince = System.nanoTime();
+                idleSessions.addFirst(session);
+                sessionReturned.signalAll();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(session);
+    }
+
+    /**
+     * Quit a leased browser that is not to be reused, whatever state it is in.
+     */
+    void discardLeased(BrowserSession session, long leaseTimeInMillis) {
+        lock.lock();
+        try {
+            totalLeaseTimeInMillis += leaseTimeInMillis;
+            maxLeaseTimeInMillis = Math.max(maxLeaseTimeInMillis, leaseTimeInMillis);
+            if (!leasedSessions.remove(session)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(session);
+    }
+
+    /**
+     * Quit every browser, leased ones included, e.g. when the application is undeployed. A job still driving
+     * a leased browser fails on its next command, and handing the browser back afterwards does nothing.
+     */
+    public void shutdown() {
+        idleEvictor.shutdownNow();
+
+        Deque<BrowserSession> sessionsToQuit;
+        lock.lock();
+        try {
+            shutdown = true;
+            sessionsToQuit = new ArrayDeque<>(idleSessions);
+            idleSessions.clear();
+            if (!leasedSessions.isEmpty()) {
+                LOGGER.warn("Quitting {} browsers still leased to jobs", leasedSessions.size());
+                sessionsToQuit.addAll(leasedSessions);
+                leasedSessions.clear();
+            }
+            sessionReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        sessionsToQuit.forEach(this::discard);
+    }
+
+    public BrowserPoolMetrics getMetrics() {
+        lock.lock();
+        try {
+            return new BrowserPoolMetrics(maxSessions, openSessions, idleSessions.size(), waiters, totalLeases,
+                    totalLeases == 0 ? 0 : totalLeaseTimeInMillis / totalLeases, maxLeaseTimeInMillis,
+                    totalLeases == 0 ? 0 : totalWaitTimeInMillis / totalLeases, discardedSessions);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private BrowserSession pollIdleSession(String domain, boolean disallowCookies, ResourceFilter resourceFilter) {
+        Iterator<BrowserSession> iterator = idleSessions.iterator();
+        while (iterator.hasNext()) {
+            BrowserSession session = iterator.next();
+            if (Objects.equals(session.domain, domain) && session.disallowCookies == disallowCookies
+                    && session.resourceFilter.equals(resourceFilter)) {
+                iterator.remove();
+                return session;
+            }
+        }
+        return null;
+    }
+
+    private boolean isHealthy(BrowserSession session) {
+        try {
+            session.driver.getWindowHandle();
+            return true;
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    private boolean resetSession(BrowserSession session) {
+        try {
+            // Cookies and storage can only be cleared for the site currently loaded, which is the job's;
+            // whatever other sites left behind only ever reaches later jobs of the same domain
+            session.driver.manage().deleteAllCookies();
+            ((JavascriptExecutor) session.driver).executeScript(CLEAR_STORAGE_SCRIPT);
+            session.driver.get(BLANK_PAGE);
+            return true;
+        } catch (WebDriverException e) {
+            LOGGER.warn("Could not reset browser: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private void evictIdleSessions() {
+        Deque<BrowserSession> expiredSessions = new ArrayDeque<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            Iterator<BrowserSession> iterator = idleSessions.iterator();
+            while (iterator.hasNext()) {
+                BrowserSession session = iterator.next();
+                if (now - session.idleSince > idleTimeoutInNanos) {
+                    iterator.remove();
+                    expiredSessions.add(session);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!expiredSessions.isEmpty()) {
+            LOGGER.info("Quitting {} idle browsers", expiredSessions.size());
+        }
+        expiredSessions.forEach(this::discard);
+    }
+
+    private void discard(BrowserSession session) {
+        quitQuietly(session.driver);
+        lock.lock();
+        try {
+            ++discardedSessions;
+        } finally {
+            lock.unlock();
+        }
+        releaseSlot();
+    }
+
+    private void releaseSlot() {
+        lock.lock();
+        try {
+            --openSessions;
+            sessionReturned.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void quitQuietly(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (WebDriverException e) {
+            LOGGER.warn("Could not quit browser cleanly: {}", e.getMessage());
+        }
+    }
+
+    private static WebDriver createDriver(boolean disallowCookies, ResourceFilter resourceFilter) {
+        System.setProperty(WEBDRIVER_GECKO_DRIVER, BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_WEBDRIVER_PATH_KEY));
+        System.setProperty(FirefoxDriver.SystemProperty.BROWSER_LOGFILE, BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_LOG_FILE_PATH_KEY));
+
+        FirefoxProfile profile = new FirefoxProfile();
+        profile.setPreference(BROWSER_USER_AGENT_PREFERENCE, RobotDefaults.getUserAgent());
+
+        profile.setPreference(BROWSER_DOM_POPUPS_PREFERENCE, Integer.valueOf(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_POPUP_MAXIMUM)));
+        profile.setPreference(BROWSER_POPUPS_MESSAGE_PREFERENCE, Boolean.valueOf(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_POPUP_SHOW_BROWSER_MESSAGE)));
+
+        if (disallowCookies) {
+            profile.setPreference(BROWSER_COOKIE_PREFERENCE, BROWSER_BLOCK_ALL_COOKIES);
+        }
+        resourceFilter.applyTo(profile);
+
+        FirefoxOptions opts = new FirefoxOptions();
+        opts.setHeadless(Boolean.valueOf(BrowserCrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_HEADLESS)));
+        opts.setProfile(profile);
+        opts.setUnhandledPromptBehaviour(UnexpectedAlertBehaviour.DISMISS);
+        WebDriver driver = new FirefoxDriver(opts);
+        // Readiness is awaited explicitly by the crawlers, an implicit wait would only stall every lookup that misses
+        driver.manage().timeouts().implicitlyWait(0, TimeUnit.SECONDS);
+        driver.manage().window().setSize(new Dimension(WEB_DRIVER_WINDOW_WIDTH, WEB_DRIVER_WINDOW_HEIGHT));
+
+        LOGGER.info("Started a new browser with window size {} and {}", driver.manage().window().getSize(), resourceFilter);
+        return driver;
+    }
+
+    static class BrowserSession {
+        private final WebDriver driver;
+        private final String domain;
+        private final boolean disallowCookies;
+        private final ResourceFilter resourceFilter;
+        private int leases = 0;
+        private long idleSince;
+
+        BrowserSession(WebDriver driver, String domain, boolean disallowCookies, ResourceFilter resourceFilter) {
+            this.driver = driver;
+            this.domain = domain;
+            this.disallowCookies = disallowCookies;
+            this.resourceFilter = resourceFilter;
+        }
+
+        WebDriver getDriver() {
+            return driver;
+        }
+    }
+}
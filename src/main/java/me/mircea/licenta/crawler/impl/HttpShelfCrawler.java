@@ -0,0 +1,234 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.Page;
+import me.mircea.licenta.core.crawl.db.model.PageType;
+import me.mircea.licenta.core.parser.utils.HtmlUtil;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.checkpoint.CrawlCheckpoint;
+import me.mircea.licenta.crawler.fetch.AsyncHttpFetcher;
+import me.mircea.licenta.crawler.fetch.FetchResponse;
+import me.mircea.licenta.crawler.fetch.Fetcher;
+import me.mircea.licenta.crawler.fetch.HostThrottle;
+import me.mircea.licenta.crawler.fetch.MeteredFetcher;
+import me.mircea.licenta.crawler.fetch.ThrottledFetcher;
+import me.mircea.licenta.crawler.persistence.PageWriter;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * @author mircea
+ * Walks shelves over plain http for shops whose pagination is made of ordinary links,
+ * so no browser has to be launched. Pages are still visited one at a time, out of politeness.
+ */
+public class HttpShelfCrawler extends Crawler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpShelfCrawler.class);
+    private static final Pattern CHARSET_PATTERN = Pattern.compile("charset=\\s*\"?([^\\s;\"]+)", Pattern.CASE_INSENSITIVE);
+
+    private final Fetcher fetcher;
+    private int seedIndex = 0;
+    private String currentShelfUrl;
+    /**
+     * The first seed as fetched by the probe, handed to the walk so it is not fetched twice.
+     */
+    private ShelfDocument probedShelf;
+
+    public HttpShelfCrawler(Job job) {
+        super(job);
+        // The shared fetcher never blocks, so fetches may start right on the thread granting the permit
+        this.fetcher = new ThrottledFetcher(new MeteredFetcher(AsyncHttpFetcher.getShared(), metrics),
+                HostThrottle.getShared(), MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Probe the first seed to find out if its products can be seen and its next page reached without running any script.
+     * @return Decision if this crawler is enough for the job or a browser is needed.
+     */
+    public boolean canCrawlWithoutBrowser() {
+        if (job.getSeeds().isEmpty()) {
+            return false;
+        }
+
+        String firstSeed = job.getSeeds().iterator().next();
+        Optional<ShelfDocument> firstShelf = fetchShelf(firstSeed);
+        if (!firstShelf.isPresent()) {
+            return false;
+        }
+
+        boolean hasProducts = !ShelfPageUtil.getSingleProductPages(firstShelf.get().document, job.getDomain()).isEmpty();
+        LOGGER.info("Static html of {} {} products", firstSeed, hasProducts ? "has" : "has no");
+        if (firstShelf.get().scriptedNextPage) {
+            LOGGER.info("Pagination of {} needs scripts to be followed", firstSeed);
+            return false;
+        }
+        if (hasProducts) {
+            probedShelf = firstShelf.get();
+        }
+        return hasProducts;
+    }
+
+    @Override
+    public void run() {
+        startCrawlJob();
+        List<String> seeds = new ArrayList<>(job.getSeeds());
+        Optional<CrawlCheckpoint> checkpoint = restoreCheckpoint();
+        int firstSeedIndex = checkpoint.map(CrawlCheckpoint::getSeedIndex).orElse(0);
+        for (seedIndex = firstSeedIndex; seedIndex < seeds.size() && !shouldStop(); ++seedIndex) {
+            String startUrl = seeds.get(seedIndex);
+            if (seedIndex == firstSeedIndex && checkpoint.isPresent() && checkpoint.get().getShelfUrl() != null) {
+                startUrl = checkpoint.get().getShelfUrl();
+            }
+            traverseMultiProductPage(startUrl);
+        }
+        finishCrawlJob();
+    }
+
+    @Override
+    protected CrawlCheckpoint createCheckpoint() {
+        CrawlCheckpoint checkpoint = newCheckpoint();
+        checkpoint.setSeedIndex(seedIndex);
+        checkpoint.setShelfUrl(currentShelfUrl);
+        return checkpoint;
+    }
+
+    /**
+     * @param firstMultiProductPage
+     * Exhaust collection starting from seed.
+     */
+    private void traverseMultiProductPage(final String firstMultiProductPage) {
+        LOGGER.info("Following pagination links starting from {}", firstMultiProductPage);
+
+        Set<String> visitedShelves = new HashSet<>();
+        Optional<String> nextShelfUrl = Optional.of(firstMultiProductPage);
+        String previousShelfUrl = null;
+        while (nextShelfUrl.isPresent() && visitedShelves.add(nextShelfUrl.get()) && !shouldStop()) {
+            currentShelfUrl = nextShelfUrl.get();
+            checkpointIfDue();
+            Optional<ShelfDocument> possibleShelf = takeProbedShelf(nextShelfUrl.get());
+            if (!possibleShelf.isPresent()) {
+                possibleShelf = fetchShelf(nextShelfUrl.get());
+            }
+            if (!possibleShelf.isPresent()) {
+                break;
+            }
+            if (possibleShelf.get().scriptedNextPage) {
+                LOGGER.warn("Stopping at {} since its next page can only be reached with scripts", nextShelfUrl.get());
+            }
+
+            String shelfUrl = possibleShelf.get().document.location();
+            Instant retrievedTime = Instant.now();
+
+            Page shelfPage = new Page(shelfUrl, previousShelfUrl, PageType.SHELF, retrievedTime);
+            List<String> productUrls = ShelfPageUtil.getSingleProductPages(possibleShelf.get().document, job.getDomain());
+            LOGGER.info("Got {} product urls on {}", productUrls.size(), shelfPage.getUrl());
+
+            List<Page> batchOfPages = productUrls.stream()
+                    .filter(seenUrls::add)
+                    .map(productUrl -> new Page(productUrl, shelfUrl, PageType.PRODUCT, retrievedTime))
+                    .collect(Collectors.toList());
+            if (seenUrls.add(shelfUrl)) {
+                batchOfPages.add(shelfPage);
+            }
+            PageWriter.getInstance().writeAll(batchOfPages, getJobId());
+            metrics.addDiscoveredPages(batchOfPages.size());
+
+            previousShelfUrl = shelfUrl;
+            nextShelfUrl = possibleShelf.get().nextShelfUrl;
+        }
+    }
+
+    private Optional<ShelfDocument> takeProbedShelf(String shelfUrl) {
+        if (probedShelf == null || !job.getSeeds().iterator().next().equals(shelfUrl)) {
+            return Optional.empty();
+        }
+        ShelfDocument shelf = probedShelf;
+        probedShelf = null;
+        return Optional.of(shelf);
+    }
+
+    /**
+     * @return The sanitized shelf and its next page link, or empty if it could not be retrieved.
+     */
+    private Optional<ShelfDocument> fetchShelf(String shelfUrl) {
+        CompletableFuture<Optional<FetchResponse>> futureResponse = null;
+        try {
+            URL url = new URL(shelfUrl);
+            futureResponse = fetcher.fetch(url, Collections.emptyMap());
+            Optional<FetchResponse> possibleResponse = futureResponse.get();
+            if (!possibleResponse.isPresent()) {
+                return Optional.empty();
+            }
+
+            try (FetchResponse response = possibleResponse.get()) {
+                if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                    LOGGER.info("Could not fetch shelf {}: http status {}", shelfUrl, response.getStatus());
+                    return Optional.empty();
+                }
+
+                Document document = Jsoup.parse(response.getBody(), getCharset(response.getContentType()), response.getUrl().toString());
+                // Pagination is looked up before sanitizing, just like the browser looks at the live page
+                Optional<String> nextShelfUrl = ShelfPageUtil.getNextPageUrl(document);
+                boolean scriptedNextPage = ShelfPageUtil.hasScriptedNextPage(document);
+                return Optional.of(new ShelfDocument(HtmlUtil.sanitizeHtml(document), nextShelfUrl, scriptedNextPage));
+            }
+        } catch (IOException | ExecutionException e) {
+            LOGGER.info("Could not retrieve shelf {}: {}", shelfUrl, e.getMessage());
+        } catch (InterruptedException e) {
+            LOGGER.info("Interrupted while retrieving shelf {}", shelfUrl);
+            // The response still holds its host permit once it comes in
+            futureResponse.thenAccept(possibleResponse -> possibleResponse.ifPresent(HttpShelfCrawler::closeQuietly));
+            Thread.currentThread().interrupt();
+        }
+        return Optional.empty();
+    }
+
+    private static void closeQuietly(FetchResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close the response of {}: {}", response.getUrl(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return The charset declared in the content type, or null to let Jsoup detect it from the document.
+     */
+    private static String getCharset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        Matcher matcher = CHARSET_PATTERN.matcher(contentType);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static class ShelfDocument {
+        private final Document document;
+        private final Optional<String> nextShelfUrl;
+        private final boolean scriptedNextPage;
+
+        ShelfDocument(Document document, Optional<String> nextShelfUrl, boolean scriptedNextPage) {
+            this.document = document;
+            this.nextShelfUrl = nextShelfUrl;
+            this.scriptedNextPage = scriptedNextPage;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package me.mircea.licenta.crawler.impl;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * @author mircea
+ * Extracts the product urls of a shelf inside the browser, with the same heuristic as {@link ProductAnchorWalker},
+ * so only the urls travel over the WebDriver protocol instead of the serialized page, which is then neither
+ * parsed again nor sanitized. A selector learned for the domain is tried first, like on the Jsoup path.
+ */
+class InPageShelfExtractor {
+    private static final Logger LOGGER = LoggerFactory.getLogger(InPageShelfExtractor.class);
+
+    private static final String EXTRACT_SHELF_SCRIPT =
+            "var learnedSelector = arguments[0], nextPageXpath = arguments[1];"
+            + "var firstLink = function(element) {"
+            + "  if (element.tagName === 'A' && element.hasAttribute('href')) { return element; }"
+            + "  return element.querySelector('a[href]');"
+            + "};"
+            + "var links = [];"
+            + "if (learnedSelector) {"
+            + "  try {"
+            + "    document.querySelectorAll(learnedSelector).forEach(function(product) { links.push(firstLink(product)); });"
+            + "  } catch (e) { links = []; }"
+            + "}"
+            + "if (links.length === 0) {"
+            // Post-order walk: an element knows what lies below it once all its children were visited
+            + "  var walk = function(element) {"
+            + "    var below = {image: false, anchor: false, product: false, link: null};"
+            + "    for (var child = element.firstElementChild; child; child = child.nextElementSibling) {"
+            + "      var childBelow = walk(child), tag = child.tagName.toUpperCase();"
+            + "      below.image = below.image || childBelow.image || tag === 'IMG';"
+            + "      below.anchor = below.anchor || childBelow.anchor || tag === 'A';"
+            + "      below.product = below.product || childBelow.product || childBelow.isProduct;"
+            + "      below.link = below.link || childBelow.selfLink;"
+            + "    }"
+            + "    var className = (element.getAttribute('class') || '').toLowerCase();"
+            + "    var isProduct = below.image && below.anchor && className.indexOf('produ') !== -1;"
+            + "    var selfLink = element.tagName.toUpperCase() === 'A' && element.hasAttribute('href') ? element : below.link;"
+            + "    if (isProduct && !below.product) { links.push(selfLink); }"
+            + "    return {image: below.image, anchor: below.anchor, product: below.product, isProduct: isProduct, selfLink: selfLink};"
+            + "  };"
+            + "  walk(document.documentElement);"
+            + "}"
+            + "var nextPage = document.evaluate(nextPageXpath, document, null, XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;"
+            + "return {"
+            + "  productUrls: links.filter(function(link) { return link !== null; }).map(function(link) { return link.href; }),"
+            + "  hasNextPage: nextPage !== null"
+            + "};";
+
+    private final WebDriver driver;
+    private final String nextPageXpath;
+
+    InPageShelfExtractor(WebDriver driver, String nextPageXpath) {
+        this.driver = driver;
+        this.nextPageXpath = nextPageXpath;
+    }
+
+    /**
+     * @param learnedSelector Css selector of the products of the domain, or null to use the heuristic.
+     * @return The links found on the page currently loaded, or empty if the script could not run.
+     */
+    Optional<ShelfLinks> extract(String learnedSelector) {
+        try {
+            Object result = ((JavascriptExecutor) driver).executeScript(EXTRACT_SHELF_SCRIPT, learnedSelector, nextPageXpath);
+            if (!(result instanceof Map)) {
+                LOGGER.warn("Product extraction script returned {} on {}", result, driver.getCurrentUrl());
+                return Optional.empty();
+            }
+
+            Map<?, ?> resultMap = (Map<?, ?>) result;
+            List<String> productUrls = new ArrayList<>();
+            Object urls = resultMap.get("productUrls");
+            if (urls instanceof List) {
+                for (Object url : (List<?>) urls) {
+                    productUrls.add(String.valueOf(url));
+                }
+            }
+            return Optional.of(new ShelfLinks(productUrls, Boolean.TRUE.equals(resultMap.get("hasNextPage"))));
+        } catch (WebDriverException e) {
+            LOGGER.warn("Could not run the product extraction script on {}: {}", driver.getCurrentUrl(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    static class ShelfLinks {
+        private final List<String> productUrls;
+        private final boolean hasNextPage;
+
+        ShelfLinks(List<String> productUrls, boolean hasNextPage) {
+            this.productUrls = productUrls;
+            this.hasNextPage = hasNextPage;
+        }
+
+        List<String> getProductUrls() {
+            return productUrls;
+        }
+
+        boolean hasNextPage() {
+            return hasNextPage;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package me.mircea.licenta.crawler.impl;
+
+import org.openqa.selenium.JavascriptException;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.support.ui.FluentWait;
+
+import java.time.Duration;
+
+/**
+ * @author mircea
+ * Tells when a page is done loading by watching it from the inside instead of sleeping for fixed timeouts.
+ * A probe injected in the page counts DOM mutations and in-flight XHR/fetch requests. After a click, the
+ * page is ready either once a new document has fully loaded (the probe is gone) or, for pagination done
+ * with scripts, once the DOM changed and then stayed quiet with no requests in flight.
+ */
+class PageReadiness {
+    private static final String INSTALL_PROBE_SCRIPT =
+            "if (!window.__crawlerReadiness) {"
+            + "  var probe = window.__crawlerReadiness = {inflight: 0, mutations: 0, lastMutation: Date.now(), mutationsAtMark: 0, markedAt: 0};"
+            + "  new MutationObserver(function() { probe.mutations++; probe.lastMutation = Date.now(); })"
+            + "    .observe(document, {childList: true, subtree: true});"
+            + "  var send = XMLHttpRequest.prototype.send;"
+            + "  XMLHttpRequest.prototype.send = function() {"
+            + "    probe.inflight++;"
+            + "    this.addEventListener('loadend', function() { probe.inflight--; });"
+            + "    return send.apply(this, arguments);"
+            + "  };"
+            + "  if (window.fetch) {"
+            + "    var originalFetch = window.fetch;"
+            + "    window.fetch = function() {"
+            + "      probe.inflight++;"
+            + "      var done = function() { probe.inflight--; };"
+            + "      var request = originalFetch.apply(this, arguments);"
+            + "      request.then(done, done);"
+            + "      return request;"
+            + "    };"
+            + "  }"
+            + "}"
+            + "window.__crawlerReadiness.mutationsAtMark = window.__crawlerReadiness.mutations;"
+            + "window.__crawlerReadiness.markedAt = Date.now();";
+
+    private static final String IS_READY_SCRIPT =
+            "if (document.readyState !== 'complete') { return false; }"
+            + "var probe = window.__crawlerReadiness;"
+            + "if (!probe) { return true; }"
+            + "if (probe.mutations === probe.mutationsAtMark || probe.inflight !== 0) { return false; }"
+            + "var now = Date.now();"
+            + "return now - probe.lastMutation >= arguments[0] || now - probe.markedAt >= arguments[1];";
+
+    private static final String IS_DOCUMENT_COMPLETE_SCRIPT = "return document.readyState === 'complete';";
+
+    private static final long POLLING_INTERVAL_IN_MILLISECONDS = 100;
+    private static final long DOM_QUIET_PERIOD_IN_MILLISECONDS = 500;
+    // Pages with carousels or timers never stop mutating, so they are let go this long after a change
+    private static final long MAX_SETTLE_PERIOD_IN_MILLISECONDS = 5_000;
+
+    private final WebDriver driver;
+    private final Duration maxWait;
+
+    PageReadiness(WebDriver driver, Duration maxWait) {
+        this.driver = driver;
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Remember the current state of the page, right before doing something that changes it.
+     */
+    void mark() {
+        ((JavascriptExecutor) driver).executeScript(INSTALL_PROBE_SCRIPT);
+    }
+
+    /**
+     * Wait until the page changed since {@link #mark()} and settled.
+     * @throws org.openqa.selenium.TimeoutException If it did not settle in time.
+     */
+    void awaitChangeSettled() {
+        newWait().until(webDriver -> Boolean.TRUE.equals(
+                ((JavascriptExecutor) webDriver).executeScript(IS_READY_SCRIPT,
+                        DOM_QUIET_PERIOD_IN_MILLISECONDS, MAX_SETTLE_PERIOD_IN_MILLISECONDS)));
+    }
+
+    /**
+     * Wait until the document that is being loaded finishes, e.g. after {@link WebDriver#get(String)}.
+     */
+    void awaitDocumentComplete() {
+        newWait().until(webDriver -> Boolean.TRUE.equals(
+                ((JavascriptExecutor) webDriver).executeScript(IS_DOCUMENT_COMPLETE_SCRIPT)));
+    }
+
+    private FluentWait<WebDriver> newWait() {
+        return new FluentWait<>(driver)
+                .withTimeout(maxWait)
+                .pollingEvery(Duration.ofMillis(POLLING_INTERVAL_IN_MILLISECONDS))
+                // Scripts may fail while the old document is being torn down
+                .ignoring(JavascriptException.class);
+    }
+}
@@ -0,0 +1,112 @@
+package me.mircea.licenta.crawler.impl;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * @author mircea
+ * Finds the same products as the generic selector {@code [class*='produ']:has(img):has(a)} made a leaf
+ * (a product holding no other product), in a single walk of the document. The selector engine checks every
+ * {@code :has} by scanning the subtree of each candidate again, which is quadratic on nested listings,
+ * while here every element learns what lies below it from its children as the walk leaves them.
+ */
+class ProductAnchorWalker implements NodeVisitor {
+    private static final String PRODUCT_CLASS_FRAGMENT = "produ";
+
+    /**
+     * What was found below the element at each depth of the path currently walked, reused between elements.
+     */
+    private final List<Subtree> subtrees = new ArrayList<>();
+    private final List<Element> products = new ArrayList<>();
+    private final List<Element> productLinks = new ArrayList<>();
+
+    private ProductAnchorWalker() {
+    }
+
+    /**
+     * @return The products of the page in document order, each with its first link in {@link #getProductLinks()}.
+     */
+    static ProductAnchorWalker walk(Element root) {
+        ProductAnchorWalker walker = new ProductAnchorWalker();
+        NodeTraversor.traverse(walker, root);
+        return walker;
+    }
+
+    List<Element> getProducts() {
+        return products;
+    }
+
+    /**
+     * @return The first {@code a[href]} of every product, itself included, or null for a product whose links have no href.
+     */
+    List<Element> getProductLinks() {
+        return productLinks;
+    }
+
+    @Override
+    public void head(Node node, int depth) {
+        if (node instanceof Element) {
+            while (subtrees.size() <= depth) {
+                subtrees.add(new Subtree());
+            }
+            subtrees.get(depth).clear();
+        }
+    }
+
+    @Override
+    public void tail(Node node, int depth) {
+        if (!(node instanceof Element)) {
+            return;
+        }
+
+        Element element = (Element) node;
+        Subtree below = subtrees.get(depth);
+        boolean isProduct = below.hasImage && below.hasAnchor && isProductLike(element);
+        Element firstLink = isAnchorWithHref(element) ? element : below.firstLink;
+
+        // Leaf products never nest, so the order they are left in is also document order
+        if (isProduct && !below.hasProduct) {
+            products.add(element);
+            productLinks.add(firstLink);
+        }
+
+        if (depth > 0) {
+            Subtree parent = subtrees.get(depth - 1);
+            parent.hasImage |= below.hasImage || "img".equals(element.tagName());
+            parent.hasAnchor |= below.hasAnchor || "a".equals(element.tagName());
+            parent.hasProduct |= below.hasProduct || isProduct;
+            if (parent.firstLink == null) {
+                parent.firstLink = firstLink;
+            }
+        }
+    }
+
+    static boolean isAnchorWithHref(Element element) {
+        return "a".equals(element.tagName()) && element.hasAttr("href");
+    }
+
+    private static boolean isProductLike(Element element) {
+        String className = element.className();
+        return !className.isEmpty() && className.toLowerCase(Locale.ROOT).contains(PRODUCT_CLASS_FRAGMENT);
+    }
+
+    private static class Subtree {
+        private boolean hasImage;
+        private boolean hasAnchor;
+        private boolean hasProduct;
+        private Element firstLink;
+
+        void clear() {
+            hasImage = false;
+            hasAnchor = false;
+            hasProduct = false;
+            firstLink = null;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Collector;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+import org.jsoup.select.Selector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * @author mircea
+ * Remembers, for every domain, a plain selector that picks exactly the products the generic heuristic found
+ * on one of its shelves, e.g. {@code div.product-item}. Later shelves of the domain, in this job or the next
+ * ones, are matched with that selector, compiled once, instead of the heuristic.
+ * Selectors are kept in a json file shared by all domains, since the crawl database model belongs to core.
+ */
+class ProductSelectorCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProductSelectorCache.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, String>> SELECTORS_TYPE = new TypeReference<Map<String, String>>() {};
+
+    private static final String CONFIG_FILE_SELECTOR_CACHE_FILE = "shelf_selector_cache_file";
+    private static final String PRODUCT_CLASS_FRAGMENT = "produ";
+    private static final Pattern PLAIN_CLASS_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_-]*");
+    /**
+     * Fewer products than this on a shelf are too little evidence to learn from.
+     */
+    private static final int MIN_PRODUCTS_TO_LEARN = 3;
+    /**
+     * Share of the products found by the heuristic a learned selector has to match.
+     */
+    private static final double MIN_COVERAGE = 0.9;
+
+    private final Path file;
+    private final ConcurrentMap<String, LearnedSelector> selectors = new ConcurrentHashMap<>();
+
+    ProductSelectorCache(Path file) {
+        this.file = file;
+        if (Files.isReadable(file)) {
+            try {
+                Map<String, String> savedSelectors = MAPPER.readValue(file.toFile(), SELECTORS_TYPE);
+                savedSelectors.forEach((domain, selector) -> compile(selector).ifPresent(learnedSelector -> selectors.put(domain, learnedSelector)));
+                LOGGER.info("Loaded {} product selectors from {}", selectors.size(), file);
+            } catch (IOException e) {
+                LOGGER.warn("Could not read product selectors {}, starting from scratch: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    static ProductSelectorCache getInstance() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    Optional<Evaluator> get(String domain) {
+        return Optional.ofNullable(selectors.get(domain)).map(learnedSelector -> learnedSelector.evaluator);
+    }
+
+    /**
+     * @return The selector of the domain as text, e.g. to run it in a browser.
+     */
+    Optional<String> getSelector(String domain) {
+        return Optional.ofNullable(selectors.get(domain)).map(learnedSelector -> learnedSelector.selector);
+    }
+
+    /**
+     * Try to describe the products found by the heuristic with a single tag and class, and remember it for the
+     * domain if it selects nearly all of them and nothing else. Nearly, because the heuristic also catches the odd
+     * banner or widget whose class happens to mention products.
+     * @return Whether a selector was learned.
+     */
+    boolean learn(String domain, Element shelf, List<Element> products) {
+        if (products.size() < MIN_PRODUCTS_TO_LEARN) {
+            return false;
+        }
+
+        Map<String, Integer> productsPerSelector = new HashMap<>();
+        for (Element product : products) {
+            for (String className : product.classNames()) {
+                if (className.toLowerCase(Locale.ROOT).contains(PRODUCT_CLASS_FRAGMENT) && PLAIN_CLASS_NAME.matcher(className).matches()) {
+                    productsPerSelector.merge(product.tagName() + "." + className, 1, Integer::sum);
+                }
+            }
+        }
+
+        Set<Element> productSet = Collections.newSetFromMap(new IdentityHashMap<>());
+        productSet.addAll(products);
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>(productsPerSelector.entrySet());
+        candidates.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        for (Map.Entry<String, Integer> candidate : candidates) {
+            if (candidate.getValue() < products.size() * MIN_COVERAGE) {
+                break;
+            }
+
+            String selector = candidate.getKey();
+            Optional<LearnedSelector> learnedSelector = compile(selector);
+            if (learnedSelector.isPresent() && productSet.containsAll(Collector.collect(learnedSelector.get().evaluator, shelf))) {
+                LearnedSelector previous = selectors.put(domain, learnedSelector.get());
+                if (previous == null || !previous.selector.equals(selector)) {
+                    LOGGER.info("Learned product selector {} for {}, matching {} of {} products", selector, domain, candidate.getValue(), products.size());
+                    save();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drop the selector of a domain whose markup no longer matches it.
+     */
+    void forget(String domain) {
+        if (selectors.remove(domain) != null) {
+            LOGGER.info("Forgot the product selector of {}", domain);
+            save();
+        }
+    }
+
+    private static Optional<LearnedSelector> compile(String selector) {
+        try {
+            return Optional.of(new LearnedSelector(selector, QueryParser.parse(selector)));
+        } catch (Selector.SelectorParseException e) {
+            LOGGER.warn("Ignoring invalid product selector {}: {}", selector, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Write to a temporary file first, so a crash never leaves a truncated file behind.
+     */
+    private synchronized void save() {
+        Map<String, String> savedSelectors = new HashMap<>();
+        selectors.forEach((domain, learnedSelector) -> savedSelectors.put(domain, learnedSelector.selector));
+        try {
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            MAPPER.writeValue(temporaryFile.toFile(), savedSelectors);
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not save product selectors {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static class LearnedSelector {
+        private final String selector;
+        private final Evaluator evaluator;
+
+        LearnedSelector(String selector, Evaluator evaluator) {
+            this.selector = selector;
+            this.evaluator = evaluator;
+        }
+    }
+
+    private static class SharedInstanceHolder {
+        private static final ProductSelectorCache INSTANCE = new ProductSelectorCache(
+                Paths.get(CrawlerSettingsUtil.getSetting(CONFIG_FILE_SELECTOR_CACHE_FILE)));
+    }
+}
@@ -0,0 +1,279 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.firefox.FirefoxProfile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * @author mircea
+ * What a browser leaves out when loading shelves, which only need their markup and the scripts that paginate.
+ * Whole kinds of resources are turned off with profile preferences. Requests to denied hosts, e.g. trackers
+ * and ads, are sent by a proxy auto-config script to a closed port, where they fail at once. Allowed hosts
+ * win over denied ones, so a script pagination needs can be let through. Both are fixed when the browser
+ * starts, which is why browsers are pooled by filter.
+ */
+class ResourceFilter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceFilter.class);
+
+    private static final String CONFIG_FILE_BLOCKED_RESOURCE_TYPES = "browser_blocked_resource_types";
+    private static final String CONFIG_FILE_DENIED_DOMAINS = "browser_denied_domains";
+    private static final String CONFIG_FILE_ALLOWED_DOMAINS = "browser_allowed_domains";
+
+    private static final String IMAGE_PREFERENCE = "permissions.default.image";
+    private static final String STYLESHEET_PREFERENCE = "permissions.default.stylesheet";
+    private static final String DOWNLOADABLE_FONTS_PREFERENCE = "gfx.downloadable_fonts.enabled";
+    private static final String MEDIA_AUTOPLAY_PREFERENCE = "media.autoplay.default";
+    private static final String MEDIA_PRELOAD_PREFERENCE = "media.preload.default";
+    private static final String PROXY_TYPE_PREFERENCE = "network.proxy.type";
+    private static final String PROXY_AUTOCONFIG_URL_PREFERENCE = "network.proxy.autoconfig_url";
+    private static final String PROXY_FAILOVER_DIRECT_PREFERENCE = "network.proxy.failover_direct";
+
+    private static final int PERMISSION_DENIED = 2;
+    private static final int MEDIA_AUTOPLAY_BLOCK_ALL = 5;
+    private static final int MEDIA_PRELOAD_NONE = 0;
+    private static final int PROXY_TYPE_AUTOCONFIG = 2;
+
+    /**
+     * Nothing listens on port 1, so the connection is refused right away instead of timing out.
+     */
+    private static final String PROXY_AUTOCONFIG_SCRIPT =
+            "function FindProxyForURL(url, host) {"
+            + "  var allowed = %s, denied = %s;"
+            + "  var matches = function(domains) {"
+            + "    for (var i = 0; i < domains.length; i++) {"
+            + "      if (host === domains[i] || dnsDomainIs(host, '.' + domains[i])) { return true; }"
+            + "    }"
+            + "    return false;"
+            + "  };"
+            + "  return !matches(allowed) && matches(denied) ? 'PROXY 127.0.0.1:1' : 'DIRECT';"
+            + "}";
+
+    /**
+     * Counts what the page requested since the last call and the resources in it that were left out, by kind
+     * or by host. Fonts live in stylesheets and are not counted, nor are blocked requests made by scripts alone.
+     * Bytes of cross-origin resources are only known when their server allows it, so loaded bytes are a floor.
+     */
+    private static final String MEASURE_SCRIPT =
+            "var blockedTypes = arguments[0], denied = arguments[1], allowed = arguments[2];"
+            + "var matches = function(host, domains) {"
+            + "  for (var i = 0; i < domains.length; i++) {"
+            + "    if (host === domains[i] || host.slice(-domains[i].length - 1) === '.' + domains[i]) { return true; }"
+            + "  }"
+            + "  return false;"
+            + "};"
+            + "var isDenied = function(url) {"
+            + "  try {"
+            + "    var host = new URL(url, document.baseURI).hostname;"
+            + "    return !matches(host, allowed) && matches(host, denied);"
+            + "  } catch (e) { return false; }"
+            + "};"
+            + "if (!window.__crawlerResources) {"
+            + "  window.__crawlerResources = {entries: 0};"
+            + "  if (performance.setResourceTimingBufferSize) { performance.setResourceTimingBufferSize(100000); }"
+            + "}"
+            + "var state = window.__crawlerResources, entries = performance.getEntriesByType('resource'), loadedBytes = 0;"
+            + "for (var i = state.entries; i < entries.length; i++) { loadedBytes += entries[i].transferSize || 0; }"
+            + "var loadedRequests = entries.length - state.entries;"
+            + "state.entries = entries.length;"
+            + "var blockedRequests = 0;"
+            + "[['IMAGE', 'img[src]', 'src'], ['STYLESHEET', 'link[rel~=stylesheet][href]', 'href'],"
+            + " ['MEDIA', 'video[src], audio[src], source[src]', 'src'], ['SCRIPT', 'script[src]', 'src'], ['FRAME', 'iframe[src]', 'src']]"
+            + ".forEach(function(kind) {"
+            + "  document.querySelectorAll(kind[1]).forEach(function(element) {"
+            + "    if (element.__crawlerCounted) { return; }"
+            + "    element.__crawlerCounted = true;"
+            + "    if (blockedTypes.indexOf(kind[0]) !== -1 || isDenied(element.getAttribute(kind[2]))) { blockedRequests++; }"
+            + "  });"
+            + "});"
+            + "return {loadedRequests: loadedRequests, loadedBytes: loadedBytes, blockedRequests: blockedRequests};";
+
+    enum ResourceType {
+        IMAGE, STYLESHEET, FONT, MEDIA
+    }
+
+    private final Set<ResourceType> blockedTypes;
+    private final Set<String> deniedDomains;
+    private final Set<String> allowedDomains;
+
+    ResourceFilter(Collection<ResourceType> blockedTypes, Collection<String> deniedDomains, Collection<String> allowedDomains) {
+        this.blockedTypes = blockedTypes.isEmpty() ? ImmutableSet.of() : ImmutableSet.copyOf(EnumSet.copyOf(blockedTypes));
+        this.deniedDomains = normalizeDomains(deniedDomains);
+        this.allowedDomains = normalizeDomains(allowedDomains);
+    }
+
+    static ResourceFilter getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    /**
+     * @param blockedTypes Names of the resource types to block, or null to keep these.
+     * @param deniedDomains Hosts to block, or null to keep these.
+     * @param allowedDomains Hosts to let through anyway, or null to keep these.
+     * @throws IllegalArgumentException If a resource type is unknown.
+     */
+    ResourceFilter withOverrides(List<String> blockedTypes, List<String> deniedDomains, List<String> allowedDomains) {
+        return new ResourceFilter(blockedTypes != null ? parseTypes(blockedTypes) : this.blockedTypes,
+                deniedDomains != null ? deniedDomains : this.deniedDomains,
+                allowedDomains != null ? allowedDomains : this.allowedDomains);
+    }
+
+    void applyTo(FirefoxProfile profile) {
+        if (blockedTypes.contains(ResourceType.IMAGE)) {
+            profile.setPreference(IMAGE_PREFERENCE, PERMISSION_DENIED);
+        }
+        if (blockedTypes.contains(ResourceType.STYLESHEET)) {
+            profile.setPreference(STYLESHEET_PREFERENCE, PERMISSION_DENIED);
+        }
+        if (blockedTypes.contains(ResourceType.FONT)) {
+            profile.setPreference(DOWNLOADABLE_FONTS_PREFERENCE, false);
+        }
+        if (blockedTypes.contains(ResourceType.MEDIA)) {
+            profile.setPreference(MEDIA_AUTOPLAY_PREFERENCE, MEDIA_AUTOPLAY_BLOCK_ALL);
+            profile.setPreference(MEDIA_PRELOAD_PREFERENCE, MEDIA_PRELOAD_NONE);
+        }
+
+        if (!deniedDomains.isEmpty()) {
+            String script = String.format(PROXY_AUTOCONFIG_SCRIPT, toJsArray(allowedDomains), toJsArray(deniedDomains));
+            try {
+                profile.setPreference(PROXY_TYPE_PREFERENCE, PROXY_TYPE_AUTOCONFIG);
+                profile.setPreference(PROXY_AUTOCONFIG_URL_PREFERENCE, "data:application/x-ns-proxy-autoconfig,"
+                        + URLEncoder.encode(script, StandardCharsets.UTF_8.name()).replace("+", "%20"));
+                // Otherwise a refused request is retried without the proxy
+                profile.setPreference(PROXY_FAILOVER_DIRECT_PREFERENCE, false);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException("UTF-8 is mandatory on every JVM", e);
+            }
+        }
+    }
+
+    /**
+     * @return What the page loaded and left out since the last measure, or empty if the script could not run.
+     */
+    Optional<PageResources> measure(WebDriver driver) {
+        try {
+            Object result = ((JavascriptExecutor) driver).executeScript(MEASURE_SCRIPT,
+                    blockedTypes.stream().map(Enum::name).collect(Collectors.toList()),
+                    deniedDomains, allowedDomains);
+            if (!(result instanceof Map)) {
+                return Optional.empty();
+            }
+
+            Map<?, ?> resultMap = (Map<?, ?>) result;
+            return Optional.of(new PageResources(toLong(resultMap.get("loadedRequests")),
+                    toLong(resultMap.get("loadedBytes")), toLong(resultMap.get("blockedRequests"))));
+        } catch (WebDriverException e) {
+            LOGGER.debug("Could not measure the resources of {}: {}", driver.getCurrentUrl(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ResourceFilter)) {
+            return false;
+        }
+        ResourceFilter that = (ResourceFilter) other;
+        return blockedTypes.equals(that.blockedTypes) && deniedDomains.equals(that.deniedDomains)
+                && allowedDomains.equals(that.allowedDomains);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(blockedTypes, deniedDomains, allowedDomains);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("blocked types %s, %d denied domains, allowed domains %s", blockedTypes, deniedDomains.size(), allowedDomains);
+    }
+
+    static boolean isKnownType(String typeName) {
+        return Arrays.stream(ResourceType.values()).anyMatch(type -> type.name().equalsIgnoreCase(typeName.trim()));
+    }
+
+    private static Set<ResourceType> parseTypes(Collection<String> typeNames) {
+        return typeNames.stream()
+                .map(typeName -> ResourceType.valueOf(typeName.trim().toUpperCase(Locale.ROOT)))
+                .collect(Collectors.toSet());
+    }
+
+    private static Set<String> normalizeDomains(Collection<String> domains) {
+        return domains.stream()
+                .map(domain -> domain.trim().toLowerCase(Locale.ROOT))
+                .filter(domain -> !domain.isEmpty())
+                .collect(ImmutableSortedSet.toImmutableSortedSet(String::compareTo));
+    }
+
+    private static String toJsArray(Set<String> domains) {
+        return domains.stream()
+                .map(domain -> "'" + domain.replace("\\", "\\\\").replace("'", "\\'") + "'")
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static List<String> splitSetting(String key) {
+        String value = BrowserCrawlerSettingsUtil.getSetting(key);
+        return value == null ? Collections.emptyList() : Splitter.on(',').trimResults().omitEmptyStrings().splitToList(value);
+    }
+
+    /**
+     * Requests a page made and left out, as seen from inside the page.
+     */
+    static class PageResources {
+        private final long loadedRequests;
+        private final long loadedBytes;
+        private final long blockedRequests;
+
+        PageResources(long loadedRequests, long loadedBytes, long blockedRequests) {
+            this.loadedRequests = loadedRequests;
+            this.loadedBytes = loadedBytes;
+            this.blockedRequests = blockedRequests;
+        }
+
+        long getLoadedRequests() {
+            return loadedRequests;
+        }
+
+        long getLoadedBytes() {
+            return loadedBytes;
+        }
+
+        long getBlockedRequests() {
+            return blockedRequests;
+        }
+    }
+
+    private static class DefaultHolder {
+        private static final ResourceFilter DEFAULT = new ResourceFilter(
+                parseTypes(splitSetting(CONFIG_FILE_BLOCKED_RESOURCE_TYPES)),
+                splitSetting(CONFIG_FILE_DENIED_DOMAINS),
+                splitSetting(CONFIG_FILE_ALLOWED_DOMAINS));
+    }
+}
@@ -0,0 +1,125 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.google.common.base.Preconditions;
+import me.mircea.licenta.core.parser.utils.HtmlUtil;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Collector;
+import org.jsoup.select.Evaluator;
+import org.jsoup.select.QueryParser;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * @author mircea
+ * Extraction shared by every crawler that walks shelves (multi product pages).
+ */
+class ShelfPageUtil {
+    private static final Evaluator PAGINATION_ACTIVE_ITEM = QueryParser.parse("ul[class*=pagination] > li[class*=active]");
+    private static final Evaluator ANCHOR_WITH_HREF = QueryParser.parse("a[href]");
+
+    private ShelfPageUtil() {
+    }
+
+    /**
+     * Find products with the generic heuristic: leaves among elements whose class looks like a product and
+     * that hold both an image and a link.
+     */
+    static List<String> getSingleProductPages(Document multiProductPage) {
+        return getUrls(ProductAnchorWalker.walk(multiProductPage).getProductLinks());
+    }
+
+    /**
+     * Find products with the selector learned for the domain, falling back to the generic heuristic (and
+     * learning from it) when there is none yet or it no longer matches anything.
+     */
+    static List<String> getSingleProductPages(Document multiProductPage, String domain) {
+        return getSingleProductPages(multiProductPage, domain, ProductSelectorCache.getInstance());
+    }
+
+    static List<String> getSingleProductPages(Document multiProductPage, String domain, ProductSelectorCache selectorCache) {
+        Optional<Evaluator> learnedSelector = selectorCache.get(domain);
+        if (learnedSelector.isPresent()) {
+            List<Element> links = new ArrayList<>();
+            for (Element product : Collector.collect(learnedSelector.get(), multiProductPage)) {
+                links.add(ProductAnchorWalker.isAnchorWithHref(product) ? product : Collector.findFirst(ANCHOR_WITH_HREF, product));
+            }
+            if (!links.isEmpty()) {
+                return getUrls(links);
+            }
+        }
+
+        ProductAnchorWalker walker = ProductAnchorWalker.walk(multiProductPage);
+        if (!selectorCache.learn(domain, multiProductPage, walker.getProducts())
+                && learnedSelector.isPresent() && !walker.getProducts().isEmpty()) {
+            selectorCache.forget(domain);
+        }
+        return getUrls(walker.getProductLinks());
+    }
+
+    static Document getDocumentStripped(String html, String baseUri) {
+        Preconditions.checkNotNull(html);
+        Document doc = Jsoup.parse(html, baseUri);
+        return HtmlUtil.sanitizeHtml(doc);
+    }
+
+    /**
+     * Static counterpart of BrowserCrawler's pagination xpath: the first enabled item after the active one.
+     * @return Absolute url of the next shelf, or empty if there is none or it can only be reached with scripts.
+     */
+    static Optional<String> getNextPageUrl(Document multiProductPage) {
+        Element nextItem = findNextPageItem(multiProductPage);
+        return nextItem != null ? getPlainLink(nextItem) : Optional.empty();
+    }
+
+    /**
+     * @return Decision if there is a next shelf that plain http cannot follow, e.g. one behind a
+     * {@code javascript:} or {@code #} href or a control that is not a link at all.
+     */
+    static boolean hasScriptedNextPage(Document multiProductPage) {
+        Element nextItem = findNextPageItem(multiProductPage);
+        return nextItem != null && !getPlainLink(nextItem).isPresent();
+    }
+
+    private static Element findNextPageItem(Document multiProductPage) {
+        Element activeItem = Collector.findFirst(PAGINATION_ACTIVE_ITEM, multiProductPage);
+        if (activeItem == null) {
+            return null;
+        }
+
+        Element nextItem = activeItem.nextElementSibling();
+        while (nextItem != null && (!"li".equals(nextItem.tagName()) || nextItem.className().contains("disabled"))) {
+            nextItem = nextItem.nextElementSibling();
+        }
+        return nextItem;
+    }
+
+    private static Optional<String> getPlainLink(Element pageItem) {
+        for (Element child : pageItem.children()) {
+            if ("a".equals(child.tagName())) {
+                String href = child.attr("href").trim();
+                if (href.isEmpty() || href.startsWith("#") || href.startsWith("javascript:")) {
+                    return Optional.empty();
+                }
+                return Optional.of(child.absUrl("href"));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Products without any link that has a href are left out.
+     */
+    private static List<String> getUrls(List<Element> links) {
+        List<String> urls = new ArrayList<>(links.size());
+        for (Element link : links) {
+            if (link != null) {
+                urls.add(link.absUrl("href"));
+            }
+        }
+        return urls;
+    }
+}
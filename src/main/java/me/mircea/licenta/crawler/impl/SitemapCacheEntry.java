@@ -0,0 +1,71 @@
+package me.mircea.licenta.crawler.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What was known about a sitemap the last time it was parsed successfully.
+ * @author mircea
+ */
+class SitemapCacheEntry {
+    private String etag;
+    private String lastModified;
+    private String contentHash;
+    private String indexLastModified;
+    private List<String> children = new ArrayList<>();
+
+    /**
+     * @return The ETag header of the last response.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    /**
+     * @return The Last-Modified header of the last response.
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return Hex SHA-256 of the response body.
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return The {@code <lastmod>} the parent index advertised for this sitemap.
+     */
+    public String getIndexLastModified() {
+        return indexLastModified;
+    }
+
+    public void setIndexLastModified(String indexLastModified) {
+        this.indexLastModified = indexLastModified;
+    }
+
+    /**
+     * @return Sitemaps linked from this one if it is an index, so they can still be visited when it is skipped.
+     */
+    public List<String> getChildren() {
+        return children;
+    }
+
+    public void setChildren(List<String> children) {
+        this.children = children;
+    }
+}
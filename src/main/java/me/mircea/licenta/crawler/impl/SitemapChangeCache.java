@@ -0,0 +1,72 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the validators and content hash of every sitemap of a domain between jobs, so that
+ * unchanged sitemaps are neither downloaded nor parsed again.
+ * The cache lives in a json file per domain, since the crawl database model belongs to core.
+ * @author mircea
+ */
+class SitemapChangeCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SitemapChangeCache.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, SitemapCacheEntry>> ENTRIES_TYPE = new TypeReference<Map<String, SitemapCacheEntry>>() {};
+
+    private final Path file;
+    private final ConcurrentMap<String, SitemapCacheEntry> entries;
+
+    private SitemapChangeCache(Path file, Map<String, SitemapCacheEntry> entries) {
+        this.file = file;
+        this.entries = new ConcurrentHashMap<>(entries);
+    }
+
+    /**
+     * @return The cache of domain, or an empty one if it was never saved or cannot be read.
+     */
+    static SitemapChangeCache load(Path directory, String domain) {
+        Path file = directory.resolve(domain.replaceAll("[^A-Za-z0-9.-]", "_") + ".json");
+        if (Files.isReadable(file)) {
+            try {
+                return new SitemapChangeCache(file, MAPPER.readValue(file.toFile(), ENTRIES_TYPE));
+            } catch (IOException e) {
+                LOGGER.warn("Could not read sitemap cache {}, starting from scratch: {}", file, e.getMessage());
+            }
+        }
+        return new SitemapChangeCache(file, new ConcurrentHashMap<>());
+    }
+
+    Optional<SitemapCacheEntry> get(String sitemapUrl) {
+        return Optional.ofNullable(entries.get(sitemapUrl));
+    }
+
+    void put(String sitemapUrl, SitemapCacheEntry entry) {
+        entries.put(sitemapUrl, entry);
+    }
+
+    /**
+     * Write the cache to a temporary file first, so a crash never leaves a truncated cache behind.
+     */
+    void save() {
+        try {
+            Files.createDirectories(file.getParent());
+            Path temporaryFile = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            MAPPER.writeValue(temporaryFile.toFile(), entries);
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn("Could not save sitemap cache {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -1,26 +1,64 @@
 package me.mircea.licenta.crawler.impl;
 
-import crawlercommons.sitemaps.*;
-import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
-import me.mircea.licenta.core.crawl.db.RobotDefaults;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import crawlercommons.sitemaps.UnknownFormatException;
 import me.mircea.licenta.core.crawl.db.model.Job;
 import me.mircea.licenta.core.crawl.db.model.Page;
 import me.mircea.licenta.crawler.Crawler;
-import org.apache.commons.io.IOUtils;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import me.mircea.licenta.crawler.checkpoint.CrawlCheckpoint;
+import me.mircea.licenta.crawler.fetch.AsyncHttpFetcher;
+import me.mircea.licenta.crawler.fetch.FetchResponse;
+import me.mircea.licenta.crawler.fetch.Fetcher;
+import me.mircea.licenta.crawler.fetch.HostThrottle;
+import me.mircea.licenta.crawler.fetch.MeteredFetcher;
+import me.mircea.licenta.crawler.fetch.ThrottledFetcher;
+import me.mircea.licenta.crawler.fetch.UrlConnectionFetcher;
+import me.mircea.licenta.crawler.persistence.PageWriter;
+import me.mircea.licenta.crawler.scheduler.CrawlThreads;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.Instant;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Queue;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -29,111 +67,382 @@ import java.util.zip.GZIPInputStream;
  */
 public class SitemapSaxCrawler extends Crawler {
     private static final Logger LOGGER = LoggerFactory.getLogger(SitemapSaxCrawler.class);
-    private static final int HTTP_CONNECT_TIMEOUT_IN_MILLISECONDS = 50_000;
-    private static final int HTTP_READ_TIMEOUT_IN_MILLISECONDS = 50_000;
+    private static final int GZIP_MAGIC_LENGTH = 2;
+    static final SAXParserFactory SAX_PARSER_FACTORY = createSaxParserFactory();
+
+    private static final String CONFIG_FILE_FETCH_THREADS_PER_JOB = "sitemap_fetch_threads_per_job";
+    private static final String CONFIG_FILE_CACHE_DIRECTORY = "sitemap_cache_directory";
+    private static final String CONFIG_FILE_FETCHER = "sitemap_fetcher";
+    private static final String BLOCKING_FETCHER = "blocking";
+
+    private static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+
+    private final Fetcher fetcher;
+    private final ExecutorService fetchExecutor;
+    private final SitemapChangeCache changeCache;
+    /**
+     * Entries of the sitemaps read by this job, kept out of the cache until the pages read from them are written,
+     * since a cached entry has the next job skip the sitemap.
+     */
+    private final Map<String, SitemapCacheEntry> freshEntries = new ConcurrentHashMap<>();
+    private final Set<String> visitedSitemaps = ConcurrentHashMap.newKeySet();
+    /**
+     * Sitemaps queued or being parsed, with the lastmod their index advertised, and the ones done with.
+     * A sitemap is only marked finished after its urls were queued for writing.
+     */
+    private final Map<String, Optional<String>> unfinishedSitemaps = new ConcurrentHashMap<>();
+    private final Set<String> finishedSitemaps = ConcurrentHashMap.newKeySet();
+    /**
+     * Set once the job is interrupted, after which sitemaps cut short may look done and are left unfinished.
+     */
+    private volatile boolean interrupted = false;
+    private final AtomicInteger pendingSitemaps = new AtomicInteger();
+    private final CountDownLatch sitemapsExhausted = new CountDownLatch(1);
+    private final AtomicInteger parsedSitemaps = new AtomicInteger();
+    private final AtomicInteger unchangedSitemaps = new AtomicInteger();
+    private final AtomicLong discoveredUrls = new AtomicLong();
 
     public SitemapSaxCrawler(Job job) {
         super(job);
+
+        this.fetchExecutor = CrawlThreads.newExecutor("sitemap-" + job.getDomain() + "-%d",
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_FETCH_THREADS_PER_JOB)));
+        Fetcher baseFetcher = BLOCKING_FETCHER.equals(CrawlerSettingsUtil.getSetting(CONFIG_FILE_FETCHER))
+                ? new UrlConnectionFetcher() : AsyncHttpFetcher.getShared();
+        this.fetcher = new ThrottledFetcher(new MeteredFetcher(baseFetcher, metrics), HostThrottle.getShared(), fetchExecutor);
+        this.changeCache = SitemapChangeCache.load(Paths.get(CrawlerSettingsUtil.getSetting(CONFIG_FILE_CACHE_DIRECTORY)), job.getDomain());
     }
 
     @Override
     public void run() {
         startCrawlJob();
+        parseSitemaps();
+        finishCrawlJob();
+    }
+
+    @Override
+    protected void onCompleted() {
+        freshEntries.forEach(changeCache::put);
+        changeCache.save();
+    }
+
+    /**
+     * Fetch the sitemaps from robots.txt in parallel. Children of an index are queued as soon as they are
+     * read, so expanding an index overlaps with parsing the sitemaps it links to.
+     * A resumed job skips the sitemaps it finished and queues the ones it had not, children included.
+     */
+    private void parseSitemaps() {
+        Instant start = Instant.now();
+
+        // Guard party so the job cannot be considered done before all roots are queued
+        pendingSitemaps.incrementAndGet();
+        Optional<CrawlCheckpoint> checkpoint = restoreCheckpoint();
+        checkpoint.ifPresent(savedCheckpoint -> {
+            visitedSitemaps.addAll(savedCheckpoint.getFinishedSitemaps());
+            finishedSitemaps.addAll(savedCheckpoint.getFinishedSitemaps());
+            savedCheckpoint.getPendingSitemaps().forEach(this::submitSitemap);
+        });
+        getRobotRules().getSitemaps().forEach(sitemapUrl -> submitSitemap(sitemapUrl, null));
+        onSitemapDone();
+
         try {
-            parseSitemaps();
+            while (!sitemapsExhausted.await(1, TimeUnit.SECONDS)) {
+                checkpointIfDue();
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
+            LOGGER.warn("Interrupted while waiting for the sitemaps of {}", job.getDomain());
+            Thread.currentThread().interrupt();
+        } finally {
+            fetchExecutor.shutdownNow();
+        }
+
+        double elapsedSeconds = Math.max(Duration.between(start, Instant.now()).toMillis(), 1) / 1000.0;
+        LOGGER.info("Finished parsing sitemaps on {}: {} sitemaps ({} unchanged) and {} urls in {} s ({} sitemaps/s, {} urls/s)",
+                job.getDomain(), parsedSitemaps.get(), unchangedSitemaps.get(), discoveredUrls.get(), String.format("%.1f", elapsedSeconds),
+                String.format("%.2f", parsedSitemaps.get() / elapsedSeconds),
+                String.format("%.1f", discoveredUrls.get() / elapsedSeconds));
+    }
+
+    /**
+     * @param indexLastModified The lastmod the parent index advertised for this sitemap, or null.
+     */
+    private void submitSitemap(String sitemapUrl, String indexLastModified) {
+        if (cancellation.isCancelled() || !visitedSitemaps.add(sitemapUrl)) {
+            return;
+        }
+
+        pendingSitemaps.incrementAndGet();
+        unfinishedSitemaps.put(sitemapUrl, Optional.ofNullable(indexLastModified));
+        try {
+            fetchExecutor.execute(() -> fetchSitemap(sitemapUrl, indexLastModified)
+                    .whenComplete((ignored, e) -> {
+                        if (!interrupted) {
+                            finishedSitemaps.add(sitemapUrl);
+                            unfinishedSitemaps.remove(sitemapUrl);
+                        }
+                        onSitemapDone();
+                    }));
+        } catch (RejectedExecutionException e) {
+            // Left unfinished, so a resumed job picks it up
+            LOGGER.warn("Dropped sitemap {} because the job is shutting down", sitemapUrl);
+            onSitemapDone();
+        }
+    }
+
+    /**
+     * Unfinished sitemaps are copied before finished ones: one finishing in between shows up in both and
+     * counts as finished, while a child queued in between is found again from its parent, still unfinished.
+     */
+    @Override
+    protected CrawlCheckpoint createCheckpoint() {
+        CrawlCheckpoint checkpoint = newCheckpoint();
+        Map<String, String> pending = new LinkedHashMap<>();
+        unfinishedSitemaps.forEach((sitemapUrl, indexLastModified) -> pending.put(sitemapUrl, indexLastModified.orElse(null)));
+        checkpoint.setFinishedSitemaps(new ArrayList<>(finishedSitemaps));
+        pending.keySet().removeAll(checkpoint.getFinishedSitemaps());
+        checkpoint.setPendingSitemaps(pending);
+        return checkpoint;
+    }
+
+    private void onSitemapDone() {
+        if (pendingSitemaps.decrementAndGet() == 0) {
+            sitemapsExhausted.countDown();
+        }
+    }
+
+    /**
+     * Start fetching a sitemap. The calling thread is given back while waiting for the host throttle and,
+     * with a non-blocking fetcher, for the network. The body is parsed on the job's pool once the
+     * response headers are in.
+     * @return A future that completes once the sitemap and everything read from it has been handled.
+     */
+    private CompletableFuture<Void> fetchSitemap(String sitemapUrl, String indexLastModified) {
+        Optional<SitemapCacheEntry> cachedEntry = changeCache.get(sitemapUrl);
+        if (indexLastModified != null && cachedEntry.isPresent() && indexLastModified.equals(cachedEntry.get().getIndexLastModified())) {
+            LOGGER.debug("Skipping {} since its lastmod in the index did not change", sitemapUrl);
+            skipUnchangedSitemap(cachedEntry.get());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        URL url;
+        try {
+            url = new URL(sitemapUrl);
+        } catch (MalformedURLException e) {
+            LOGGER.info("Could not handle a connection: {}", e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Optional<FetchResponse>> futureResponse = fetcher.fetch(url, getConditionalHeaders(cachedEntry));
+        return futureResponse
+                .thenAcceptAsync(possibleResponse -> possibleResponse.ifPresent(response ->
+                        handleResponse(sitemapUrl, indexLastModified, cachedEntry, response)), fetchExecutor)
+                .whenComplete((ignored, e) -> {
+                    // A response left unhandled, e.g. because the job is shutting down, still holds its host permit
+                    if (e != null) {
+                        futureResponse.thenAccept(possibleResponse -> possibleResponse.ifPresent(SitemapSaxCrawler::closeQuietly));
+                    }
+                })
+                .exceptionally(e -> {
+                    LOGGER.info("Could not handle a connection: {}", e.getMessage());
+                    return null;
+                });
+    }
+
+    private static void closeQuietly(FetchResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close the response of {}: {}", response.getUrl(), e.getMessage());
+        }
+    }
+
+    /**
+     * The validators of a cached entry are sent along, so an unchanged sitemap comes back as a bodiless 304.
+     */
+    private Map<String, String> getConditionalHeaders(Optional<SitemapCacheEntry> cachedEntry) {
+        Map<String, String> headers = new HashMap<>();
+        if (cachedEntry.isPresent()) {
+            if (cachedEntry.get().getEtag() != null) {
+                headers.put("If-None-Match", cachedEntry.get().getEtag());
+            }
+            if (cachedEntry.get().getLastModified() != null) {
+                headers.put("If-Modified-Since", cachedEntry.get().getLastModified());
+            }
+        }
+        return headers;
+    }
+
+    private void handleResponse(String sitemapUrl, String indexLastModified, Optional<SitemapCacheEntry> cachedEntry, FetchResponse response) {
+        try {
+            if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && cachedEntry.isPresent()) {
+                LOGGER.debug("Skipping {} since the server reported it as not modified", sitemapUrl);
+                skipUnchangedSitemap(cachedEntry.get());
+                return;
+            }
+            if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                LOGGER.info("Could not fetch sitemap {}: http status {}", sitemapUrl, response.getStatus());
+                return;
+            }
+
+            SitemapCacheEntry freshEntry = new SitemapCacheEntry();
+            freshEntry.setEtag(response.getHeader("ETag"));
+            freshEntry.setLastModified(response.getHeader("Last-Modified"));
+            freshEntry.setIndexLastModified(indexLastModified);
+            readSitemap(response, cachedEntry, freshEntry);
+            freshEntries.put(sitemapUrl, freshEntry);
         } catch (IOException e) {
             LOGGER.info("Could not handle a connection: {}", e.getMessage());
         } catch (UnknownFormatException e) {
             LOGGER.info("Could not parse a sitemap: {}", e.getMessage());
+        } finally {
+            closeQuietly(response);
         }
-        finishCrawlJob();
     }
 
-    private void parseSitemaps() throws IOException, UnknownFormatException {
-        Queue<String> siteMapQueue = new LinkedList<>(job.getRobotRules().getSitemaps());
+    /**
+     * Hash the body while reading it. When the sitemap was seen before, the body is spooled to disk first so that
+     * an identical copy is not parsed again, even if it came with validators: servers that send a fresh ETag or
+     * Last-Modified with every response answer a conditional GET with the same content in full.
+     */
+    private void readSitemap(FetchResponse response, Optional<SitemapCacheEntry> cachedEntry,
+                             SitemapCacheEntry freshEntry) throws IOException, UnknownFormatException {
+        MessageDigest digest = newContentDigest();
+        Optional<String> cachedHash = cachedEntry.map(SitemapCacheEntry::getContentHash);
 
-        while (!siteMapQueue.isEmpty()) {
-            URL queueFrontUrl = new URL(siteMapQueue.poll());
+        try (InputStream rawStream = new DigestInputStream(response.getBody(), digest)) {
+            if (cachedHash.isPresent()) {
+                Path spoolFile = Files.createTempFile("sitemap", ".tmp");
+                try {
+                    Files.copy(rawStream, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+                    freshEntry.setContentHash(BaseEncoding.base16().lowerCase().encode(digest.digest()));
 
-            Optional<HttpURLConnection> possibleConnection = followPossibleRedirects(queueFrontUrl);
-            if (possibleConnection.isPresent()) {
-                HttpURLConnection connection = possibleConnection.get();
+                    if (cachedHash.get().equals(freshEntry.getContentHash())) {
+                        LOGGER.debug("Skipping {} since its content did not change", response.getUrl());
+                        freshEntry.setChildren(cachedEntry.get().getChildren());
+                        skipUnchangedSitemap(cachedEntry.get());
+                        return;
+                    }
 
-                InputStream inputStream = connection.getInputStream();
-                if ("gzip".equals(connection.getContentEncoding()) || "x-gzip".equals(connection.getContentEncoding())
-                        || "application/gzip".equals(connection.getContentType()) || "application/x-gzip".equals(connection.getContentType())) {
-                    inputStream = new GZIPInputStream(inputStream);
-                }
-                byte[] content = IOUtils.toByteArray(inputStream);
-
-                SiteMapParser siteMapParser = new SiteMapParser(false);
-                AbstractSiteMap sitemap = siteMapParser.parseSiteMap(content, connection.getURL());
-
-                if (sitemap.isIndex()) {
-                    List<String> indexedSiteMaps = ((SiteMapIndex) sitemap).getSitemaps()
-                            .stream()
-                            .map(sitemapUrl -> sitemapUrl.getUrl().toString())
-                            .collect(Collectors.toList());
-                    siteMapQueue.addAll(indexedSiteMaps);
-                } else {
-                    SiteMap concreteSiteMap = ((SiteMap) sitemap);
-
-                    List<Page> pagesToBeUpserted = concreteSiteMap.getSiteMapUrls().stream()
-                            .map(link -> new Page(link.getUrl().toString(), "sitemap", Instant.now()))
-                            .collect(Collectors.toList());
-
-                    LOGGER.info("Discovered {} urls about to be upserted", concreteSiteMap.getSiteMapUrls().size());
-                    CrawlDatabaseManager.instance.upsertManyPages(pagesToBeUpserted);
+                    try (InputStream spooledStream = Files.newInputStream(spoolFile)) {
+                        parseSitemap(spooledStream, response, freshEntry);
+                    }
+                } finally {
+                    Files.deleteIfExists(spoolFile);
                 }
+            } else {
+                // The xml parser closes its input, but the hash needs whatever it left unread
+                parseSitemap(new CloseShieldInputStream(rawStream), response, freshEntry);
+                ByteStreams.exhaust(rawStream);
+                freshEntry.setContentHash(BaseEncoding.base16().lowerCase().encode(digest.digest()));
             }
         }
-        LOGGER.info("Finished parsing sitemaps on {}", job.getDomain());
+    }
+
+    private void parseSitemap(InputStream rawStream, FetchResponse response, SitemapCacheEntry freshEntry) throws IOException, UnknownFormatException {
+        InputStream inputStream = decompressIfGzipped(rawStream);
+        SitemapPageWriter pageWriter = new SitemapPageWriter();
+        streamSitemap(inputStream, response.getContentType(), pageWriter, (childUrl, childLastModified) -> {
+            freshEntry.getChildren().add(childUrl);
+            submitSitemap(childUrl, childLastModified);
+        });
+
+        parsedSitemaps.incrementAndGet();
+        discoveredUrls.addAndGet(pageWriter.getWrittenCount());
+        LOGGER.info("Queued {} urls discovered on {} for writing", pageWriter.getWrittenCount(), response.getUrl());
+    }
+
+    /**
+     * An unchanged index still has to be walked, since its children may have changed on their own.
+     */
+    private void skipUnchangedSitemap(SitemapCacheEntry cachedEntry) {
+        unchangedSitemaps.incrementAndGet();
+        for (String childUrl : cachedEntry.getChildren()) {
+            submitSitemap(childUrl, changeCache.get(childUrl).map(SitemapCacheEntry::getIndexLastModified).orElse(null));
+        }
+    }
+
+    private static MessageDigest newContentDigest() {
+        try {
+            return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(CONTENT_HASH_ALGORITHM + " is mandatory on every JVM", e);
+        }
     }
 
     /**
-     * Follow redirects if required.
+     * Read a sitemap entry by entry, handing urls out while the stream is still being downloaded.
+     * @param pageUrlConsumer Receives the urls of a concrete sitemap.
+     * @param sitemapUrlConsumer Receives the children of a sitemap index along with their lastmod.
      */
-    private Optional<HttpURLConnection> followPossibleRedirects(final URL originalUrl) throws IOException {
-        URL url = originalUrl;
-
-        HttpURLConnection connection;
-        boolean redirect;
-        int redirectCounter = 0;
-        final int MAX_REDIRECTS = 5;
-        do {
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(HTTP_CONNECT_TIMEOUT_IN_MILLISECONDS);
-            connection.setReadTimeout(HTTP_READ_TIMEOUT_IN_MILLISECONDS);
-            connection.setInstanceFollowRedirects(false);
-            connection.setRequestProperty("User-Agent", RobotDefaults.getDefault("user_agent"));
-            connection.connect();
-
-            int httpStatus = connection.getResponseCode();
-            redirect = shouldRedirect(httpStatus);
-
-            if (redirect) {
-                String location = URLDecoder.decode(connection.getHeaderField("Location"), "UTF-8");
-                url = new URL(url, location);
+    private void streamSitemap(InputStream inputStream, String contentType,
+                               Consumer<String> pageUrlConsumer, BiConsumer<String, String> sitemapUrlConsumer) throws IOException, UnknownFormatException {
+        if (contentType != null && contentType.startsWith("text/plain")) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    pageUrlConsumer.accept(line);
+                }
+            }
+        } else {
+            try {
+                SAX_PARSER_FACTORY.newSAXParser().parse(inputStream, new SitemapSaxHandler(pageUrlConsumer, sitemapUrlConsumer));
+            } catch (SAXException | ParserConfigurationException e) {
+                throw new UnknownFormatException(e.getMessage());
             }
+        }
+    }
 
-            ++redirectCounter;
-        } while (redirect && redirectCounter < MAX_REDIRECTS);
+    /**
+     * Sitemaps are often served gzipped without a matching header, so look at the magic bytes instead.
+     */
+    private InputStream decompressIfGzipped(InputStream inputStream) throws IOException {
+        InputStream bufferedStream = new BufferedInputStream(inputStream);
+        bufferedStream.mark(GZIP_MAGIC_LENGTH);
+        int firstByte = bufferedStream.read();
+        int secondByte = bufferedStream.read();
+        bufferedStream.reset();
 
-        if (redirectCounter >= MAX_REDIRECTS) {
-            LOGGER.warn("Redirects number exceeded maximum redirects on url {}", originalUrl);
-            return Optional.empty();
+        if (firstByte == (GZIPInputStream.GZIP_MAGIC & 0xff) && secondByte == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            return new GZIPInputStream(bufferedStream);
         }
+        return bufferedStream;
+    }
 
-        return Optional.of(connection);
+    private static SAXParserFactory createSaxParserFactory() {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+        } catch (ParserConfigurationException | SAXException e) {
+            LOGGER.warn("Could not harden the sitemap parser: {}", e.getMessage());
+        }
+        return factory;
     }
 
     /**
-     * @param httpStatus
-     * @return Decision if request should be retried.
+     * Turns sitemap urls not seen before in this job into pages and hands them to the shared writer, which batches them.
+     * Pages are counted one by one, so the page budget holds within a sitemap, and urls are dropped once the job stops.
      */
-    private boolean shouldRedirect(int httpStatus) {
-        return (httpStatus == HttpURLConnection.HTTP_MOVED_PERM)
-                || (httpStatus == HttpURLConnection.HTTP_MOVED_TEMP)
-                || (httpStatus == HttpURLConnection.HTTP_SEE_OTHER);
+    private class SitemapPageWriter implements Consumer<String> {
+        private int writtenCount = 0;
+
+        @Override
+        public void accept(String url) {
+            if (!shouldStop() && seenUrls.add(url)) {
+                PageWriter.getInstance().write(new Page(url, "sitemap", Instant.now()), getJobId());
+                metrics.addDiscoveredPages(1);
+                ++writtenCount;
+            }
+        }
+
+        int getWrittenCount() {
+            return writtenCount;
+        }
     }
 }
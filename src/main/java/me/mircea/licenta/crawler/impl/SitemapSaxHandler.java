@@ -0,0 +1,133 @@
+package me.mircea.licenta.crawler.impl;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * SAX handler that hands out every {@code <loc>} of a sitemap as soon as its entry is read,
+ * so no sitemap is ever materialized in memory.
+ * Only a {@code <loc>} or {@code <lastmod>} right under a {@code <url>} or {@code <sitemap>} counts, and only in the
+ * namespace of the root element, so extensions such as {@code <image:loc>} are not taken for pages.
+ * @author mircea
+ */
+class SitemapSaxHandler extends DefaultHandler {
+    private static final String URLSET_ELEMENT = "urlset";
+    private static final String SITEMAP_INDEX_ELEMENT = "sitemapindex";
+    private static final String SITEMAP_ELEMENT = "sitemap";
+    private static final String URL_ELEMENT = "url";
+    private static final String LOC_ELEMENT = "loc";
+    private static final String LASTMOD_ELEMENT = "lastmod";
+
+    private final Consumer<String> pageUrlConsumer;
+    private final BiConsumer<String, String> sitemapUrlConsumer;
+    private final StringBuilder text = new StringBuilder();
+    /**
+     * Names of the elements currently open, innermost first; elements of other namespaces are kept as empty names.
+     */
+    private final Deque<String> openElements = new ArrayDeque<>();
+
+    private String rootElement;
+    private String rootNamespace;
+    private boolean insideText;
+    private String currentLoc;
+    private String currentLastmod;
+
+    /**
+     * @param pageUrlConsumer Receives every url of a {@code <urlset>}.
+     * @param sitemapUrlConsumer Receives every child sitemap of a {@code <sitemapindex>} along with its
+     *                           {@code <lastmod>}, which is null when missing.
+     */
+    SitemapSaxHandler(Consumer<String> pageUrlConsumer, BiConsumer<String, String> sitemapUrlConsumer) {
+        this.pageUrlConsumer = pageUrlConsumer;
+        this.sitemapUrlConsumer = sitemapUrlConsumer;
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        String elementName = getElementName(localName, qName);
+        if (rootElement == null) {
+            if (!URLSET_ELEMENT.equals(elementName) && !SITEMAP_INDEX_ELEMENT.equals(elementName)) {
+                throw new SAXException("Unknown sitemap root element " + elementName);
+            }
+            rootElement = elementName;
+            rootNamespace = uri;
+            openElements.push(elementName);
+            return;
+        }
+
+        String ownElementName = getOwnElementName(uri, elementName);
+        String parentElementName = openElements.peek();
+        if (isEntryField(ownElementName) && getEntryElement().equals(parentElementName)) {
+            insideText = true;
+            text.setLength(0);
+        } else if (SITEMAP_ELEMENT.equals(ownElementName) && rootElement.equals(parentElementName)) {
+            currentLoc = null;
+            currentLastmod = null;
+        }
+        openElements.push(ownElementName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        if (insideText) {
+            text.append(ch, start, length);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        String ownElementName = openElements.pop();
+        String parentElementName = openElements.peek();
+        if (!isEntryField(ownElementName) || !getEntryElement().equals(parentElementName)) {
+            if (SITEMAP_ELEMENT.equals(ownElementName) && isIndex() && rootElement.equals(parentElementName) && currentLoc != null) {
+                sitemapUrlConsumer.accept(currentLoc, currentLastmod == null || currentLastmod.isEmpty() ? null : currentLastmod);
+            }
+            return;
+        }
+
+        insideText = false;
+        if (LASTMOD_ELEMENT.equals(ownElementName)) {
+            currentLastmod = text.toString().trim();
+            return;
+        }
+
+        String url = text.toString().trim();
+        if (url.isEmpty()) {
+            return;
+        }
+        if (isIndex()) {
+            currentLoc = url;
+        } else {
+            pageUrlConsumer.accept(url);
+        }
+    }
+
+    boolean isIndex() {
+        return SITEMAP_INDEX_ELEMENT.equals(rootElement);
+    }
+
+    /**
+     * @return The element that holds one entry: {@code <sitemap>} in an index and {@code <url>} otherwise.
+     */
+    private String getEntryElement() {
+        return isIndex() ? SITEMAP_ELEMENT : URL_ELEMENT;
+    }
+
+    private static boolean isEntryField(String elementName) {
+        return LOC_ELEMENT.equals(elementName) || LASTMOD_ELEMENT.equals(elementName);
+    }
+
+    private String getOwnElementName(String uri, String elementName) {
+        return rootNamespace.equals(uri) ? elementName : "";
+    }
+
+    private static String getElementName(String localName, String qName) {
+        return localName == null || localName.isEmpty() ? qName : localName;
+    }
+}
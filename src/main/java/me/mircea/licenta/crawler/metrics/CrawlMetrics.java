@@ -0,0 +1,111 @@
+package me.mircea.licenta.crawler.metrics;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author mircea
+ * Metrics of the jobs of this node, kept while they run and for a while after, along with totals per domain
+ * and crawler that live as long as the node, the way a scraper expects counters to behave.
+ */
+public class CrawlMetrics {
+    private static final String CONFIG_FILE_FINISHED_JOBS_RETAINED = "metrics_finished_jobs_retained";
+
+    private final int finishedJobsRetained;
+    /**
+     * Metrics of jobs by id, in the order they were registered.
+     */
+    private final Map<String, JobMetrics> jobs = new LinkedHashMap<>();
+    private final ConcurrentMap<String, JobMetrics> totals = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> jobRequests = new ConcurrentHashMap<>();
+
+    CrawlMetrics(int finishedJobsRetained) {
+        this.finishedJobsRetained = finishedJobsRetained;
+    }
+
+    public static CrawlMetrics getInstance() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    /**
+     * Metrics of a job that are neither listed nor added to any totals until the job is registered, since crawlers are
+     * also built without ever running, e.g. to probe a shop or for a job another node ends up taking.
+     * @param crawler Kind of crawler running the job, e.g. its simple class name.
+     */
+    public JobMetrics newJob(Job job, String crawler) {
+        return new JobMetrics(String.valueOf(job.getId()), job.getDomain(), crawler, null);
+    }
+
+    /**
+     * List a job that started, and add what it records from now on to the totals of its domain and crawler.
+     * What it recorded before, e.g. the fetch of a probe, stays with the job.
+     */
+    public void register(JobMetrics jobMetrics) {
+        String domain = jobMetrics.getDomain();
+        String crawler = jobMetrics.getCrawler();
+        jobMetrics.setTotals(totals.computeIfAbsent(domain + " " + crawler, key -> new JobMetrics(null, domain, crawler, null)));
+
+        synchronized (jobs) {
+            jobs.put(jobMetrics.getJobId(), jobMetrics);
+            evictFinishedJobs();
+        }
+    }
+
+    public Optional<JobMetrics> getJob(String jobId) {
+        synchronized (jobs) {
+            return Optional.ofNullable(jobs.get(jobId));
+        }
+    }
+
+    public List<JobMetrics> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    public List<JobMetrics> getTotals() {
+        return new ArrayList<>(totals.values());
+    }
+
+    /**
+     * @param outcome What came of a request to create a job, e.g. queued or rejected.
+     */
+    public void recordJobRequest(String outcome) {
+        jobRequests.computeIfAbsent(outcome, key -> new LongAdder()).increment();
+    }
+
+    public Map<String, Long> getJobRequests() {
+        Map<String, Long> requests = new LinkedHashMap<>();
+        jobRequests.forEach((outcome, count) -> requests.put(outcome, count.sum()));
+        return requests;
+    }
+
+    /**
+     * Forget the oldest finished jobs beyond the ones retained. Unfinished ones are never forgotten.
+     */
+    private void evictFinishedJobs() {
+        long finishedJobs = jobs.values().stream().filter(JobMetrics::isFinished).count();
+        Iterator<JobMetrics> iterator = jobs.values().iterator();
+        while (finishedJobs > finishedJobsRetained && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                --finishedJobs;
+            }
+        }
+    }
+
+    private static class SharedInstanceHolder {
+        private static final CrawlMetrics INSTANCE = new CrawlMetrics(
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_FINISHED_JOBS_RETAINED)));
+    }
+}
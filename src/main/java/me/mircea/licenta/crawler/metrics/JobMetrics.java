@@ -0,0 +1,236 @@
+package me.mircea.licenta.crawler.metrics;
+
+import me.mircea.licenta.crawler.StopReason;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author mircea
+ * Counters and histograms of a single job, cheap enough to be updated on every fetch. Every value recorded
+ * is also added to the totals of the job's domain and crawler, which outlive the job.
+ */
+public class JobMetrics {
+    private final String jobId;
+    private final String domain;
+    private final String crawler;
+    private volatile JobMetrics totals;
+
+    private final LatencyHistogram fetchLatencyHistogram = new LatencyHistogram();
+    private final LatencyHistogram browserWaitHistogram = new LatencyHistogram();
+    private final LongAdder fetches = new LongAdder();
+    private final LongAdder fetchErrors = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder redirects = new LongAdder();
+    private final LongAdder bytesDownloaded = new LongAdder();
+    private final LongAdder discoveredPages = new LongAdder();
+    private final LongAdder loadedResources = new LongAdder();
+    private final LongAdder loadedResourceBytes = new LongAdder();
+    private final LongAdder blockedResources = new LongAdder();
+    private volatile long startedAtMillis = 0;
+    private volatile long finishedAtMillis = 0;
+    private volatile StopReason stopReason;
+
+    /**
+     * @param totals Metrics of the domain and crawler of the job, or null for those totals themselves.
+     */
+    JobMetrics(String jobId, String domain, String crawler, JobMetrics totals) {
+        this.jobId = jobId;
+        this.domain = domain;
+        this.crawler = crawler;
+        this.totals = totals;
+    }
+
+    /**
+     * Add what the job records from now on to totals too.
+     */
+    void setTotals(JobMetrics totals) {
+        this.totals = totals;
+    }
+
+    public void markStarted() {
+        startedAtMillis = System.currentTimeMillis();
+    }
+
+    public void markFinished() {
+        finishedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Record why the job stopped before crawling everything it found.
+     */
+    public void markStopped(StopReason reason) {
+        stopReason = reason;
+    }
+
+    /**
+     * @param latencyInMillis Time until the response headers came in.
+     * @param redirected Whether the response came from another url than the one requested.
+     */
+    public void recordFetch(long latencyInMillis, boolean redirected) {
+        fetchLatencyHistogram.record(latencyInMillis);
+        fetches.increment();
+        if (redirected) {
+            redirects.increment();
+        }
+        if (totals != null) {
+            totals.recordFetch(latencyInMillis, redirected);
+        }
+    }
+
+    /**
+     * Count a failed fetch, and a timeout too if that is what it failed with.
+     */
+    public void recordFetchError(Throwable error) {
+        fetchErrors.increment();
+        if (isTimeout(error)) {
+            timeouts.increment();
+        }
+        if (totals != null) {
+            totals.recordFetchError(error);
+        }
+    }
+
+    public void recordTimeout() {
+        timeouts.increment();
+        if (totals != null) {
+            totals.recordTimeout();
+        }
+    }
+
+    public void recordBrowserWait(long waitInMillis) {
+        browserWaitHistogram.record(waitInMillis);
+        if (totals != null) {
+            totals.recordBrowserWait(waitInMillis);
+        }
+    }
+
+    public void addBytesDownloaded(long bytes) {
+        bytesDownloaded.add(bytes);
+        if (totals != null) {
+            totals.addBytesDownloaded(bytes);
+        }
+    }
+
+    /**
+     * @param pages Pages handed over for writing.
+     */
+    public void addDiscoveredPages(long pages) {
+        discoveredPages.add(pages);
+        if (totals != null) {
+            totals.addDiscoveredPages(pages);
+        }
+    }
+
+    /**
+     * @param loaded Requests a browser page made.
+     * @param loadedBytes Bytes of those requests, as far as the page may know them.
+     * @param blocked Resources of the page the browser did not request.
+     */
+    public void recordPageResources(long loaded, long loadedBytes, long blocked) {
+        loadedResources.add(loaded);
+        loadedResourceBytes.add(loadedBytes);
+        blockedResources.add(blocked);
+        if (totals != null) {
+            totals.recordPageResources(loaded, loadedBytes, blocked);
+        }
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public String getCrawler() {
+        return crawler;
+    }
+
+    public boolean isRunning() {
+        return startedAtMillis != 0 && finishedAtMillis == 0;
+    }
+
+    public boolean isFinished() {
+        return finishedAtMillis != 0;
+    }
+
+    public LatencyHistogram getFetchLatencyHistogram() {
+        return fetchLatencyHistogram;
+    }
+
+    public LatencyHistogram getBrowserWaitHistogram() {
+        return browserWaitHistogram;
+    }
+
+    public long getFetches() {
+        return fetches.sum();
+    }
+
+    public long getFetchErrors() {
+        return fetchErrors.sum();
+    }
+
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    public long getRedirects() {
+        return redirects.sum();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded.sum();
+    }
+
+    public long getDiscoveredPages() {
+        return discoveredPages.sum();
+    }
+
+    public long getLoadedResources() {
+        return loadedResources.sum();
+    }
+
+    public long getLoadedResourceBytes() {
+        return loadedResourceBytes.sum();
+    }
+
+    public long getBlockedResources() {
+        return blockedResources.sum();
+    }
+
+    /**
+     * @return Pages discovered per second since the job started, up to its end if it finished.
+     */
+    public double getPagesPerSecond() {
+        long end = finishedAtMillis != 0 ? finishedAtMillis : System.currentTimeMillis();
+        if (startedAtMillis == 0 || end <= startedAtMillis) {
+            return 0;
+        }
+        return getDiscoveredPages() * 1000.0 / (end - startedAtMillis);
+    }
+
+    public JobMetricsSummary getSummary() {
+        long fetchCount = fetchLatencyHistogram.getCount();
+        long waitCount = browserWaitHistogram.getCount();
+        return new JobMetricsSummary(crawler, startedAtMillis, finishedAtMillis, getDiscoveredPages(), getPagesPerSecond(),
+                getFetches(), getFetchErrors(), getTimeouts(), getRedirects(), getBytesDownloaded(),
+                fetchCount == 0 ? 0 : fetchLatencyHistogram.getSumInMillis() / fetchCount,
+                fetchLatencyHistogram.getQuantileInMillis(0.99),
+                browserWaitHistogram.getSumInMillis(),
+                waitCount == 0 ? 0 : browserWaitHistogram.getSumInMillis() / waitCount,
+                browserWaitHistogram.getQuantileInMillis(0.99),
+                getLoadedResources(), getLoadedResourceBytes(), getBlockedResources(), stopReason);
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TimeoutException || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
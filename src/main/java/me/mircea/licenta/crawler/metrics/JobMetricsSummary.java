@@ -0,0 +1,161 @@
+package me.mircea.licenta.crawler.metrics;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import me.mircea.licenta.crawler.StopReason;
+
+/**
+ * @author mircea
+ * Snapshot of the {@link JobMetrics} of a job, returned along with the job.
+ * Fetches only count plain http requests, browser jobs spend their time in page waits instead.
+ */
+public class JobMetricsSummary {
+    private final String crawler;
+    private final long startedAtMillis;
+    private final long finishedAtMillis;
+    private final long discoveredPages;
+    private final double pagesPerSecond;
+    private final long fetches;
+    private final long fetchErrors;
+    private final long timeouts;
+    private final long redirects;
+    private final long bytesDownloaded;
+    private final long averageFetchLatencyInMillis;
+    private final long p99FetchLatencyInMillis;
+    private final long browserWaitTimeInMillis;
+    private final long averageBrowserWaitInMillis;
+    private final long p99BrowserWaitInMillis;
+    private final long loadedResources;
+    private final long loadedResourceBytes;
+    private final long blockedResources;
+    private final StopReason stopReason;
+
+    JobMetricsSummary(String crawler, long startedAtMillis, long finishedAtMillis, long discoveredPages, double pagesPerSecond,
+                      long fetches, long fetchErrors, long timeouts, long redirects, long bytesDownloaded,
+                      long averageFetchLatencyInMillis, long p99FetchLatencyInMillis, long browserWaitTimeInMillis,
+                      long averageBrowserWaitInMillis, long p99BrowserWaitInMillis, long loadedResources, long loadedResourceBytes,
+                      long blockedResources, StopReason stopReason) {
+        this.crawler = crawler;
+        this.startedAtMillis = startedAtMillis;
+        this.finishedAtMillis = finishedAtMillis;
+        this.discoveredPages = discoveredPages;
+        this.pagesPerSecond = pagesPerSecond;
+        this.fetches = fetches;
+        this.fetchErrors = fetchErrors;
+        this.timeouts = timeouts;
+        this.redirects = redirects;
+        this.bytesDownloaded = bytesDownloaded;
+        this.averageFetchLatencyInMillis = averageFetchLatencyInMillis;
+        this.p99FetchLatencyInMillis = p99FetchLatencyInMillis;
+        this.browserWaitTimeInMillis = browserWaitTimeInMillis;
+        this.averageBrowserWaitInMillis = averageBrowserWaitInMillis;
+        this.p99BrowserWaitInMillis = p99BrowserWaitInMillis;
+        this.loadedResources = loadedResources;
+        this.loadedResourceBytes = loadedResourceBytes;
+        this.blockedResources = blockedResources;
+        this.stopReason = stopReason;
+    }
+
+    public String getCrawler() {
+        return crawler;
+    }
+
+    /**
+     * @return Epoch milliseconds the crawler started, or 0 while the job is queued.
+     */
+    public long getStartedAtMillis() {
+        return startedAtMillis;
+    }
+
+    /**
+     * @return Epoch milliseconds the crawler stopped, or 0 while it runs.
+     */
+    public long getFinishedAtMillis() {
+        return finishedAtMillis;
+    }
+
+    /**
+     * @return Pages handed over for writing, duplicates left out.
+     */
+    public long getDiscoveredPages() {
+        return discoveredPages;
+    }
+
+    public double getPagesPerSecond() {
+        return pagesPerSecond;
+    }
+
+    public long getFetches() {
+        return fetches;
+    }
+
+    public long getFetchErrors() {
+        return fetchErrors;
+    }
+
+    /**
+     * @return Fetches and browser waits that timed out.
+     */
+    public long getTimeouts() {
+        return timeouts;
+    }
+
+    public long getRedirects() {
+        return redirects;
+    }
+
+    public long getBytesDownloaded() {
+        return bytesDownloaded;
+    }
+
+    /**
+     * @return Average time until the response headers came in.
+     */
+    public long getAverageFetchLatencyInMillis() {
+        return averageFetchLatencyInMillis;
+    }
+
+    public long getP99FetchLatencyInMillis() {
+        return p99FetchLatencyInMillis;
+    }
+
+    public long getBrowserWaitTimeInMillis() {
+        return browserWaitTimeInMillis;
+    }
+
+    public long getAverageBrowserWaitInMillis() {
+        return averageBrowserWaitInMillis;
+    }
+
+    public long getP99BrowserWaitInMillis() {
+        return p99BrowserWaitInMillis;
+    }
+
+    /**
+     * @return Requests made by the shelves a browser loaded.
+     */
+    public long getLoadedResources() {
+        return loadedResources;
+    }
+
+    /**
+     * @return Bytes of the requests made by browser shelves, without those of servers that keep it from pages.
+     */
+    public long getLoadedResourceBytes() {
+        return loadedResourceBytes;
+    }
+
+    /**
+     * @return Resources of browser shelves left out by the resource filter.
+     */
+    public long getBlockedResources() {
+        return blockedResources;
+    }
+
+    /**
+     * @return Why the job stopped early, or null if it crawled everything or is still running.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+}
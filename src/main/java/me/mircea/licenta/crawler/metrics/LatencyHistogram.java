@@ -0,0 +1,96 @@
+package me.mircea.licenta.crawler.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations over fixed buckets, cheap enough to be updated on every page.
+ * Percentiles are reported as the upper bound of the bucket they fall in.
+ * @author mircea
+ */
+public class LatencyHistogram {
+    private static final long[] DEFAULT_BUCKET_BOUNDS_IN_MILLIS = {10, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000};
+
+    private final long[] bucketBounds;
+    private final AtomicLongArray bucketCounts;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_BUCKET_BOUNDS_IN_MILLIS);
+    }
+
+    /**
+     * @param bucketBoundsInMillis Inclusive upper bounds of the buckets, in ascending order. Larger values
+     *                             go to an extra overflow bucket.
+     */
+    public LatencyHistogram(long[] bucketBoundsInMillis) {
+        this.bucketBounds = bucketBoundsInMillis.clone();
+        this.bucketCounts = new AtomicLongArray(bucketBounds.length + 1);
+    }
+
+    public void record(long durationInMillis) {
+        int bucket = 0;
+        while (bucket < bucketBounds.length && durationInMillis > bucketBounds[bucket]) {
+            ++bucket;
+        }
+        bucketCounts.incrementAndGet(bucket);
+        count.increment();
+        sum.add(durationInMillis);
+        max.accumulateAndGet(durationInMillis, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumInMillis() {
+        return sum.sum();
+    }
+
+    public long getMaxInMillis() {
+        return max.get();
+    }
+
+    public long[] getBucketBoundsInMillis() {
+        return bucketBounds.clone();
+    }
+
+    /**
+     * @return Number of recorded values in bucket, where the bucket after the last bound is the overflow one.
+     */
+    public long getBucketCount(int bucket) {
+        return bucketCounts.get(bucket);
+    }
+
+    /**
+     * @param quantile Between 0 and 1.
+     * @return Upper bound of the bucket the quantile falls in, or the maximum for the overflow bucket.
+     */
+    public long getQuantileInMillis(double quantile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < bucketBounds.length; ++bucket) {
+            seen += bucketCounts.get(bucket);
+            if (seen >= rank) {
+                return bucketBounds[bucket];
+            }
+        }
+        return getMaxInMillis();
+    }
+
+    @Override
+    public String toString() {
+        long total = getCount();
+        return String.format("count=%d avg=%dms p50<=%dms p90<=%dms p99<=%dms max=%dms",
+                total, total == 0 ? 0 : getSumInMillis() / total,
+                getQuantileInMillis(0.5), getQuantileInMillis(0.9), getQuantileInMillis(0.99), getMaxInMillis());
+    }
+}
@@ -0,0 +1,89 @@
+package me.mircea.licenta.crawler.metrics;
+
+import java.util.Map;
+
+/**
+ * @author mircea
+ * Writes metrics in the Prometheus text exposition format. Every family is declared once with
+ * {@link #family(String, String, String)} and followed by all of its samples.
+ * Durations are converted to seconds, as the format expects.
+ */
+public class PrometheusTextWriter {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * @param type One of counter, gauge or histogram.
+     */
+    public PrometheusTextWriter family(String name, String type, String help) {
+        text.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    public PrometheusTextWriter sample(String name, Map<String, String> labels, double value) {
+        text.append(name);
+        appendLabels(labels, null);
+        text.append(' ').append(formatValue(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Buckets are cumulative, as the format requires, and end with the +Inf bucket holding every value.
+     */
+    public PrometheusTextWriter histogram(String name, Map<String, String> labels, LatencyHistogram histogram) {
+        long[] bounds = histogram.getBucketBoundsInMillis();
+        long cumulativeCount = 0;
+        for (int bucket = 0; bucket < bounds.length; ++bucket) {
+            cumulativeCount += histogram.getBucketCount(bucket);
+            text.append(name).append("_bucket");
+            appendLabels(labels, formatValue(bounds[bucket] / MILLIS_PER_SECOND));
+            text.append(' ').append(cumulativeCount).append('\n');
+        }
+        cumulativeCount += histogram.getBucketCount(bounds.length);
+        text.append(name).append("_bucket");
+        appendLabels(labels, "+Inf");
+        text.append(' ').append(cumulativeCount).append('\n');
+
+        text.append(name).append("_sum");
+        appendLabels(labels, null);
+        text.append(' ').append(formatValue(histogram.getSumInMillis() / MILLIS_PER_SECOND)).append('\n');
+        text.append(name).append("_count");
+        appendLabels(labels, null);
+        text.append(' ').append(cumulativeCount).append('\n');
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    private void appendLabels(Map<String, String> labels, String upperBound) {
+        if (labels.isEmpty() && upperBound == null) {
+            return;
+        }
+
+        text.append('{');
+        String separator = "";
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            text.append(separator).append(label.getKey()).append("=\"").append(escape(label.getValue())).append('"');
+            separator = ",";
+        }
+        if (upperBound != null) {
+            text.append(separator).append("le=\"").append(upperBound).append('"');
+        }
+        text.append('}');
+    }
+
+    private static String escape(String labelValue) {
+        return String.valueOf(labelValue).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String formatValue(double value) {
+        return value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
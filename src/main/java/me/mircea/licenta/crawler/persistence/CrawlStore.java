@@ -0,0 +1,63 @@
+package me.mircea.licenta.crawler.persistence;
+
+import com.mongodb.MongoInterruptedException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.Page;
+
+import java.util.List;
+
+/**
+ * @author mircea
+ * Where crawlers save their jobs and the pages they find, the crawl database unless replaced,
+ * e.g. by the load test, which runs crawlers without any database.
+ */
+public abstract class CrawlStore {
+    private static volatile CrawlStore instance = new DatabaseStore();
+
+    public static CrawlStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Replace the store of every crawler in this JVM, before any of them starts.
+     */
+    static void replaceInstance(CrawlStore store) {
+        instance = store;
+    }
+
+    public abstract void upsertJob(Job job);
+
+    public abstract void upsertPages(List<Page> pages);
+
+    /**
+     * @return Whether a failed write may succeed if tried again, e.g. since the store could not be reached,
+     * as opposed to the store refusing what was written.
+     */
+    public boolean isTransient(RuntimeException e) {
+        return true;
+    }
+
+    private static class DatabaseStore extends CrawlStore {
+        @Override
+        public void upsertJob(Job job) {
+            CrawlDatabaseManager.instance.upsertJob(job);
+        }
+
+        @Override
+        public void upsertPages(List<Page> pages) {
+            CrawlDatabaseManager.instance.upsertManyPages(pages);
+        }
+
+        @Override
+        public boolean isTransient(RuntimeException e) {
+            return e instanceof MongoSocketException || e instanceof MongoTimeoutException
+                    || e instanceof MongoNotPrimaryException || e instanceof MongoNodeIsRecoveringException
+                    || e instanceof MongoInterruptedException;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package me.mircea.licenta.crawler.persistence;
+
+import java.io.IOException;
+
+/**
+ * @author mircea
+ * Pages a flush waited for could not be written, so whatever assumes they were, e.g. a checkpoint, must not be saved.
+ */
+public class PageWriteException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    PageWriteException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,423 @@
+package me.mircea.licenta.crawler.persistence;
+
+import me.mircea.licenta.core.crawl.db.model.Page;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import me.mircea.licenta.crawler.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * @author mircea
+ * Write-behind stage between crawlers and the database, shared by all jobs of this node. Crawlers hand pages
+ * over and go back to fetching while a single writer upserts them in batches, once a batch is full or its
+ * oldest page waited long enough. A page written again before it reached the database replaces the pending
+ * copy instead of taking another slot. When the queue is full, crawlers wait for the writer to catch up.
+ * A batch that fails on what looks like a passing problem, e.g. the database being unreachable, is retried a bounded
+ * number of times, then given up on. One the database refuses, e.g. for a page too large or breaking an index, is
+ * written again page by page, so only the pages refused are given up on. Pages given up on are logged and dropped,
+ * and the next flush of their job fails, so the job is not taken for done.
+ */
+public class PageWriter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageWriter.class);
+
+    private static final String CONFIG_FILE_QUEUE_CAPACITY = "page_writer_queue_capacity";
+    private static final String CONFIG_FILE_BATCH_SIZE = "page_writer_batch_size";
+    private static final String CONFIG_FILE_FLUSH_INTERVAL = "page_writer_flush_interval_in_milliseconds";
+    private static final String CONFIG_FILE_MAX_RETRY_DELAY = "page_writer_max_retry_delay_in_milliseconds";
+    private static final String CONFIG_FILE_MAX_ATTEMPTS = "page_writer_max_attempts";
+    private static final long INITIAL_RETRY_DELAY_IN_MILLISECONDS = 500;
+
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalInNanos;
+    private final long maxRetryDelayInMillis;
+    private final int maxAttempts;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition pagesAvailable = lock.newCondition();
+    private final Condition spaceAvailable = lock.newCondition();
+    private final Condition batchWritten = lock.newCondition();
+    /**
+     * Pending pages by url, in the order of their last write.
+     */
+    private final LinkedHashMap<String, PendingPage> pending = new LinkedHashMap<>();
+    private final Thread writerThread;
+
+    private long lastSequence = 0;
+    /**
+     * Sequence of the last page written or given up on; pages are taken in the order of their sequence.
+     */
+    private long doneUpTo = 0;
+    /**
+     * Pages given up on by job, until the job is forgotten.
+     */
+    private final Map<String, Long> abandonedPagesByJob = new HashMap<>();
+    private long flushRequestedUpTo = 0;
+    private boolean stopped = false;
+
+    private final LatencyHistogram flushLatencyHistogram = new LatencyHistogram();
+    private long writtenPages = 0;
+    private long coalescedPages = 0;
+    private long failedPages = 0;
+    private long batches = 0;
+    private int lastBatchSize = 0;
+    private long backpressureWaits = 0;
+    private long backpressureWaitTimeInMillis = 0;
+
+    /**
+     * @param maxAttempts Most times a batch is tried while the database seems unavailable, before it is given up on.
+     */
+    PageWriter(int queueCapacity, int batchSize, long flushIntervalInMillis, long maxRetryDelayInMillis, int maxAttempts) {
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.flushIntervalInNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalInMillis);
+        this.maxRetryDelayInMillis = maxRetryDelayInMillis;
+        this.maxAttempts = maxAttempts;
+
+        this.writerThread = new Thread(this::writePages, "page-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public static PageWriter getInstance() {
+        return SharedInstanceHolder.INSTANCE;
+    }
+
+    public void write(Page page, String jobId) {
+        writeAll(Collections.singletonList(page), jobId);
+    }
+
+    /**
+     * Queue pages for writing, waiting for room if the queue is full.
+     * If interrupted while waiting, the pages not queued yet are dropped and the interrupt is kept.
+     * @param jobId Job the pages were found by, whose flush fails if any of them is given up on.
+     */
+    public void writeAll(Collection<Page> pages, String jobId) {
+        Iterator<Page> iterator = pages.iterator();
+        lock.lock();
+        try {
+            while (iterator.hasNext()) {
+                Page page = iterator.next();
+                if (stopped) {
+                    writeAfterShutdown(page);
+                    continue;
+                }
+
+                PendingPage replaced = pending.remove(page.getUrl());
+                if (replaced != null) {
+                    ++coalescedPages;
+                } else if (pending.size() >= queueCapacity) {
+                    if (!awaitSpace()) {
+                        LOGGER.warn("Interrupted while waiting to queue pages, dropping the ones left from {}", page.getUrl());
+                        return;
+                    }
+                    if (stopped) {
+                        writeAfterShutdown(page);
+                        continue;
+                    }
+                }
+
+                pending.put(page.getUrl(), new PendingPage(page, jobId, ++lastSequence, System.nanoTime()));
+                // The writer sleeps until the first page comes in, then until the batch fills up or times out
+                if (pending.size() == 1 || pending.size() >= batchSize) {
+                    pagesAvailable.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every page queued before this call was written or given up on.
+     * @throws PageWriteException If the writer gave up on any page of the job since it was last forgotten.
+     */
+    public void flush(String jobId) throws InterruptedException, PageWriteException {
+        lock.lock();
+        try {
+            awaitDone(lastSequence);
+            Long abandonedPages = abandonedPagesByJob.get(jobId);
+            if (abandonedPages != null) {
+                throw new PageWriteException(abandonedPages + " pages of job " + jobId + " could not be written");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until every page queued before this call was written or given up on, whichever job found it.
+     * @throws PageWriteException If the writer ever gave up on a page.
+     */
+    public void flush() throws InterruptedException, PageWriteException {
+        lock.lock();
+        try {
+            awaitDone(lastSequence);
+            if (!abandonedPagesByJob.isEmpty()) {
+                throw new PageWriteException("Pages of jobs " + abandonedPagesByJob.keySet() + " could not be written");
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop remembering the pages of a job given up on, once the job no longer runs.
+     */
+    public void forget(String jobId) {
+        lock.lock();
+        try {
+            abandonedPagesByJob.remove(jobId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write out what is still queued and stop the writer, e.g. when the application is undeployed.
+     * Pages written afterwards go to the database directly.
+     */
+    public void shutdown(long timeoutInMillis) throws InterruptedException {
+        lock.lock();
+        try {
+            stopped = true;
+            pagesAvailable.signal();
+            spaceAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        writerThread.join(timeoutInMillis);
+    }
+
+    public PageWriterMetrics getMetrics() {
+        lock.lock();
+        try {
+            return new PageWriterMetrics(queueCapacity, pending.size(), batchSize, writtenPages, coalescedPages, failedPages,
+                    batches, batches == 0 ? 0 : (writtenPages + failedPages) / batches, lastBatchSize,
+                    backpressureWaits, backpressureWaitTimeInMillis,
+                    batches == 0 ? 0 : flushLatencyHistogram.getSumInMillis() / batches,
+                    flushLatencyHistogram.getQuantileInMillis(0.99), flushLatencyHistogram.getMaxInMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Time each batch took to be upserted, failed ones included.
+     */
+    public LatencyHistogram getFlushLatencyHistogram() {
+        return flushLatencyHistogram;
+    }
+
+    private void awaitDone(long target) throws InterruptedException {
+        flushRequestedUpTo = Math.max(flushRequestedUpTo, target);
+        pagesAvailable.signal();
+        while (doneUpTo < target) {
+            batchWritten.await();
+        }
+    }
+
+    /**
+     * @return False if interrupted.
+     */
+    private boolean awaitSpace() {
+        long waitStart = System.nanoTime();
+        ++backpressureWaits;
+        try {
+            while (pending.size() >= queueCapacity && !stopped) {
+                pagesAvailable.signal();
+                spaceAvailable.await();
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            backpressureWaitTimeInMillis += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart);
+        }
+    }
+
+    private void writeAfterShutdown(Page page) {
+        lock.unlock();
+        try {
+            CrawlStore.getInstance().upsertPages(Collections.singletonList(page));
+        } finally {
+            lock.lock();
+        }
+    }
+
+    private void writePages() {
+        while (true) {
+            List<PendingPage> batch = new ArrayList<>(batchSize);
+            long batchLastSequence = 0;
+
+            lock.lock();
+            try {
+                while (!isBatchDue()) {
+                    if (stopped && pending.isEmpty()) {
+                        return;
+                    }
+                    awaitBatch();
+                }
+
+                Iterator<PendingPage> iterator = pending.values().iterator();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    PendingPage pendingPage = iterator.next();
+                    batch.add(pendingPage);
+                    batchLastSequence = pendingPage.sequence;
+                    iterator.remove();
+                }
+                spaceAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            long writeStart = System.nanoTime();
+            List<PendingPage> abandoned = upsertWithRetries(batch);
+            long writeTimeInMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - writeStart);
+
+            lock.lock();
+            try {
+                flushLatencyHistogram.record(writeTimeInMillis);
+                ++batches;
+                lastBatchSize = batch.size();
+                writtenPages += batch.size() - abandoned.size();
+                failedPages += abandoned.size();
+                abandoned.forEach(pendingPage -> abandonedPagesByJob.merge(pendingPage.jobId, 1L, Long::sum));
+                doneUpTo = batchLastSequence;
+                batchWritten.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean isBatchDue() {
+        if (pending.isEmpty()) {
+            return false;
+        }
+        PendingPage oldest = pending.values().iterator().next();
+        return stopped || pending.size() >= batchSize || oldest.sequence <= flushRequestedUpTo
+                || System.nanoTime() - oldest.enqueuedAtNanos >= flushIntervalInNanos;
+    }
+
+    private void awaitBatch() {
+        try {
+            if (pending.isEmpty()) {
+                pagesAvailable.await();
+            } else {
+                long oldestEnqueuedAtNanos = pending.values().iterator().next().enqueuedAtNanos;
+                pagesAvailable.awaitNanos(flushIntervalInNanos - (System.nanoTime() - oldestEnqueuedAtNanos));
+            }
+        } catch (InterruptedException e) {
+            // Only a shutdown interrupts the writer, and it still has to write what is left
+            stopped = true;
+        }
+    }
+
+    /**
+     * Write a batch, retrying with a growing delay while the database seems unavailable, up to maxAttempts times
+     * and unless the writer is shutting down. Pages queued in the meantime wait, and so do crawlers once the queue
+     * is full. A batch the database refused is written page by page instead.
+     * @return The pages given up on.
+     */
+    private List<PendingPage> upsertWithRetries(List<PendingPage> batch) {
+        List<Page> pages = batch.stream().map(pendingPage -> pendingPage.page).collect(Collectors.toList());
+        long retryDelayInMillis = Math.min(INITIAL_RETRY_DELAY_IN_MILLISECONDS, maxRetryDelayInMillis);
+        for (int attempt = 1; ; ++attempt) {
+            try {
+                CrawlStore.getInstance().upsertPages(pages);
+                return Collections.emptyList();
+            } catch (RuntimeException e) {
+                if (!CrawlStore.getInstance().isTransient(e)) {
+                    LOGGER.error("The database refused a batch of {} pages, writing them one by one: {}", batch.size(), e);
+                    return upsertOneByOne(batch);
+                }
+                if (attempt >= maxAttempts) {
+                    LOGGER.error("Could not write a batch of {} pages, giving up after {} attempts: {}", batch.size(), attempt, e);
+                    return batch;
+                }
+                if (!awaitRetry(retryDelayInMillis)) {
+                    LOGGER.error("Could not write a batch of {} pages while shutting down, giving up after {} attempts: {}",
+                            batch.size(), attempt, e);
+                    return batch;
+                }
+                LOGGER.error("Could not write a batch of {} pages (attempt {}), retrying in {} ms: {}",
+                        batch.size(), attempt, retryDelayInMillis, e);
+                retryDelayInMillis = Math.min(retryDelayInMillis * 2, maxRetryDelayInMillis);
+            }
+        }
+    }
+
+    /**
+     * @return The pages the database refused, or could not be reached for.
+     */
+    private List<PendingPage> upsertOneByOne(List<PendingPage> batch) {
+        List<PendingPage> abandoned = new ArrayList<>();
+        for (PendingPage pendingPage : batch) {
+            try {
+                CrawlStore.getInstance().upsertPages(Collections.singletonList(pendingPage.page));
+            } catch (RuntimeException e) {
+                LOGGER.error("Dropping page {} of job {}, it could not be written: {}", pendingPage.page.getUrl(), pendingPage.jobId, e);
+                abandoned.add(pendingPage);
+            }
+        }
+        return abandoned;
+    }
+
+    /**
+     * @return False if the writer is shutting down, in which case it does not wait.
+     */
+    private boolean awaitRetry(long retryDelayInMillis) {
+        lock.lock();
+        try {
+            long remainingNanos = TimeUnit.MILLISECONDS.toNanos(retryDelayInMillis);
+            while (!stopped && remainingNanos > 0) {
+                remainingNanos = pagesAvailable.awaitNanos(remainingNanos);
+            }
+            return !stopped;
+        } catch (InterruptedException e) {
+            // Only a shutdown interrupts the writer
+            stopped = true;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class PendingPage {
+        private final Page page;
+        private final String jobId;
+        private final long sequence;
+        private final long enqueuedAtNanos;
+
+        PendingPage(Page page, String jobId, long sequence, long enqueuedAtNanos) {
+            this.page = page;
+            this.jobId = jobId;
+            this.sequence = sequence;
+            this.enqueuedAtNanos = enqueuedAtNanos;
+        }
+    }
+
+    private static class SharedInstanceHolder {
+        private static final PageWriter INSTANCE = new PageWriter(
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_QUEUE_CAPACITY)),
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_BATCH_SIZE)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_FLUSH_INTERVAL)),
+                Long.parseLong(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_RETRY_DELAY)),
+                Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_ATTEMPTS)));
+    }
+}
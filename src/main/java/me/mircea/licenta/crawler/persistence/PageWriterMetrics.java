@@ -0,0 +1,113 @@
+package me.mircea.licenta.crawler.persistence;
+
+/**
+ * @author mircea
+ * Snapshot of the state of the {@link PageWriter}.
+ */
+public class PageWriterMetrics {
+    private final int queueCapacity;
+    private final int queueDepth;
+    private final int maxBatchSize;
+    private final long writtenPages;
+    private final long coalescedPages;
+    private final long failedPages;
+    private final long batches;
+    private final long averageBatchSize;
+    private final int lastBatchSize;
+    private final long backpressureWaits;
+    private final long backpressureWaitTimeInMillis;
+    private final long averageFlushLatencyInMillis;
+    private final long p99FlushLatencyInMillis;
+    private final long maxFlushLatencyInMillis;
+
+    PageWriterMetrics(int queueCapacity, int queueDepth, int maxBatchSize, long writtenPages, long coalescedPages,
+                      long failedPages, long batches, long averageBatchSize, int lastBatchSize, long backpressureWaits,
+                      long backpressureWaitTimeInMillis, long averageFlushLatencyInMillis, long p99FlushLatencyInMillis,
+                      long maxFlushLatencyInMillis) {
+        this.queueCapacity = queueCapacity;
+        this.queueDepth = queueDepth;
+        this.maxBatchSize = maxBatchSize;
+        this.writtenPages = writtenPages;
+        this.coalescedPages = coalescedPages;
+        this.failedPages = failedPages;
+        this.batches = batches;
+        this.averageBatchSize = averageBatchSize;
+        this.lastBatchSize = lastBatchSize;
+        this.backpressureWaits = backpressureWaits;
+        this.backpressureWaitTimeInMillis = backpressureWaitTimeInMillis;
+        this.averageFlushLatencyInMillis = averageFlushLatencyInMillis;
+        this.p99FlushLatencyInMillis = p99FlushLatencyInMillis;
+        this.maxFlushLatencyInMillis = maxFlushLatencyInMillis;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return Pages waiting to be written.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getWrittenPages() {
+        return writtenPages;
+    }
+
+    /**
+     * @return Pages that replaced a pending copy of the same url instead of being written separately.
+     */
+    public long getCoalescedPages() {
+        return coalescedPages;
+    }
+
+    /**
+     * @return Pages lost because the database rejected their batch.
+     */
+    public long getFailedPages() {
+        return failedPages;
+    }
+
+    public long getBatches() {
+        return batches;
+    }
+
+    public long getAverageBatchSize() {
+        return averageBatchSize;
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return Times a crawler had to wait because the queue was full.
+     */
+    public long getBackpressureWaits() {
+        return backpressureWaits;
+    }
+
+    public long getBackpressureWaitTimeInMillis() {
+        return backpressureWaitTimeInMillis;
+    }
+
+    /**
+     * @return Average time a batch took to be upserted.
+     */
+    public long getAverageFlushLatencyInMillis() {
+        return averageFlushLatencyInMillis;
+    }
+
+    public long getP99FlushLatencyInMillis() {
+        return p99FlushLatencyInMillis;
+    }
+
+    public long getMaxFlushLatencyInMillis() {
+        return maxFlushLatencyInMillis;
+    }
+}
@@ -0,0 +1,11 @@
+package me.mircea.licenta.crawler.scheduler;
+
+/**
+ * @author mircea
+ * Kind of worker a crawl job needs. Browser jobs are few and heavy, http jobs are many and light,
+ * so each kind gets its own bounded set of workers.
+ */
+public enum CrawlLane {
+    BROWSER,
+    HTTP
+}
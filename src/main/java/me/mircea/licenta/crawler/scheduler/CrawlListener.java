@@ -0,0 +1,27 @@
+package me.mircea.licenta.crawler.scheduler;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+
+/**
+ * @author mircea
+ * Told what becomes of a job given to the {@link CrawlScheduler}, e.g. to keep a lease on it in step.
+ * Called without holding the scheduler, so it may take its time and ask the scheduler for more.
+ */
+public interface CrawlListener {
+    CrawlListener NONE = new CrawlListener() {
+    };
+
+    /**
+     * Called on the worker that created the crawler of the job, when the crawler needs a worker of another lane.
+     * @return Whether the job should wait here for a worker of that lane, otherwise the scheduler lets go of it.
+     */
+    default boolean shouldWaitForLane(Job job, CrawlLane lane) {
+        return true;
+    }
+
+    /**
+     * Called once the job finished or was dropped, but not for jobs left behind when the scheduler shuts down.
+     */
+    default void onFinished(Job job) {
+    }
+}
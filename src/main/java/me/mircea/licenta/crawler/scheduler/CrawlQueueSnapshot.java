@@ -0,0 +1,45 @@
+package me.mircea.licenta.crawler.scheduler;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author mircea
+ * State of the {@link CrawlScheduler}: its limits and the jobs it holds, queued ones in the order they will start.
+ */
+public class CrawlQueueSnapshot {
+    private final Map<CrawlLane, Integer> workers;
+    private final int maxJobsPerHost;
+    private final int maxQueuedJobs;
+    private final List<ScheduledCrawlInfo> queued;
+    private final List<ScheduledCrawlInfo> running;
+
+    CrawlQueueSnapshot(Map<CrawlLane, Integer> workers, int maxJobsPerHost, int maxQueuedJobs,
+                       List<ScheduledCrawlInfo> queued, List<ScheduledCrawlInfo> running) {
+        this.workers = workers;
+        this.maxJobsPerHost = maxJobsPerHost;
+        this.maxQueuedJobs = maxQueuedJobs;
+        this.queued = queued;
+        this.running = running;
+    }
+
+    public Map<CrawlLane, Integer> getWorkers() {
+        return workers;
+    }
+
+    public int getMaxJobsPerHost() {
+        return maxJobsPerHost;
+    }
+
+    public int getMaxQueuedJobs() {
+        return maxQueuedJobs;
+    }
+
+    public List<ScheduledCrawlInfo> getQueued() {
+        return queued;
+    }
+
+    public List<ScheduledCrawlInfo> getRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,363 @@
+package me.mircea.licenta.crawler.scheduler;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.JobStatus;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import me.mircea.licenta.crawler.StopReason;
+import me.mircea.licenta.crawler.checkpoint.CheckpointStore;
+import me.mircea.licenta.crawler.persistence.CrawlStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @author mircea
+ * Runs crawl jobs on a bounded number of workers, separate for browser and http jobs, so that starting
+ * a refresh of hundreds of domains queues them instead of starting hundreds of threads and browsers.
+ * Queued jobs start by priority and, among equals, in the order they came in. A job only starts when
+ * its host has fewer running jobs than allowed, without holding back the jobs queued behind it.
+ * A job gets its crawler once a worker picks it up, since choosing one may fetch robots.txt and probe the shop,
+ * which should neither hold up whoever submits jobs nor take a browser worker.
+ */
+public class CrawlScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlScheduler.class);
+
+    private static final String CONFIG_FILE_BROWSER_WORKERS = "scheduler_browser_workers";
+    private static final String CONFIG_FILE_HTTP_WORKERS = "scheduler_http_workers";
+    private static final String CONFIG_FILE_MAX_JOBS_PER_HOST = "scheduler_max_jobs_per_host";
+    private static final String CONFIG_FILE_MAX_QUEUED_JOBS = "scheduler_max_queued_jobs";
+
+    private static final CrawlScheduler INSTANCE = new CrawlScheduler(
+            Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_BROWSER_WORKERS)),
+            Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_HTTP_WORKERS)),
+            Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_JOBS_PER_HOST)),
+            Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_MAX_QUEUED_JOBS)));
+
+    private final Map<CrawlLane, Integer> workers = new EnumMap<>(CrawlLane.class);
+    private final Map<CrawlLane, ExecutorService> executors = new EnumMap<>(CrawlLane.class);
+    private final int maxJobsPerHost;
+    private final int maxQueuedJobs;
+
+    private final TreeSet<ScheduledCrawl> queue = new TreeSet<>(ScheduledCrawl.QUEUE_ORDER);
+    private final Map<Long, ScheduledCrawl> running = new LinkedHashMap<>();
+    private final Map<CrawlLane, Integer> runningPerLane = new EnumMap<>(CrawlLane.class);
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    /**
+     * Queue places taken by jobs still being saved.
+     */
+    private int reservedSlots = 0;
+    private long nextSequence = 0;
+    private boolean shutdown = false;
+
+    CrawlScheduler(int browserWorkers, int httpWorkers, int maxJobsPerHost, int maxQueuedJobs) {
+        this.workers.put(CrawlLane.BROWSER, browserWorkers);
+        this.workers.put(CrawlLane.HTTP, httpWorkers);
+        this.maxJobsPerHost = maxJobsPerHost;
+        this.maxQueuedJobs = maxQueuedJobs;
+
+        for (CrawlLane lane : CrawlLane.values()) {
+            String nameFormat = "crawl-" + lane.name().toLowerCase() + "-%d";
+            // Jobs are only handed over when a worker is free, so the executors' own queues stay empty.
+            // Browsers are few and heavy anyway, only http jobs may run on virtual threads
+            this.executors.put(lane, lane == CrawlLane.HTTP
+                    ? CrawlThreads.newExecutor(nameFormat, workers.get(lane))
+                    : CrawlThreads.newPlatformExecutor(nameFormat, workers.get(lane)));
+            this.runningPerLane.put(lane, 0);
+        }
+    }
+
+    public static CrawlScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue a job, which is saved right away so that it can be looked up and is seen as active on its domain.
+     * The job waits for an http worker, which creates its crawler. One that needs a browser then goes back
+     * to the queue, ahead of the jobs submitted after it, to wait for a browser worker.
+     * @param crawlerFactory Creates the crawler of the job, on a worker.
+     * @param priority Jobs with a higher priority start first.
+     * @throws RejectedExecutionException If the queue is full or the scheduler was shut down.
+     */
+    public void submit(Job job, Function<Job, Crawler> crawlerFactory, int priority) {
+        submit(job, crawlerFactory, priority, CrawlListener.NONE);
+    }
+
+    /**
+     * @param listener Told when the job needs a worker of another lane and when it is done.
+     */
+    public void submit(Job job, Function<Job, Crawler> crawlerFactory, int priority, CrawlListener listener) {
+        synchronized (this) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Scheduler was shut down");
+            }
+            if (queue.size() + reservedSlots >= maxQueuedJobs) {
+                throw new RejectedExecutionException("Queue already holds " + queue.size() + " jobs");
+            }
+            ++reservedSlots;
+        }
+
+        // Saved outside the lock, so submissions and finishing jobs do not wait on each other's round trip to the database
+        boolean saved = false;
+        try {
+            CrawlStore.getInstance().upsertJob(job);
+            saved = true;
+        } finally {
+            synchronized (this) {
+                --reservedSlots;
+                if (saved) {
+                    enqueue(new ScheduledCrawl(job, crawlerFactory, priority, listener, nextSequence++));
+                }
+            }
+        }
+    }
+
+    /**
+     * A job saved while the scheduler shut down is dropped like the ones queued before, staying active in the database.
+     */
+    private void enqueue(ScheduledCrawl scheduledCrawl) {
+        if (shutdown) {
+            LOGGER.warn("Dropping job on {} since the scheduler was shut down", scheduledCrawl.job.getDomain());
+            return;
+        }
+        queue.add(scheduledCrawl);
+        LOGGER.info("Queued job on {} with priority {}, {} jobs waiting", scheduledCrawl.job.getDomain(), scheduledCrawl.priority, queue.size());
+        dispatch();
+    }
+
+    /**
+     * Stop a job of this node. A queued job is dropped and finished right away, a running one is cancelled
+     * and finishes on its worker with the pages found so far.
+     * @return Whether the job was queued or running here.
+     */
+    public boolean cancel(String jobId) {
+        return stop(jobId, StopReason.CANCELLED);
+    }
+
+    /**
+     * Let go of a job of this node without finishing it, e.g. one another node took over. A queued job is dropped,
+     * a running one stops and stays active for the node that owns it now.
+     * @return Whether the job was queued or running here.
+     */
+    public boolean release(String jobId) {
+        return stop(jobId, StopReason.LEASE_LOST);
+    }
+
+    /**
+     * Free workers of a lane, less the jobs already waiting for one, i.e. how many more jobs would start right away
+     * if their hosts allowed it.
+     */
+    public synchronized int getFreeWorkers(CrawlLane lane) {
+        long queuedOnLane = queue.stream().filter(scheduledCrawl -> scheduledCrawl.lane == lane).count();
+        return (int) Math.max(0, workers.get(lane) - runningPerLane.get(lane) - queuedOnLane);
+    }
+
+    private boolean stop(String jobId, StopReason reason) {
+        ScheduledCrawl dropped = null;
+        ScheduledCrawl stopping = null;
+        Crawler stoppingCrawler = null;
+        synchronized (this) {
+            Iterator<ScheduledCrawl> iterator = queue.iterator();
+            while (iterator.hasNext() && dropped == null) {
+                ScheduledCrawl scheduledCrawl = iterator.next();
+                if (jobId.equals(String.valueOf(scheduledCrawl.job.getId()))) {
+                    iterator.remove();
+                    dropped = scheduledCrawl;
+                }
+            }
+            if (dropped == null) {
+                stopping = running.values().stream()
+                        .filter(scheduledCrawl -> jobId.equals(String.valueOf(scheduledCrawl.job.getId())))
+                        .findFirst()
+                        .orElse(null);
+            }
+            if (stopping != null) {
+                // A crawler still being created is stopped as soon as it is
+                stopping.stopReason = reason;
+                stoppingCrawler = stopping.crawler;
+            }
+        }
+
+        // Outside the lock, since stopping a browser job quits its browser
+        if (dropped != null) {
+            LOGGER.info("Dropped queued job on {}: {}", dropped.job.getDomain(), reason);
+            if (reason == StopReason.CANCELLED) {
+                if (dropped.crawler != null) {
+                    dropped.crawler.cancelBeforeStart();
+                } else {
+                    finishWithoutCrawler(dropped.job);
+                }
+                dropped.listener.onFinished(dropped.job);
+            }
+        } else if (stoppingCrawler != null) {
+            stoppingCrawler.cancel(reason);
+        }
+        return dropped != null || stopping != null;
+    }
+
+    public synchronized CrawlQueueSnapshot getSnapshot() {
+        List<ScheduledCrawlInfo> queuedInfo = queue.stream()
+                .map(ScheduledCrawl::toInfo)
+                .collect(Collectors.toList());
+        List<ScheduledCrawlInfo> runningInfo = running.values().stream()
+                .map(ScheduledCrawl::toInfo)
+                .collect(Collectors.toList());
+        return new CrawlQueueSnapshot(new EnumMap<>(workers), maxJobsPerHost, maxQueuedJobs, queuedInfo, runningInfo);
+    }
+
+    /**
+     * Drop queued jobs and interrupt running ones, e.g. when the application is undeployed.
+     * Dropped jobs stay active in the database.
+     */
+    public void shutdown() {
+        List<ScheduledCrawl> dropped;
+        synchronized (this) {
+            shutdown = true;
+            dropped = new ArrayList<>(queue);
+            queue.clear();
+        }
+
+        if (!dropped.isEmpty()) {
+            LOGGER.warn("Dropping {} queued jobs", dropped.size());
+        }
+        executors.values().forEach(ExecutorService::shutdownNow);
+    }
+
+    /**
+     * Start every queued job whose lane has a free worker and whose host is below its limit.
+     */
+    private void dispatch() {
+        Iterator<ScheduledCrawl> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            ScheduledCrawl scheduledCrawl = iterator.next();
+            String host = scheduledCrawl.job.getDomain();
+            if (runningPerLane.get(scheduledCrawl.lane) >= workers.get(scheduledCrawl.lane)
+                    || runningPerHost.getOrDefault(host, 0) >= maxJobsPerHost) {
+                continue;
+            }
+
+            iterator.remove();
+            scheduledCrawl.startedAt = Instant.now();
+            running.put(scheduledCrawl.sequence, scheduledCrawl);
+            runningPerLane.merge(scheduledCrawl.lane, 1, Integer::sum);
+            runningPerHost.merge(host, 1, Integer::sum);
+            executors.get(scheduledCrawl.lane).execute(() -> runCrawl(scheduledCrawl));
+        }
+    }
+
+    private void runCrawl(ScheduledCrawl scheduledCrawl) {
+        if (scheduledCrawl.crawler == null && !createCrawler(scheduledCrawl)) {
+            return;
+        }
+
+        try {
+            scheduledCrawl.crawler.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("Job on {} failed: {}", scheduledCrawl.job.getDomain(), e);
+        } finally {
+            onCrawlFinished(scheduledCrawl);
+        }
+    }
+
+    /**
+     * Create the crawler of a job on the worker that picked it up, and move the job to the browser lane if need be,
+     * unless its listener would rather it went elsewhere.
+     * @return Whether the crawler is to run on this worker, otherwise the worker is already released.
+     */
+    private boolean createCrawler(ScheduledCrawl scheduledCrawl) {
+        Crawler crawler;
+        try {
+            crawler = scheduledCrawl.crawlerFactory.apply(scheduledCrawl.job);
+        } catch (RuntimeException e) {
+            LOGGER.error("Could not create a crawler for job on {}: {}", scheduledCrawl.job.getDomain(), e);
+            finishWithoutCrawler(scheduledCrawl.job);
+            onCrawlFinished(scheduledCrawl);
+            return false;
+        }
+
+        CrawlLane lane = crawler.needsBrowser() ? CrawlLane.BROWSER : CrawlLane.HTTP;
+        boolean waitForLane = lane == scheduledCrawl.lane || scheduledCrawl.listener.shouldWaitForLane(scheduledCrawl.job, lane);
+        StopReason stopReason;
+        synchronized (this) {
+            scheduledCrawl.crawler = crawler;
+            stopReason = scheduledCrawl.stopReason;
+            if (stopReason == null && lane != scheduledCrawl.lane) {
+                moveToLane(scheduledCrawl, waitForLane ? lane : null);
+                return false;
+            }
+        }
+
+        if (stopReason != null) {
+            crawler.cancelBeforeStart(stopReason);
+            onCrawlFinished(scheduledCrawl);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Put a running job back in the queue to wait for a worker of another lane, keeping its place in line.
+     * @param lane Lane to wait in, or null to drop the job without finishing it, e.g. for another node to take.
+     */
+    private void moveToLane(ScheduledCrawl scheduledCrawl, CrawlLane lane) {
+        running.remove(scheduledCrawl.sequence);
+        runningPerLane.merge(scheduledCrawl.lane, -1, Integer::sum);
+        runningPerHost.computeIfPresent(scheduledCrawl.job.getDomain(), (host, count) -> count > 1 ? count - 1 : null);
+        if (shutdown) {
+            return;
+        }
+        if (lane == null) {
+            LOGGER.info("Let go of job on {}, it needs a worker this node has none free of", scheduledCrawl.job.getDomain());
+            dispatch();
+            return;
+        }
+
+        scheduledCrawl.lane = lane;
+        scheduledCrawl.startedAt = null;
+        queue.add(scheduledCrawl);
+        LOGGER.info("Job on {} needs a {} worker, {} jobs waiting", scheduledCrawl.job.getDomain(), lane, queue.size());
+        dispatch();
+    }
+
+    /**
+     * Finish a job that never got a crawler, which would otherwise stay active and keep new jobs off its domain.
+     */
+    private static void finishWithoutCrawler(Job job) {
+        job.setEnd(Instant.now());
+        job.setStatus(JobStatus.FINISHED);
+        CrawlStore.getInstance().upsertJob(job);
+        CheckpointStore.getInstance().delete(String.valueOf(job.getId()));
+    }
+
+    private void onCrawlFinished(ScheduledCrawl scheduledCrawl) {
+        boolean finished;
+        synchronized (this) {
+            running.remove(scheduledCrawl.sequence);
+            runningPerLane.merge(scheduledCrawl.lane, -1, Integer::sum);
+            runningPerHost.computeIfPresent(scheduledCrawl.job.getDomain(), (host, count) -> count > 1 ? count - 1 : null);
+
+            finished = !shutdown;
+            if (!shutdown) {
+                dispatch();
+            }
+        }
+
+        // A job interrupted by a shutdown stays active, to be picked up again
+        if (finished) {
+            scheduledCrawl.listener.onFinished(scheduledCrawl.job);
+        }
+    }
+}
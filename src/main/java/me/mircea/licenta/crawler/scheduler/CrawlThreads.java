@@ -0,0 +1,86 @@
+package me.mircea.licenta.crawler.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * @author mircea
+ * Threads that http jobs and their fetches run on. Platform threads come from fixed pools, so a job fetches
+ * at most as many sitemaps at once as its pool has threads. With {@code crawl_threads=virtual} on Java 21
+ * or later, every task gets a virtual thread instead. A virtual thread blocked on the network gives its
+ * carrier back, so thousands of fetches can wait at once on a few carriers. Shutting down the executor
+ * of a job still interrupts every fetch of that job and nothing else.
+ * Virtual threads are looked up by reflection, so the same build still runs on Java 8 with platform threads.
+ */
+public final class CrawlThreads {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlThreads.class);
+
+    private static final String CONFIG_FILE_THREADS = "crawl_threads";
+    private static final String VIRTUAL_THREADS = "virtual";
+
+    private static final boolean VIRTUAL = VIRTUAL_THREADS.equals(CrawlerSettingsUtil.getSetting(CONFIG_FILE_THREADS))
+            && isVirtualThreadSupported();
+
+    private CrawlThreads() {
+    }
+
+    /**
+     * @return Whether http jobs and their fetches run on virtual threads.
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL;
+    }
+
+    /**
+     * @param nameFormat Name of the threads, with {@code %d} for their number.
+     * @param threads Size of the pool of platform threads, unused for virtual threads, of which there is one per task.
+     */
+    public static ExecutorService newExecutor(String nameFormat, int threads) {
+        return VIRTUAL ? newVirtualExecutor(nameFormat) : newPlatformExecutor(nameFormat, threads);
+    }
+
+    static ExecutorService newPlatformExecutor(String nameFormat, int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat(nameFormat).build());
+    }
+
+    /**
+     * @throws UnsupportedOperationException If this Java has no virtual threads.
+     */
+    static ExecutorService newVirtualExecutor(String nameFormat) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            ThreadFactory virtualThreadFactory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory").invoke(builder);
+            ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat(nameFormat)
+                    .setThreadFactory(virtualThreadFactory)
+                    .build();
+            Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newThreadPerTaskExecutor.invoke(null, namedThreadFactory);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Could not create virtual threads", e.getCause());
+        }
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            LOGGER.warn("Virtual threads need Java 21 or later, running on {} with platform threads instead",
+                    System.getProperty("java.version"));
+            return false;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package me.mircea.licenta.crawler.scheduler;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.StopReason;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.function.Function;
+
+/**
+ * @author mircea
+ * A job together with what the scheduler needs to know to order and place it. Its crawler is only created
+ * on a worker, until then the job waits for an http worker. Fields that change are guarded by the scheduler.
+ */
+class ScheduledCrawl {
+    /**
+     * Higher priority first, then first come first served.
+     */
+    static final Comparator<ScheduledCrawl> QUEUE_ORDER = Comparator
+            .comparingInt((ScheduledCrawl scheduledCrawl) -> -scheduledCrawl.priority)
+            .thenComparingLong(scheduledCrawl -> scheduledCrawl.sequence);
+
+    final Job job;
+    final Function<Job, Crawler> crawlerFactory;
+    final int priority;
+    final CrawlListener listener;
+    final long sequence;
+    final Instant enqueuedAt;
+    Crawler crawler;
+    CrawlLane lane = CrawlLane.HTTP;
+    Instant startedAt;
+    /**
+     * Set when the job is stopped while its crawler is being created.
+     */
+    StopReason stopReason;
+
+    ScheduledCrawl(Job job, Function<Job, Crawler> crawlerFactory, int priority, CrawlListener listener, long sequence) {
+        this.job = job;
+        this.crawlerFactory = crawlerFactory;
+        this.priority = priority;
+        this.listener = listener;
+        this.sequence = sequence;
+        this.enqueuedAt = Instant.now();
+    }
+
+    ScheduledCrawlInfo toInfo() {
+        return new ScheduledCrawlInfo(String.valueOf(job.getId()), job.getDomain(), lane,
+                crawler != null ? crawler.getClass().getSimpleName() : null, priority, enqueuedAt, startedAt);
+    }
+}
@@ -0,0 +1,61 @@
+package me.mircea.licenta.crawler.scheduler;
+
+import java.time.Instant;
+
+/**
+ * @author mircea
+ * Snapshot of a job that is queued or running in the {@link CrawlScheduler}.
+ */
+public class ScheduledCrawlInfo {
+    private final String jobId;
+    private final String domain;
+    private final CrawlLane lane;
+    private final String crawler;
+    private final int priority;
+    private final Instant enqueuedAt;
+    private final Instant startedAt;
+
+    ScheduledCrawlInfo(String jobId, String domain, CrawlLane lane, String crawler, int priority, Instant enqueuedAt, Instant startedAt) {
+        this.jobId = jobId;
+        this.domain = domain;
+        this.lane = lane;
+        this.crawler = crawler;
+        this.priority = priority;
+        this.enqueuedAt = enqueuedAt;
+        this.startedAt = startedAt;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public CrawlLane getLane() {
+        return lane;
+    }
+
+    /**
+     * @return Kind of crawler of the job, or null while it waits for its crawler to be chosen.
+     */
+    public String getCrawler() {
+        return crawler;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public Instant getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    /**
+     * @return When a worker picked the job up, or null while it is still queued.
+     */
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+}
@@ -0,0 +1,18 @@
+package me.mircea.licenta.crawler.webservices;
+
+import me.mircea.licenta.crawler.impl.BrowserPoolMetrics;
+import me.mircea.licenta.crawler.impl.BrowserSessionPool;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+@Path("/browsers")
+public class BrowserPoolResource {
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public BrowserPoolMetrics getBrowserPoolMetrics() {
+        return BrowserSessionPool.getInstance().getMetrics();
+    }
+}
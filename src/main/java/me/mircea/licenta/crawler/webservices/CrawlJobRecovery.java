@@ -0,0 +1,130 @@
+package me.mircea.licenta.crawler.webservices;
+
+import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.JobType;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.checkpoint.CheckpointStore;
+import me.mircea.licenta.crawler.checkpoint.CrawlCheckpoint;
+import me.mircea.licenta.crawler.coordination.LeaseCoordinator;
+import me.mircea.licenta.crawler.coordination.LeaseStore;
+import me.mircea.licenta.crawler.impl.BrowserCrawler;
+import me.mircea.licenta.crawler.impl.HttpShelfCrawler;
+import me.mircea.licenta.crawler.impl.SitemapSaxCrawler;
+import me.mircea.licenta.crawler.scheduler.CrawlScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * @author mircea
+ * Queues again the jobs left active by the previous run of the service, so a restart mid-crawl loses at most
+ * the work since their last checkpoint. A job resumes with the crawler that saved its checkpoint and the options
+ * of its request; one queued without a crawler running it yet starts over. Only jobs queued on this node have a
+ * checkpoint here, so active jobs without one belong to other nodes sharing the database and are left to them.
+ * With leases, the jobs are offered to every node instead, unless they already are.
+ */
+class CrawlJobRecovery implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlJobRecovery.class);
+    private static final int RECOVERED_JOB_PRIORITY = 0;
+
+    @Override
+    public void run() {
+        if (LeaseCoordinator.isEnabled()) {
+            offerActiveJobs();
+            return;
+        }
+
+        int resumedJobs = 0;
+        int restartedJobs = 0;
+        int otherNodesJobs = 0;
+        for (Job job : CrawlDatabaseManager.instance.getActiveJobsByType(JobType.CRAWL)) {
+            try {
+                Optional<CrawlCheckpoint> checkpoint = CheckpointStore.getInstance().load(String.valueOf(job.getId()));
+                if (!checkpoint.isPresent()) {
+                    ++otherNodesJobs;
+                    continue;
+                }
+
+                CrawlOptions options = CrawlOptions.fromMap(checkpoint.get().getOptions());
+                CrawlScheduler.getInstance().submit(job, recoveredJob -> resumeOrCreateCrawler(recoveredJob, checkpoint, options),
+                        RECOVERED_JOB_PRIORITY);
+
+                if (checkpoint.get().getCrawler() != null) {
+                    ++resumedJobs;
+                } else {
+                    ++restartedJobs;
+                }
+            } catch (RejectedExecutionException e) {
+                LOGGER.warn("Could not queue job {} again: {}", job, e.getMessage());
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not recover job {}: {}", job, e);
+            }
+        }
+        LOGGER.info("Recovered unfinished jobs: {} resumed from a checkpoint, {} started over, {} left to the nodes running them",
+                resumedJobs, restartedJobs, otherNodesJobs);
+    }
+
+    /**
+     * Queue active jobs that are neither waiting for a node nor held by one, e.g. ones posted before nodes shared
+     * their jobs. Every node does so when it starts, which at most finds the jobs already offered.
+     */
+    private void offerActiveJobs() {
+        int offeredJobs = 0;
+        for (Job job : CrawlDatabaseManager.instance.getActiveJobsByType(JobType.CRAWL)) {
+            try {
+                if (LeaseStore.getShared().enqueueIfAbsent(String.valueOf(job.getId()), job.getDomain(), RECOVERED_JOB_PRIORITY)) {
+                    ++offeredJobs;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error("Could not offer job {} to other nodes: {}", job, e);
+            }
+        }
+        LOGGER.info("Offered {} unfinished jobs to every node", offeredJobs);
+    }
+
+    /**
+     * Mark a job about to be queued as this node's, so that the next start of this node recovers it with its options.
+     */
+    static void claim(Job job, CrawlOptions options) {
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint();
+        checkpoint.setSavedAt(System.currentTimeMillis());
+        checkpoint.setOptions(options.toMap());
+        CheckpointStore.getInstance().save(String.valueOf(job.getId()), checkpoint);
+    }
+
+    /**
+     * Create the crawler of a job taken from another node, resuming from its checkpoint if this node can read it.
+     */
+    static Crawler resumeOrCreateCrawler(Job job, CrawlOptions options) {
+        return resumeOrCreateCrawler(job, CheckpointStore.getInstance().load(String.valueOf(job.getId())), options);
+    }
+
+    private static Crawler resumeOrCreateCrawler(Job job, Optional<CrawlCheckpoint> checkpoint, CrawlOptions options) {
+        Crawler crawler = checkpoint
+                .flatMap(savedCheckpoint -> createCrawler(savedCheckpoint, job))
+                .map(options::applyTo)
+                .orElseGet(() -> options.createCrawler(job));
+        // The time budget counts from the first start of the job, not from the restart
+        checkpoint.ifPresent(savedCheckpoint -> crawler.setStartedAt(savedCheckpoint.getJobStartedAt()));
+        return crawler;
+    }
+
+    private static Optional<Crawler> createCrawler(CrawlCheckpoint checkpoint, Job job) {
+        String crawler = checkpoint.getCrawler();
+        if (crawler == null) {
+            return Optional.empty();
+        }
+        if (SitemapSaxCrawler.class.getSimpleName().equals(crawler)) {
+            return Optional.of(new SitemapSaxCrawler(job));
+        } else if (HttpShelfCrawler.class.getSimpleName().equals(crawler)) {
+            return Optional.of(new HttpShelfCrawler(job));
+        } else if (BrowserCrawler.class.getSimpleName().equals(crawler)) {
+            return Optional.of(new BrowserCrawler(job));
+        }
+        LOGGER.warn("Ignoring the checkpoint of job {} saved by unknown crawler {}", job, crawler);
+        return Optional.empty();
+    }
+}
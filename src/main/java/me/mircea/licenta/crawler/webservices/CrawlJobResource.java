@@ -1,17 +1,31 @@
 package me.mircea.licenta.crawler.webservices;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.collect.Lists;
+import com.google.common.collect.Iterators;
 import me.mircea.licenta.core.crawl.db.CrawlDatabaseManager;
 import me.mircea.licenta.core.crawl.db.model.Job;
 import me.mircea.licenta.core.crawl.db.model.JobActiveOnHost;
+import me.mircea.licenta.core.crawl.db.model.JobStatus;
 import me.mircea.licenta.core.crawl.db.model.JobType;
 import me.mircea.licenta.core.parser.utils.HtmlUtil;
 import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import me.mircea.licenta.crawler.checkpoint.CheckpointStore;
+import me.mircea.licenta.crawler.coordination.LeaseCoordinator;
+import me.mircea.licenta.crawler.coordination.LeaseStore;
 import me.mircea.licenta.crawler.impl.BrowserCrawler;
+import me.mircea.licenta.crawler.impl.HttpShelfCrawler;
 import me.mircea.licenta.crawler.impl.SitemapSaxCrawler;
+import me.mircea.licenta.crawler.metrics.CrawlMetrics;
+import me.mircea.licenta.crawler.metrics.JobMetrics;
+import me.mircea.licenta.crawler.metrics.JobMetricsSummary;
+import me.mircea.licenta.crawler.scheduler.CrawlQueueSnapshot;
+import me.mircea.licenta.crawler.scheduler.CrawlScheduler;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,43 +35,156 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
 @Path("/jobs")
 public class CrawlJobResource {
-    private static final ExecutorService ASYNC_TASK_EXECUTOR = Executors.newCachedThreadPool();
     private static final Logger LOGGER = LoggerFactory.getLogger(CrawlJobResource.class);
 
+    private static final String CONFIG_FILE_BATCH_MAX_SIZE = "job_batch_max_size";
+    private static final int MAX_BATCH_SIZE = Integer.parseInt(CrawlerSettingsUtil.getSetting(CONFIG_FILE_BATCH_MAX_SIZE));
+    private static final Pattern BATCH_PATH_SUFFIX = Pattern.compile("/batch/?$");
+    /**
+     * Leaves flushing to the generator buffer, instead of flushing the response after every job.
+     */
+    private static final ObjectWriter JOB_WRITER = ObjectMapperProvider.getMapper().writerFor(Job.class)
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /**
+     * Active jobs written out one by one as they come from the database, instead of all of them collected first.
+     * With a limit, a page shorter than the limit is the last one.
+     * @param offset Active jobs to skip.
+     * @param limit Most jobs to list, or 0 for all of them.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response listActiveCrawlerJobs(@QueryParam("offset") @DefaultValue("0") int offset,
+                                          @QueryParam("limit") @DefaultValue("0") int limit) {
+        if (offset < 0 || limit < 0) {
+            return Response.status(400).build();
+        }
+
+        StreamingOutput jobs = output -> writeJobs(CrawlDatabaseManager.instance.getActiveJobsByType(JobType.CRAWL), offset, limit, output);
+        return Response.ok(jobs).build();
+    }
+
     @GET
+    @Path("queue")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Job> listActiveCrawlerJobs() {
-        Iterable<Job> iterable = CrawlDatabaseManager.instance.getActiveJobsByType(JobType.CRAWL);
-        return Lists.newArrayList(iterable);
+    public CrawlQueueSnapshot getCrawlerJobQueue() {
+        return CrawlScheduler.getInstance().getSnapshot();
     }
 
     @GET
     @Path("{jobId}")
     @Produces(MediaType.APPLICATION_JSON)
-    public Job getCrawlerJobStatus(@PathParam("jobId") ObjectId jobId) {
-        return CrawlDatabaseManager.instance.getJobById(jobId);
+    public CrawlJobStatus getCrawlerJobStatus(@PathParam("jobId") ObjectId jobId) {
+        Job job = CrawlDatabaseManager.instance.getJobById(jobId);
+        if (job == null) {
+            return null;
+        }
+        JobMetricsSummary metrics = CrawlMetrics.getInstance().getJob(jobId.toString()).map(JobMetrics::getSummary).orElse(null);
+        return new CrawlJobStatus(job, metrics);
+    }
+
+    /**
+     * Stop a job. One queued or running on this node is cancelled and keeps the pages found so far,
+     * one still active without running anywhere, e.g. after its node went down, is only marked finished.
+     * With leases, one held by another node is marked finished as well and that node stops it on its next heartbeat.
+     */
+    @DELETE
+    @Path("{jobId}")
+    public Response cancelCrawlerJob(@PathParam("jobId") ObjectId jobId) {
+        if (CrawlScheduler.getInstance().cancel(jobId.toString())) {
+            return Response.status(202).build();
+        }
+        if (LeaseCoordinator.isEnabled() && LeaseStore.getShared().remove(jobId.toString())) {
+            // The node holding the job lets go of it once it fails to renew the lease
+            LOGGER.info("Removed job {} from the lease store", jobId);
+        }
+
+        Job job = CrawlDatabaseManager.instance.getJobById(jobId);
+        if (job == null) {
+            return Response.status(404).build();
+        }
+        Job activeJob = CrawlDatabaseManager.instance.getActiveJobOnDomain(job.getDomain());
+        if (activeJob != null && jobId.equals(activeJob.getId())) {
+            LOGGER.info("Marking job {} as finished, it was active but not running here", job);
+            job.setEnd(Instant.now());
+            job.setStatus(JobStatus.FINISHED);
+            CrawlDatabaseManager.instance.upsertJob(job);
+            CheckpointStore.getInstance().delete(jobId.toString());
+        }
+        return Response.status(204).build();
     }
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
     public Response createCrawlerJob(@Context HttpServletRequest request, ObjectNode crawlRequest) {
+        CrawlJobSubmission submission = submitCrawlRequest(crawlRequest, request.getRequestURI());
+        Response.ResponseBuilder response = Response.status(submission.getStatus()).entity(submission.getJob());
+        if (submission.getLocation() != null) {
+            response.header("Location", submission.getLocation());
+        }
+        return response.build();
+    }
+
+    /**
+     * Validate and queue many jobs in one round trip. Every request is handled as if posted alone, so one that
+     * fails does not hold back the others, and the response lists their outcomes in the order they came in.
+     */
+    @POST
+    @Path("batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response createCrawlerJobs(@Context HttpServletRequest request, ArrayNode crawlRequests) {
+        if (crawlRequests == null) {
+            return Response.status(400).build();
+        }
+        if (crawlRequests.size() > MAX_BATCH_SIZE) {
+            LOGGER.warn("Refusing a batch of {} jobs, at most {} are allowed", crawlRequests.size(), MAX_BATCH_SIZE);
+            return Response.status(413).build();
+        }
+
+        String jobsUri = BATCH_PATH_SUFFIX.matcher(request.getRequestURI()).replaceFirst("");
+        List<CrawlJobSubmission> submissions = new ArrayList<>(crawlRequests.size());
+        for (JsonNode crawlRequest : crawlRequests) {
+            if (crawlRequest.isObject()) {
+                submissions.add(submitCrawlRequest((ObjectNode) crawlRequest, jobsUri));
+            } else {
+                CrawlMetrics.getInstance().recordJobRequest("invalid");
+                submissions.add(CrawlJobSubmission.failed(null, 400));
+            }
+        }
+        return Response.ok(submissions).build();
+    }
+
+    /**
+     * @param jobsUri Where jobs are listed, for the location of a job already active on the domain.
+     */
+    private CrawlJobSubmission submitCrawlRequest(ObjectNode crawlRequest, String jobsUri) {
         JsonNode homepageNode = crawlRequest.get("homepage");
         JsonNode seedsNode = crawlRequest.get("seeds");
         JsonNode additionalSitemapsNode = crawlRequest.get("additionalSitemaps");
         JsonNode disallowCookiesNode = crawlRequest.get("disallowCookies");
+        JsonNode priorityNode = crawlRequest.get("priority");
+        JsonNode maxDurationNode = crawlRequest.get("maxDurationInSeconds");
+        JsonNode maxPagesNode = crawlRequest.get("maxPages");
+        JsonNode resourceFilterNode = crawlRequest.get("resourceFilter");
+        String homepage = homepageNode != null ? homepageNode.asText() : null;
 
         boolean disallowCookies;
         if (disallowCookiesNode != null) {
@@ -65,35 +192,124 @@ public class CrawlJobResource {
         } else {
             disallowCookies = false;
         }
+        int priority = priorityNode != null ? priorityNode.asInt() : 0;
+        if (!isValidBudget(maxDurationNode) || !isValidBudget(maxPagesNode)) {
+            LOGGER.warn("Budgets of a job have to be non-negative numbers {}", crawlRequest);
+            CrawlMetrics.getInstance().recordJobRequest("invalid");
+            return CrawlJobSubmission.failed(homepage, 400);
+        }
+        if (!isValidResourceFilter(resourceFilterNode)) {
+            LOGGER.warn("A resource filter has to hold lists of text and known resource types {}", crawlRequest);
+            CrawlMetrics.getInstance().recordJobRequest("invalid");
+            return CrawlJobSubmission.failed(homepage, 400);
+        }
 
-        LOGGER.error("disallowCookies final = {}", disallowCookies);
+        LOGGER.debug("disallowCookies final = {}", disallowCookies);
         Job job;
         String domain = null;
         try {
-            domain = HtmlUtil.getDomainOfUrl(homepageNode.asText());
             if (invalidCrawlStartingPointProvided(seedsNode, homepageNode)) {
                 throw new MalformedURLException("Some URLs are malformed");
             }
+            domain = HtmlUtil.getDomainOfUrl(homepage);
 
-            job = new Job(homepageNode.asText(), JobType.CRAWL, convertJsonTextArrayToIterable(seedsNode), convertJsonTextArrayToIterable(additionalSitemapsNode), disallowCookies);
-            Crawler crawler = chooseBestCrawlingStrategy(job);
-            ASYNC_TASK_EXECUTOR.submit(crawler);
+            job = new Job(homepage, JobType.CRAWL, convertJsonTextArrayToIterable(seedsNode), convertJsonTextArrayToIterable(additionalSitemapsNode), disallowCookies);
+            CrawlOptions options = new CrawlOptions(
+                    maxDurationNode != null ? maxDurationNode.asLong() : null,
+                    maxPagesNode != null ? maxPagesNode.asLong() : null,
+                    resourceFilterNode != null ? convertOptionalJsonTextArray(resourceFilterNode.get("blockedResourceTypes")) : null,
+                    resourceFilterNode != null ? convertOptionalJsonTextArray(resourceFilterNode.get("deniedDomains")) : null,
+                    resourceFilterNode != null ? convertOptionalJsonTextArray(resourceFilterNode.get("allowedDomains")) : null,
+                    convertOptionalJsonTextArray(additionalSitemapsNode));
 
-            return Response.status(202).entity(job).build();
+            if (LeaseCoordinator.isEnabled()) {
+                // Saving the job first keeps a second job off the domain, whichever node it was posted to
+                CrawlDatabaseManager.instance.upsertJob(job);
+                LeaseStore.getShared().enqueue(job.getId().toString(), domain, priority, options.toMap());
+            } else {
+                // Choosing a crawler may fetch robots.txt and probe the shop, so it is left to the worker of the job
+                CrawlJobRecovery.claim(job, options);
+                try {
+                    CrawlScheduler.getInstance().submit(job, options::createCrawler, priority);
+                } catch (RuntimeException e) {
+                    CheckpointStore.getInstance().delete(job.getId().toString());
+                    throw e;
+                }
+            }
+
+            CrawlMetrics.getInstance().recordJobRequest("queued");
+            return new CrawlJobSubmission(homepage, 202, job, null);
         } catch (MalformedURLException e) {
             LOGGER.warn("Some provided URLs are malformed {}", homepageNode);
-            return Response.status(400).build();
+            CrawlMetrics.getInstance().recordJobRequest("invalid");
+            return CrawlJobSubmission.failed(homepage, 400);
         } catch (JobActiveOnHost e) {
             LOGGER.warn("A job was active on the host before trying to start a new one");
+            CrawlMetrics.getInstance().recordJobRequest("conflict");
             Job activeJob = CrawlDatabaseManager.instance.getActiveJobOnDomain(domain);
-            String redirectUri = request.getRequestURI() + "/" + activeJob.getId().toString();
-            return Response.status(409).header("Location", redirectUri).entity(activeJob).build();
+            String redirectUri = jobsUri + "/" + activeJob.getId().toString();
+            return new CrawlJobSubmission(homepage, 409, activeJob, redirectUri);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Could not queue job on {}: {}", domain, e.getMessage());
+            CrawlMetrics.getInstance().recordJobRequest("rejected");
+            return CrawlJobSubmission.failed(homepage, 503);
         } catch (IOException e) {
             LOGGER.warn("Could not read config file to start job {}", e);
-            return Response.status(500).build();
+            CrawlMetrics.getInstance().recordJobRequest("failed");
+            return CrawlJobSubmission.failed(homepage, 500);
         }
     }
 
+    private static void writeJobs(Iterable<Job> jobs, int offset, int limit, OutputStream output) throws IOException {
+        Iterator<Job> iterator = jobs.iterator();
+        try (JsonGenerator generator = ObjectMapperProvider.getMapper().getFactory().createGenerator(output)) {
+            generator.writeStartArray();
+            Iterators.advance(iterator, offset);
+            for (int written = 0; iterator.hasNext() && (limit == 0 || written < limit); ++written) {
+                JOB_WRITER.writeValue(generator, iterator.next());
+            }
+            generator.writeEndArray();
+        } finally {
+            // A database cursor left before its end stays open on the server until closed
+            if (iterator instanceof Closeable) {
+                ((Closeable) iterator).close();
+            }
+        }
+    }
+
+    /**
+     * @return Whether a budget is left out or is a non-negative number, 0 meaning no limit.
+     */
+    private boolean isValidBudget(JsonNode budgetNode) {
+        return budgetNode == null || (budgetNode.canConvertToLong() && budgetNode.asLong() >= 0);
+    }
+
+    /**
+     * @return Whether a resource filter is left out or only holds lists of text, each of them optional,
+     * with resource types the browser crawler knows.
+     */
+    private boolean isValidResourceFilter(JsonNode resourceFilterNode) {
+        if (resourceFilterNode == null) {
+            return true;
+        }
+        if (!resourceFilterNode.isObject()) {
+            return false;
+        }
+        for (JsonNode listNode : resourceFilterNode) {
+            if (!listNode.isArray()) {
+                return false;
+            }
+            for (JsonNode elementNode : listNode) {
+                if (!elementNode.isTextual()) {
+                    return false;
+                }
+            }
+        }
+        JsonNode blockedResourceTypesNode = resourceFilterNode.get("blockedResourceTypes");
+        return blockedResourceTypesNode == null || StreamSupport.stream(blockedResourceTypesNode.spliterator(), false)
+                .allMatch(typeNode -> BrowserCrawler.isKnownResourceType(typeNode.asText()));
+    }
+
     private boolean invalidCrawlStartingPointProvided(JsonNode seeds, JsonNode homepage) {
         return homepage == null || !homepage.isTextual() || seeds == null || !seeds.isArray()
                 || !doSeedsMatchWithHomepage((ArrayNode) seeds, homepage.asText());
@@ -108,12 +324,27 @@ public class CrawlJobResource {
                 .collect(Collectors.toList());
     }
 
-    private Crawler chooseBestCrawlingStrategy(Job job) {
+    /**
+     * @return The texts of the array, or null if it was left out.
+     */
+    private List<String> convertOptionalJsonTextArray(JsonNode arrayNode) {
+        return arrayNode == null ? null : convertJsonTextArrayToIterable(arrayNode);
+    }
+
+    static Crawler chooseBestCrawlingStrategy(Job job) {
+        return chooseBestCrawlingStrategy(job, Collections.emptyList());
+    }
+
+    /**
+     * @param additionalSitemaps Sitemaps the request gave on top of those of robots.txt.
+     */
+    static Crawler chooseBestCrawlingStrategy(Job job, List<String> additionalSitemaps) {
         Crawler crawler;
-        if (!job.getRobotRules().getSitemaps().isEmpty()) {
+        if (!Crawler.getRobotRules(job, additionalSitemaps).getSitemaps().isEmpty()) {
             crawler = new SitemapSaxCrawler(job);
         } else {
-            crawler = new BrowserCrawler(job);
+            HttpShelfCrawler httpCrawler = new HttpShelfCrawler(job);
+            crawler = httpCrawler.canCrawlWithoutBrowser() ? httpCrawler : new BrowserCrawler(job);
         }
         return crawler;
     }
@@ -0,0 +1,30 @@
+package me.mircea.licenta.crawler.webservices;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.crawler.metrics.JobMetricsSummary;
+
+/**
+ * A job as stored, along with the metrics of its crawl if it ran on this node recently.
+ * @author mircea
+ */
+public class CrawlJobStatus {
+    private final Job job;
+    private final JobMetricsSummary metrics;
+
+    CrawlJobStatus(Job job, JobMetricsSummary metrics) {
+        this.job = job;
+        this.metrics = metrics;
+    }
+
+    @JsonUnwrapped
+    public Job getJob() {
+        return job;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public JobMetricsSummary getMetrics() {
+        return metrics;
+    }
+}
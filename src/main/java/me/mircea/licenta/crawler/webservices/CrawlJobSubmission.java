@@ -0,0 +1,44 @@
+package me.mircea.licenta.crawler.webservices;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import me.mircea.licenta.core.crawl.db.model.Job;
+
+/**
+ * Outcome of one request to create a job: the http status it would get on its own and, depending on it,
+ * the job queued or the one already active on the domain, with its location.
+ * @author mircea
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CrawlJobSubmission {
+    private final String homepage;
+    private final int status;
+    private final Job job;
+    private final String location;
+
+    CrawlJobSubmission(String homepage, int status, Job job, String location) {
+        this.homepage = homepage;
+        this.status = status;
+        this.job = job;
+        this.location = location;
+    }
+
+    static CrawlJobSubmission failed(String homepage, int status) {
+        return new CrawlJobSubmission(homepage, status, null, null);
+    }
+
+    public String getHomepage() {
+        return homepage;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Job getJob() {
+        return job;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+}
@@ -0,0 +1,104 @@
+package me.mircea.licenta.crawler.webservices;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.impl.BrowserCrawler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * What a request asked of the crawler of its job beyond the job itself, kept until a worker creates the crawler,
+ * possibly on another node. Anything left out keeps the default of the crawler.
+ * @author mircea
+ */
+class CrawlOptions {
+    private static final String MAX_DURATION_IN_SECONDS = "maxDurationInSeconds";
+    private static final String MAX_PAGES = "maxPages";
+    private static final String BLOCKED_RESOURCE_TYPES = "blockedResourceTypes";
+    private static final String DENIED_DOMAINS = "deniedDomains";
+    private static final String ALLOWED_DOMAINS = "allowedDomains";
+    private static final String ADDITIONAL_SITEMAPS = "additionalSitemaps";
+
+    private final Long maxDurationInSeconds;
+    private final Long maxPages;
+    private final List<String> blockedResourceTypes;
+    private final List<String> deniedDomains;
+    private final List<String> allowedDomains;
+    /**
+     * Sitemaps the request gave on top of those of robots.txt, kept here so whichever node creates the crawler reads them.
+     */
+    private final List<String> additionalSitemaps;
+
+    CrawlOptions(Long maxDurationInSeconds, Long maxPages, List<String> blockedResourceTypes, List<String> deniedDomains,
+                 List<String> allowedDomains, List<String> additionalSitemaps) {
+        this.maxDurationInSeconds = maxDurationInSeconds;
+        this.maxPages = maxPages;
+        this.blockedResourceTypes = blockedResourceTypes;
+        this.deniedDomains = deniedDomains;
+        this.allowedDomains = allowedDomains;
+        this.additionalSitemaps = additionalSitemaps;
+    }
+
+    static CrawlOptions fromMap(Map<String, Object> options) {
+        return new CrawlOptions(toLong(options.get(MAX_DURATION_IN_SECONDS)), toLong(options.get(MAX_PAGES)),
+                toStrings(options.get(BLOCKED_RESOURCE_TYPES)), toStrings(options.get(DENIED_DOMAINS)),
+                toStrings(options.get(ALLOWED_DOMAINS)), toStrings(options.get(ADDITIONAL_SITEMAPS)));
+    }
+
+    /**
+     * @return The options given, to be stored along with a job waiting for a node.
+     */
+    Map<String, Object> toMap() {
+        Map<String, Object> options = new LinkedHashMap<>();
+        putIfPresent(options, MAX_DURATION_IN_SECONDS, maxDurationInSeconds);
+        putIfPresent(options, MAX_PAGES, maxPages);
+        putIfPresent(options, BLOCKED_RESOURCE_TYPES, blockedResourceTypes);
+        putIfPresent(options, DENIED_DOMAINS, deniedDomains);
+        putIfPresent(options, ALLOWED_DOMAINS, allowedDomains);
+        putIfPresent(options, ADDITIONAL_SITEMAPS, additionalSitemaps);
+        return options;
+    }
+
+    Crawler createCrawler(Job job) {
+        return applyTo(CrawlJobResource.chooseBestCrawlingStrategy(job, additionalSitemaps != null ? additionalSitemaps : Collections.emptyList()));
+    }
+
+    Crawler applyTo(Crawler crawler) {
+        crawler.setRequestOptions(toMap());
+        if (maxDurationInSeconds != null) {
+            crawler.setMaxDurationInSeconds(maxDurationInSeconds);
+        }
+        if (maxPages != null) {
+            crawler.setMaxPages(maxPages);
+        }
+        if (additionalSitemaps != null) {
+            crawler.setAdditionalSitemaps(additionalSitemaps);
+        }
+        boolean filterGiven = blockedResourceTypes != null || deniedDomains != null || allowedDomains != null;
+        if (filterGiven && crawler instanceof BrowserCrawler) {
+            ((BrowserCrawler) crawler).overrideResourceFilter(blockedResourceTypes, deniedDomains, allowedDomains);
+        }
+        return crawler;
+    }
+
+    private static void putIfPresent(Map<String, Object> options, String key, Object value) {
+        if (value != null) {
+            options.put(key, value);
+        }
+    }
+
+    private static Long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    private static List<String> toStrings(Object value) {
+        if (!(value instanceof List)) {
+            return null;
+        }
+        return ((List<?>) value).stream().map(String::valueOf).collect(Collectors.toList());
+    }
+}
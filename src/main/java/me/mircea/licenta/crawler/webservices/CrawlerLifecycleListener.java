@@ -0,0 +1,56 @@
+package me.mircea.licenta.crawler.webservices;
+
+import me.mircea.licenta.crawler.CrawlerSettingsUtil;
+import me.mircea.licenta.crawler.coordination.LeaseCoordinator;
+import me.mircea.licenta.crawler.impl.BrowserSessionPool;
+import me.mircea.licenta.crawler.persistence.PageWriter;
+import me.mircea.licenta.crawler.scheduler.CrawlScheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Resumes the jobs a previous run left unfinished when the application starts and releases what crawlers
+ * hold on to beyond a single job when it goes down. With leases, it also starts and stops taking jobs
+ * from the other nodes.
+ */
+public class CrawlerLifecycleListener implements ServletContextListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlerLifecycleListener.class);
+    private static final long PAGE_WRITER_SHUTDOWN_TIMEOUT_IN_MILLISECONDS = 30_000;
+    private static final String CONFIG_FILE_RESUME_ON_STARTUP = "checkpoint_resume_on_startup";
+
+    @Override
+    public void contextInitialized(ServletContextEvent sce) {
+        LOGGER.info("Crawler service started");
+        if (Boolean.parseBoolean(CrawlerSettingsUtil.getSetting(CONFIG_FILE_RESUME_ON_STARTUP))) {
+            // Reading every unfinished job and its checkpoint should not hold up the deployment
+            Thread recoveryThread = new Thread(new CrawlJobRecovery(), "crawl-recovery");
+            recoveryThread.setDaemon(true);
+            recoveryThread.start();
+        }
+        if (LeaseCoordinator.isEnabled()) {
+            LeaseCoordinator.getShared().start((job, options) ->
+                    CrawlJobRecovery.resumeOrCreateCrawler(job, CrawlOptions.fromMap(options)));
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent sce) {
+        LOGGER.info("Crawler service stopping, stopping all jobs and quitting all browsers");
+        CrawlScheduler.getInstance().shutdown();
+        if (LeaseCoordinator.isEnabled()) {
+            // Once the jobs here were interrupted, so other nodes rarely take one that still runs
+            LeaseCoordinator.getShared().stop();
+        }
+        BrowserSessionPool.getInstance().shutdown();
+
+        try {
+            PageWriter.getInstance().shutdown(PAGE_WRITER_SHUTDOWN_TIMEOUT_IN_MILLISECONDS);
+        } catch (InterruptedException e) {
+            LOGGER.warn("Interrupted while writing the last pages");
+            Thread.currentThread().interrupt();
+        }
+    }
+}
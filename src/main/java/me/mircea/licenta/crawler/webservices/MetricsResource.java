@@ -0,0 +1,124 @@
+package me.mircea.licenta.crawler.webservices;
+
+import com.google.common.collect.ImmutableMap;
+import me.mircea.licenta.crawler.coordination.LeaseCoordinator;
+import me.mircea.licenta.crawler.impl.BrowserPoolMetrics;
+import me.mircea.licenta.crawler.impl.BrowserSessionPool;
+import me.mircea.licenta.crawler.metrics.CrawlMetrics;
+import me.mircea.licenta.crawler.metrics.JobMetrics;
+import me.mircea.licenta.crawler.metrics.PrometheusTextWriter;
+import me.mircea.licenta.crawler.persistence.PageWriter;
+import me.mircea.licenta.crawler.persistence.PageWriterMetrics;
+import me.mircea.licenta.crawler.scheduler.CrawlQueueSnapshot;
+import me.mircea.licenta.crawler.scheduler.CrawlScheduler;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Everything worth scraping on this node, in the Prometheus text format. Crawl metrics are totals per domain
+ * and crawler, so they keep growing across jobs; only running jobs are reported one by one.
+ * @author mircea
+ */
+@Path("/metrics")
+public class MetricsResource {
+    @GET
+    @Produces(PrometheusTextWriter.CONTENT_TYPE)
+    public String getMetrics() {
+        PrometheusTextWriter writer = new PrometheusTextWriter();
+        writeCrawlMetrics(writer);
+        writeJobMetrics(writer);
+        writePageWriterMetrics(writer);
+        writeBrowserPoolMetrics(writer);
+        writeSchedulerMetrics(writer);
+        return writer.toString();
+    }
+
+    private void writeCrawlMetrics(PrometheusTextWriter writer) {
+        List<JobMetrics> totals = CrawlMetrics.getInstance().getTotals();
+        writeCounter(writer, totals, "crawler_fetches_total", "Http requests answered, by domain and crawler", JobMetrics::getFetches);
+        writeCounter(writer, totals, "crawler_fetch_errors_total", "Http requests that failed, timeouts included", JobMetrics::getFetchErrors);
+        writeCounter(writer, totals, "crawler_timeouts_total", "Http requests and browser waits that timed out", JobMetrics::getTimeouts);
+        writeCounter(writer, totals, "crawler_redirects_total", "Http requests answered from another url than requested", JobMetrics::getRedirects);
+        writeCounter(writer, totals, "crawler_downloaded_bytes_total", "Bytes of response bodies read", JobMetrics::getBytesDownloaded);
+        writeCounter(writer, totals, "crawler_discovered_pages_total", "Pages handed over for writing", JobMetrics::getDiscoveredPages);
+        writeCounter(writer, totals, "crawler_browser_resources_loaded_total", "Requests made by shelves loaded in a browser", JobMetrics::getLoadedResources);
+        writeCounter(writer, totals, "crawler_browser_resource_bytes_loaded_total", "Bytes of the requests made by browser shelves, as far as they are known", JobMetrics::getLoadedResourceBytes);
+        writeCounter(writer, totals, "crawler_browser_resources_blocked_total", "Resources of browser shelves left out by the resource filter", JobMetrics::getBlockedResources);
+
+        writer.family("crawler_fetch_latency_seconds", "histogram", "Time until the response headers came in");
+        totals.forEach(domainTotals -> writer.histogram("crawler_fetch_latency_seconds", labelsOf(domainTotals), domainTotals.getFetchLatencyHistogram()));
+        writer.family("crawler_browser_wait_seconds", "histogram", "Time browsers spent waiting for pages to load or settle");
+        totals.forEach(domainTotals -> writer.histogram("crawler_browser_wait_seconds", labelsOf(domainTotals), domainTotals.getBrowserWaitHistogram()));
+
+        writer.family("crawler_job_requests_total", "counter", "Requests to create a job, by outcome");
+        CrawlMetrics.getInstance().getJobRequests().forEach((outcome, count) ->
+                writer.sample("crawler_job_requests_total", Collections.singletonMap("outcome", outcome), count));
+    }
+
+    private void writeJobMetrics(PrometheusTextWriter writer) {
+        List<JobMetrics> runningJobs = CrawlMetrics.getInstance().getJobs().stream()
+                .filter(JobMetrics::isRunning)
+                .collect(Collectors.toList());
+        writer.family("crawler_job_pages_per_second", "gauge", "Pages discovered per second by each running job since it started");
+        for (JobMetrics jobMetrics : runningJobs) {
+            writer.sample("crawler_job_pages_per_second", ImmutableMap.<String, String>builder()
+                    .put("job_id", jobMetrics.getJobId())
+                    .putAll(labelsOf(jobMetrics))
+                    .build(), jobMetrics.getPagesPerSecond());
+        }
+    }
+
+    private void writePageWriterMetrics(PrometheusTextWriter writer) {
+        PageWriterMetrics pageWriterMetrics = PageWriter.getInstance().getMetrics();
+        Map<String, String> noLabels = Collections.emptyMap();
+        writer.family("crawler_page_writer_queue_depth", "gauge", "Pages waiting to be written")
+                .sample("crawler_page_writer_queue_depth", noLabels, pageWriterMetrics.getQueueDepth());
+        writer.family("crawler_page_writer_written_pages_total", "counter", "Pages upserted in the database")
+                .sample("crawler_page_writer_written_pages_total", noLabels, pageWriterMetrics.getWrittenPages());
+        writer.family("crawler_page_writer_failed_pages_total", "counter", "Pages in batches the database refused")
+                .sample("crawler_page_writer_failed_pages_total", noLabels, pageWriterMetrics.getFailedPages());
+        writer.family("crawler_page_writer_backpressure_waits_total", "counter", "Times a crawler waited for room in the queue")
+                .sample("crawler_page_writer_backpressure_waits_total", noLabels, pageWriterMetrics.getBackpressureWaits());
+        writer.family("crawler_db_upsert_latency_seconds", "histogram", "Time a batch of pages took to be upserted")
+                .histogram("crawler_db_upsert_latency_seconds", noLabels, PageWriter.getInstance().getFlushLatencyHistogram());
+    }
+
+    private void writeBrowserPoolMetrics(PrometheusTextWriter writer) {
+        BrowserPoolMetrics browserPoolMetrics = BrowserSessionPool.getInstance().getMetrics();
+        Map<String, String> noLabels = Collections.emptyMap();
+        writer.family("crawler_browser_sessions", "gauge", "Open browsers, by state")
+                .sample("crawler_browser_sessions", Collections.singletonMap("state", "idle"), browserPoolMetrics.getIdleSessions())
+                .sample("crawler_browser_sessions", Collections.singletonMap("state", "leased"), browserPoolMetrics.getLeasedSessions());
+        writer.family("crawler_browser_waiters", "gauge", "Jobs waiting for a browser")
+                .sample("crawler_browser_waiters", noLabels, browserPoolMetrics.getWaiters());
+    }
+
+    private void writeSchedulerMetrics(PrometheusTextWriter writer) {
+        CrawlQueueSnapshot snapshot = CrawlScheduler.getInstance().getSnapshot();
+        writer.family("crawler_scheduled_jobs", "gauge", "Jobs in the scheduler, by state")
+                .sample("crawler_scheduled_jobs", Collections.singletonMap("state", "queued"), snapshot.getQueued().size())
+                .sample("crawler_scheduled_jobs", Collections.singletonMap("state", "running"), snapshot.getRunning().size());
+        if (LeaseCoordinator.isEnabled()) {
+            writer.family("crawler_job_leases_held", "gauge", "Jobs whose lease this node holds")
+                    .sample("crawler_job_leases_held", Collections.singletonMap("node", LeaseCoordinator.getShared().getNodeId()),
+                            LeaseCoordinator.getShared().getHeldJobCount());
+        }
+    }
+
+    private static void writeCounter(PrometheusTextWriter writer, List<JobMetrics> totals, String name, String help,
+                                     ToDoubleFunction<JobMetrics> value) {
+        writer.family(name, "counter", help);
+        totals.forEach(domainTotals -> writer.sample(name, labelsOf(domainTotals), value.applyAsDouble(domainTotals)));
+    }
+
+    private static Map<String, String> labelsOf(JobMetrics jobMetrics) {
+        return ImmutableMap.of("domain", jobMetrics.getDomain(), "crawler", jobMetrics.getCrawler());
+    }
+}
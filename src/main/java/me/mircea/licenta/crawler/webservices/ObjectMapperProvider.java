@@ -9,14 +9,28 @@ import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
 import javax.ws.rs.ext.ContextResolver;
 import javax.ws.rs.ext.Provider;
 
+/**
+ * @author mircea
+ * Hands the same mapper to every request. A mapper is thread safe once configured and caches the serializers
+ * it builds, which a new mapper per request would build all over again.
+ */
 @Provider
 public class ObjectMapperProvider implements ContextResolver<ObjectMapper> {
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new ParameterNamesModule())
+            .registerModule(new Jdk8Module())
+            .registerModule(new JavaTimeModule())
+            .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+
     @Override
     public ObjectMapper getContext(Class<?> type) {
-        return new ObjectMapper()
-                .registerModule(new ParameterNamesModule())
-                .registerModule(new Jdk8Module())
-                .registerModule(new JavaTimeModule())
-                .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false);
+        return MAPPER;
+    }
+
+    /**
+     * @return The mapper of the web services, for resources writing their responses themselves.
+     */
+    static ObjectMapper getMapper() {
+        return MAPPER;
     }
-}
\ No newline at end of file
+}
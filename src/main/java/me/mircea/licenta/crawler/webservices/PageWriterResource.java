@@ -0,0 +1,18 @@
+package me.mircea.licenta.crawler.webservices;
+
+import me.mircea.licenta.crawler.persistence.PageWriter;
+import me.mircea.licenta.crawler.persistence.PageWriterMetrics;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+@Path("/pages/writer")
+public class PageWriterResource {
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public PageWriterMetrics getPageWriterMetrics() {
+        return PageWriter.getInstance().getMetrics();
+    }
+}
@@ -0,0 +1,151 @@
+package me.mircea.licenta.crawler.coordination;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import me.mircea.licenta.crawler.scheduler.CrawlLane;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Several workers, each with its own connection, sharing the leases in a MongoDB served from memory:
+ * a job goes to a single worker, stays with it while it renews the lease, and goes to another once the lease expires.
+ * @author mircea
+ */
+public class LeaseStoreTest {
+    private static final Duration LEASE_DURATION = Duration.ofMillis(500);
+    private static final int WORKERS = 4;
+
+    private MongoServer server;
+    private final List<MongoClient> clients = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        server = new MongoServer(new MemoryBackend());
+        server.bind();
+    }
+
+    @After
+    public void tearDown() {
+        clients.forEach(MongoClient::close);
+        server.shutdownNow();
+    }
+
+    @Test
+    public void givesEveryJobToASingleWorker() throws Exception {
+        int jobs = 40;
+        LeaseStore submitter = newWorker();
+        for (int job = 0; job < jobs; ++job) {
+            submitter.enqueue("job-" + job, "shop-" + job, 0, Collections.emptyMap());
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        List<Future<List<String>>> claimedByWorker = new ArrayList<>();
+        for (int worker = 0; worker < WORKERS; ++worker) {
+            LeaseStore leaseStore = newWorker();
+            String nodeId = "worker-" + worker;
+            claimedByWorker.add(executor.submit(claimAll(leaseStore, nodeId)));
+        }
+
+        Set<String> claimedJobs = new HashSet<>();
+        int claims = 0;
+        for (Future<List<String>> claimed : claimedByWorker) {
+            List<String> jobIds = claimed.get(10, TimeUnit.SECONDS);
+            claimedJobs.addAll(jobIds);
+            claims += jobIds.size();
+        }
+        executor.shutdown();
+
+        assertEquals(jobs, claims);
+        assertEquals(jobs, claimedJobs.size());
+    }
+
+    @Test
+    public void keepsARenewedJobFromOtherWorkers() throws Exception {
+        LeaseStore first = newWorker();
+        LeaseStore second = newWorker();
+        first.enqueue("job", "shop", 0, Collections.singletonMap("maxPages", 10));
+
+        assertTrue(first.claim("worker-1", CrawlLane.HTTP, LEASE_DURATION).isPresent());
+        for (int heartbeat = 0; heartbeat < 4; ++heartbeat) {
+            Thread.sleep(LEASE_DURATION.toMillis() / 2);
+            assertTrue(first.renew("job", "worker-1", LEASE_DURATION));
+            assertFalse(second.claim("worker-2", CrawlLane.HTTP, LEASE_DURATION).isPresent());
+        }
+    }
+
+    @Test
+    public void givesAnExpiredJobToAnotherWorker() throws Exception {
+        LeaseStore first = newWorker();
+        LeaseStore second = newWorker();
+        first.enqueue("job", "shop", 3, Collections.singletonMap("maxPages", 10));
+        first.claim("worker-1", CrawlLane.HTTP, LEASE_DURATION);
+
+        Thread.sleep(LEASE_DURATION.toMillis() * 2);
+        Optional<JobLease> stolenLease = second.claim("worker-2", CrawlLane.HTTP, LEASE_DURATION);
+
+        assertTrue(stolenLease.isPresent());
+        assertEquals(2, stolenLease.get().getClaims());
+        assertEquals(3, stolenLease.get().getPriority());
+        // What the request asked of the crawler is in the lease, unlike the checkpoint, which stayed with the first worker
+        assertEquals(10, ((Number) stolenLease.get().getOptions().get("maxPages")).intValue());
+    }
+
+    @Test
+    public void leavesAStolenJobToItsNewWorker() throws Exception {
+        LeaseStore first = newWorker();
+        LeaseStore second = newWorker();
+        first.enqueue("job", "shop", 0, Collections.emptyMap());
+        first.claim("worker-1", CrawlLane.HTTP, LEASE_DURATION);
+        Thread.sleep(LEASE_DURATION.toMillis() * 2);
+        second.claim("worker-2", CrawlLane.HTTP, LEASE_DURATION);
+
+        // The first worker learns it lost the job on its next heartbeat, and whatever it does next leaves the lease alone
+        assertFalse(first.renew("job", "worker-1", LEASE_DURATION));
+        first.giveBack("job", "worker-1", CrawlLane.BROWSER);
+        first.complete("job", "worker-1");
+        assertTrue(second.renew("job", "worker-2", LEASE_DURATION));
+        assertFalse(first.claim("worker-1", CrawlLane.HTTP, LEASE_DURATION).isPresent());
+
+        second.complete("job", "worker-2");
+        assertFalse(second.remove("job"));
+    }
+
+    private LeaseStore newWorker() {
+        InetSocketAddress address = server.getLocalAddress();
+        MongoClient client = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        clients.add(client);
+        return new LeaseStore(client.getDatabase("crawler").getCollection("crawl_leases"));
+    }
+
+    private static Callable<List<String>> claimAll(LeaseStore leaseStore, String nodeId) {
+        return () -> {
+            List<String> jobIds = new ArrayList<>();
+            Optional<JobLease> lease;
+            while ((lease = leaseStore.claim(nodeId, CrawlLane.HTTP, Duration.ofMinutes(1))).isPresent()) {
+                jobIds.add(lease.get().getJobId());
+            }
+            return jobIds;
+        };
+    }
+}
@@ -0,0 +1,250 @@
+package me.mircea.licenta.crawler.fetch;
+
+import com.google.common.io.ByteStreams;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link AsyncHttpFetcher} against a Jetty server on the loopback address and, for connections closed
+ * under the client, against a bare socket that drops requests on purpose.
+ * @author mircea
+ */
+public class AsyncHttpFetcherTest {
+    private static final long TIMEOUT_IN_SECONDS = 10;
+    private static final String SITEMAP = "<urlset><url><loc>http://shop/product</loc></url></urlset>";
+
+    private Server server;
+    private String baseUrl;
+    private AsyncHttpFetcher fetcher;
+    private volatile String lastAcceptEncoding;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        server.addConnector(connector);
+        server.setHandler(new ShopHandler());
+        server.start();
+        baseUrl = "http://" + connector.getHost() + ":" + connector.getLocalPort();
+
+        fetcher = new AsyncHttpFetcher(4, 1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void followsRedirectsToTheFinalHop() throws Exception {
+        FetchResponse response = fetch(baseUrl + "/moved").get();
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertEquals(new URL(baseUrl + "/sitemap.xml"), response.getUrl());
+        assertEquals(SITEMAP, readBody(response));
+    }
+
+    @Test
+    public void givesUpOnRedirectLoops() throws Exception {
+        assertFalse(fetch(baseUrl + "/loop").isPresent());
+    }
+
+    @Test
+    public void decodesGzippedBodies() throws Exception {
+        FetchResponse response = fetch(baseUrl + "/gzipped").get();
+
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+        assertTrue(lastAcceptEncoding != null && lastAcceptEncoding.contains("gzip"));
+        assertEquals(SITEMAP, readBody(response));
+    }
+
+    @Test
+    public void sendsExtraHeaders() throws Exception {
+        FetchResponse response = fetcher.fetch(new URL(baseUrl + "/conditional"), Collections.singletonMap("If-None-Match", "\"v1\""))
+                .get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS).get();
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        response.close();
+    }
+
+    @Test
+    public void retriesOnceWhenAPooledConnectionWasClosed() throws Exception {
+        try (DroppingServer droppingServer = new DroppingServer(2)) {
+            assertEquals("ok", readBody(fetch(droppingServer.getUrl()).get()));
+            // Sent on the pooled connection, which the server closes instead of answering
+            assertEquals("ok", readBody(fetch(droppingServer.getUrl()).get()));
+
+            assertEquals(3, droppingServer.getRequests());
+            assertEquals(2, droppingServer.getConnections());
+        }
+    }
+
+    @Test
+    public void failsWhenTheRetryIsClosedToo() throws Exception {
+        try (DroppingServer droppingServer = new DroppingServer(1, 2)) {
+            fetch(droppingServer.getUrl());
+            fail("A request closed on every connection should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private Optional<FetchResponse> fetch(String url) throws Exception {
+        return fetcher.fetch(new URL(url), Collections.emptyMap()).get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static String readBody(FetchResponse response) throws IOException {
+        try (FetchResponse closedResponse = response) {
+            return new String(ByteStreams.toByteArray(closedResponse.getBody()), StandardCharsets.UTF_8);
+        }
+    }
+
+    private class ShopHandler extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            baseRequest.setHandled(true);
+            switch (target) {
+                case "/moved":
+                    response.sendRedirect(baseUrl + "/sitemap.xml");
+                    break;
+                case "/loop":
+                    response.sendRedirect(baseUrl + "/loop");
+                    break;
+                case "/sitemap.xml":
+                    response.setContentType("application/xml");
+                    response.getOutputStream().write(SITEMAP.getBytes(StandardCharsets.UTF_8));
+                    break;
+                case "/gzipped":
+                    lastAcceptEncoding = request.getHeader("Accept-Encoding");
+                    response.setContentType("application/xml");
+                    response.setHeader("Content-Encoding", "gzip");
+                    response.getOutputStream().write(gzip(SITEMAP));
+                    break;
+                case "/conditional":
+                    response.setStatus("\"v1\"".equals(request.getHeader("If-None-Match"))
+                            ? HttpServletResponse.SC_NOT_MODIFIED : HttpServletResponse.SC_OK);
+                    break;
+                default:
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+        }
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipStream = new GZIPOutputStream(bytes)) {
+            gzipStream.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Answers with a kept-alive "ok", except for the given requests, counted from 1 across connections,
+     * whose connection it closes without a response, as a server timing out an idle connection would.
+     */
+    private static class DroppingServer implements AutoCloseable {
+        private final ServerSocket serverSocket;
+        private final Thread acceptor;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final AtomicInteger connections = new AtomicInteger();
+
+        DroppingServer(int... droppedRequests) throws IOException {
+            this.serverSocket = new ServerSocket(0, 16, InetAddress.getLoopbackAddress());
+            this.acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        connections.incrementAndGet();
+                        Thread connectionThread = new Thread(() -> serve(socket, droppedRequests));
+                        connectionThread.setDaemon(true);
+                        connectionThread.start();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }, "dropping-server");
+            this.acceptor.setDaemon(true);
+            this.acceptor.start();
+        }
+
+        String getUrl() {
+            return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort() + "/sitemap.xml";
+        }
+
+        int getRequests() {
+            return requests.get();
+        }
+
+        int getConnections() {
+            return connections.get();
+        }
+
+        private void serve(Socket socket, int[] droppedRequests) {
+            try (Socket closedSocket = socket) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(closedSocket.getInputStream(), StandardCharsets.ISO_8859_1));
+                OutputStream output = closedSocket.getOutputStream();
+                while (readRequest(reader)) {
+                    int request = requests.incrementAndGet();
+                    for (int droppedRequest : droppedRequests) {
+                        if (droppedRequest == request) {
+                            return;
+                        }
+                    }
+                    output.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.ISO_8859_1));
+                    output.flush();
+                }
+            } catch (IOException e) {
+                // The client went away
+            }
+        }
+
+        /**
+         * @return False once the connection is closed; requests are bodiless, so reading the headers is enough.
+         */
+        private static boolean readRequest(BufferedReader reader) throws IOException {
+            String line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+            while (line != null && !line.isEmpty()) {
+                line = reader.readLine();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package me.mircea.licenta.crawler.fetch;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mircea
+ */
+public class HostThrottleTest {
+    private static final String HOST = "shop";
+    private static final long TIMEOUT_IN_SECONDS = 5;
+
+    private final HostThrottle throttle = new HostThrottle(10, 10, 1000, 1, 1, 1000);
+
+    @Test
+    public void grantsTheNextPermitAfterAWaiterWasInterrupted() throws Exception {
+        throttle.acquire(HOST).get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+
+        AtomicBoolean acquired = new AtomicBoolean(true);
+        Thread waiter = new Thread(() -> acquired.set(throttle.awaitPermit(HOST)));
+        waiter.start();
+        // Only one request runs on the host at first, so the waiter is queued until the permit above is released
+        Thread.sleep(200);
+        waiter.interrupt();
+        waiter.join(TimeUnit.SECONDS.toMillis(TIMEOUT_IN_SECONDS));
+        assertFalse(acquired.get());
+
+        throttle.release(HOST);
+        CompletableFuture<Void> next = throttle.acquire(HOST);
+        next.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        assertTrue(next.isDone());
+    }
+
+    @Test
+    public void awaitsAFreePermit() {
+        assertTrue(throttle.awaitPermit(HOST));
+        throttle.release(HOST);
+        assertTrue(throttle.awaitPermit(HOST));
+    }
+}
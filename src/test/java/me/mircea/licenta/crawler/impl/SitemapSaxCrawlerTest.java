@@ -0,0 +1,137 @@
+package me.mircea.licenta.crawler.impl;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.JobType;
+import me.mircea.licenta.crawler.persistence.StubCrawlStore;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Crawls the sitemap of a Jetty server on the loopback address, to check what the job leaves in the sitemap cache
+ * depending on whether its pages made it to the database.
+ * @author mircea
+ */
+public class SitemapSaxCrawlerTest {
+    private static final String CACHE_DIRECTORY = "sitemap_cache_directory";
+    private static final String CHECKPOINT_DIRECTORY = "checkpoint_directory";
+    private static final String ETAG = "\"products-1\"";
+
+    private static Path cacheDirectory;
+    private static Path checkpointDirectory;
+
+    private Server shop;
+    private String baseUrl;
+    private String sitemapUrl;
+    private Job job;
+
+    @BeforeClass
+    public static void setUpDirectories() throws Exception {
+        cacheDirectory = Files.createTempDirectory("sitemap-cache");
+        checkpointDirectory = Files.createTempDirectory("checkpoints");
+        System.setProperty(CACHE_DIRECTORY, cacheDirectory.toString());
+        System.setProperty(CHECKPOINT_DIRECTORY, checkpointDirectory.toString());
+    }
+
+    @AfterClass
+    public static void tearDownDirectories() throws Exception {
+        System.clearProperty(CACHE_DIRECTORY);
+        System.clearProperty(CHECKPOINT_DIRECTORY);
+        MoreFiles.deleteRecursively(cacheDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+        MoreFiles.deleteRecursively(checkpointDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        shop = new Server();
+        ServerConnector connector = new ServerConnector(shop);
+        connector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        shop.addConnector(connector);
+        shop.setHandler(new ShopHandler());
+        shop.start();
+        baseUrl = "http://" + connector.getHost() + ":" + connector.getLocalPort();
+        sitemapUrl = baseUrl + "/sitemap.xml";
+
+        job = new Job(baseUrl + "/", JobType.CRAWL, Collections.singletonList(baseUrl + "/"), Collections.emptyList(), false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(cacheDirectory.resolve(job.getDomain().replaceAll("[^A-Za-z0-9.-]", "_") + ".json"));
+        shop.stop();
+    }
+
+    @Test
+    public void remembersTheSitemapsOfAJobWhosePagesWereWritten() {
+        StubCrawlStore store = StubCrawlStore.install(false);
+        try {
+            crawl();
+        } finally {
+            store.uninstall();
+        }
+
+        assertTrue(store.getWrittenUrls().contains(baseUrl + "/product"));
+        Optional<SitemapCacheEntry> entry = SitemapChangeCache.load(cacheDirectory, job.getDomain()).get(sitemapUrl);
+        assertTrue(entry.isPresent());
+        assertEquals(ETAG, entry.get().getEtag());
+    }
+
+    @Test
+    public void leavesTheCacheAloneWhenThePagesOfTheJobCouldNotBeWritten() {
+        StubCrawlStore store = StubCrawlStore.install(true);
+        try {
+            crawl();
+        } finally {
+            store.uninstall();
+        }
+
+        // Otherwise the next job would skip the sitemap, and its pages would never be written
+        assertFalse(SitemapChangeCache.load(cacheDirectory, job.getDomain()).get(sitemapUrl).isPresent());
+    }
+
+    private void crawl() {
+        SitemapSaxCrawler crawler = new SitemapSaxCrawler(job);
+        crawler.setAdditionalSitemaps(Collections.singletonList(sitemapUrl));
+        crawler.run();
+    }
+
+    /**
+     * Serves a single sitemap, and no robots.txt.
+     */
+    private class ShopHandler extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            baseRequest.setHandled(true);
+            if (!"/sitemap.xml".equals(target)) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            response.setContentType("application/xml");
+            response.setHeader("ETag", ETAG);
+            response.getOutputStream().write(("<urlset><url><loc>" + baseUrl + "/product</loc></url></urlset>")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package me.mircea.licenta.crawler.metrics;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.JobType;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Crawlers built without running, e.g. to probe a shop or for a job another node takes, are left out of the metrics.
+ * @author mircea
+ */
+public class CrawlMetricsTest {
+    private final CrawlMetrics crawlMetrics = new CrawlMetrics(10);
+    private Job job;
+
+    @Before
+    public void setUp() throws Exception {
+        job = new Job("http://shop/", JobType.CRAWL, Collections.singletonList("http://shop/"), Collections.emptyList(), false);
+    }
+
+    @Test
+    public void leavesOutTheJobOfACrawlerThatNeverRan() {
+        JobMetrics probe = crawlMetrics.newJob(job, "HttpShelfCrawler");
+        probe.recordFetch(10, false);
+
+        assertFalse(crawlMetrics.getJob(String.valueOf(job.getId())).isPresent());
+        assertTrue(crawlMetrics.getTotals().isEmpty());
+    }
+
+    @Test
+    public void addsTheJobToItsTotalsOnceItStarts() {
+        crawlMetrics.newJob(job, "HttpShelfCrawler").recordFetch(10, false);
+        JobMetrics jobMetrics = crawlMetrics.newJob(job, "BrowserCrawler");
+        crawlMetrics.register(jobMetrics);
+        jobMetrics.recordFetch(10, false);
+
+        assertTrue(crawlMetrics.getJob(String.valueOf(job.getId())).isPresent());
+        assertEquals(1, crawlMetrics.getTotals().size());
+        JobMetrics totals = crawlMetrics.getTotals().get(0);
+        assertEquals("BrowserCrawler", totals.getCrawler());
+        assertEquals(1, totals.getFetches());
+    }
+}
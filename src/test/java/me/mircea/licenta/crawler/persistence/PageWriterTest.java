@@ -0,0 +1,121 @@
+package me.mircea.licenta.crawler.persistence;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.Page;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the writer against a store that refuses some pages or is unavailable for a while.
+ * @author mircea
+ */
+public class PageWriterTest {
+    private static final String REFUSED_URL = "http://shop/too-large";
+
+    private CrawlStore originalStore;
+    private FlakyStore store;
+    private PageWriter pageWriter;
+
+    @Before
+    public void setUp() {
+        originalStore = CrawlStore.getInstance();
+        store = new FlakyStore();
+        CrawlStore.replaceInstance(store);
+        pageWriter = new PageWriter(100, 10, 10, 10, 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pageWriter.shutdown(1000);
+        CrawlStore.replaceInstance(originalStore);
+    }
+
+    @Test
+    public void dropsOnlyTheRefusedPagesAndFailsTheFlushOfTheirJob() throws Exception {
+        pageWriter.writeAll(Arrays.asList(page("http://shop/1"), page(REFUSED_URL), page("http://shop/2")), "refused-job");
+        pageWriter.write(page("http://shop/3"), "other-job");
+
+        assertFlushFails("refused-job");
+        pageWriter.flush("other-job");
+        assertEquals(3, store.writtenUrls.size());
+        assertTrue(store.writtenUrls.containsAll(Arrays.asList("http://shop/1", "http://shop/2", "http://shop/3")));
+        // The job stays failed until it no longer runs
+        assertFlushFails("refused-job");
+        pageWriter.forget("refused-job");
+        pageWriter.flush("refused-job");
+    }
+
+    @Test
+    public void givesUpOnABatchOnceTheStoreWasUnavailableTooManyTimes() throws Exception {
+        store.unavailableWrites.set(3);
+        pageWriter.write(page("http://shop/1"), "job");
+        assertFlushFails("job");
+        assertEquals(0, store.writtenUrls.size());
+
+        pageWriter.write(page("http://shop/2"), "other-job");
+        pageWriter.flush("other-job");
+        assertEquals(1, store.writtenUrls.size());
+    }
+
+    @Test
+    public void retriesABatchWhileTheStoreIsBrieflyUnavailable() throws Exception {
+        store.unavailableWrites.set(2);
+        pageWriter.write(page("http://shop/1"), "job");
+
+        pageWriter.flush("job");
+        assertTrue(store.writtenUrls.contains("http://shop/1"));
+    }
+
+    private void assertFlushFails(String jobId) throws InterruptedException {
+        try {
+            pageWriter.flush(jobId);
+            fail("The flush of a job whose pages were dropped should fail");
+        } catch (PageWriteException e) {
+            // Expected
+        }
+    }
+
+    private static Page page(String url) {
+        return new Page(url, "sitemap", Instant.now());
+    }
+
+    /**
+     * Refuses any write with {@link #REFUSED_URL} in it, and fails the given number of writes as if unreachable.
+     */
+    private static class FlakyStore extends CrawlStore {
+        private final Set<String> writtenUrls = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger unavailableWrites = new AtomicInteger();
+
+        @Override
+        public void upsertJob(Job job) {
+        }
+
+        @Override
+        public void upsertPages(List<Page> pages) {
+            if (unavailableWrites.getAndUpdate(writes -> Math.max(0, writes - 1)) > 0) {
+                throw new IllegalStateException("Unreachable");
+            }
+            if (pages.stream().anyMatch(page -> REFUSED_URL.equals(page.getUrl()))) {
+                throw new IllegalArgumentException("Refused");
+            }
+            pages.forEach(page -> writtenUrls.add(page.getUrl()));
+        }
+
+        @Override
+        public boolean isTransient(RuntimeException e) {
+            return e instanceof IllegalStateException;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package me.mircea.licenta.crawler.persistence;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.Page;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in for the crawl database in tests of other packages, either keeping the urls of the pages it is given
+ * or refusing them all as the database would a malformed batch.
+ * @author mircea
+ */
+public class StubCrawlStore extends CrawlStore {
+    private final CrawlStore replacedStore;
+    private final boolean refusesPages;
+    private final Set<String> writtenUrls = ConcurrentHashMap.newKeySet();
+
+    private StubCrawlStore(CrawlStore replacedStore, boolean refusesPages) {
+        this.replacedStore = replacedStore;
+        this.refusesPages = refusesPages;
+    }
+
+    /**
+     * @return A store that every crawler of this JVM uses until it is uninstalled.
+     */
+    public static StubCrawlStore install(boolean refusesPages) {
+        StubCrawlStore store = new StubCrawlStore(CrawlStore.getInstance(), refusesPages);
+        CrawlStore.replaceInstance(store);
+        return store;
+    }
+
+    /**
+     * Give the store it replaced back to the crawlers.
+     */
+    public void uninstall() {
+        CrawlStore.replaceInstance(replacedStore);
+    }
+
+    @Override
+    public void upsertJob(Job job) {
+    }
+
+    @Override
+    public void upsertPages(List<Page> pages) {
+        if (refusesPages) {
+            throw new IllegalArgumentException("Refused");
+        }
+        pages.forEach(page -> writtenUrls.add(page.getUrl()));
+    }
+
+    @Override
+    public boolean isTransient(RuntimeException e) {
+        return false;
+    }
+
+    public Set<String> getWrittenUrls() {
+        return writtenUrls;
+    }
+}
@@ -0,0 +1,140 @@
+package me.mircea.licenta.crawler.webservices;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.JobType;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.checkpoint.CheckpointStore;
+import me.mircea.licenta.crawler.checkpoint.CrawlCheckpoint;
+import me.mircea.licenta.crawler.coordination.JobLease;
+import me.mircea.licenta.crawler.coordination.LeaseStore;
+import me.mircea.licenta.crawler.impl.HttpShelfCrawler;
+import me.mircea.licenta.crawler.impl.SitemapSaxCrawler;
+import me.mircea.licenta.crawler.scheduler.CrawlLane;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.DefaultHandler;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A job taken over by a second worker once the first one stopped renewing its lease, as the worker whose
+ * {@link CrawlerLifecycleListener} creates its crawler would. The checkpoint of a job stays on the disk of the worker
+ * that saved it, so the second worker usually starts the job over from its seeds, with the options kept in the lease.
+ * @author mircea
+ */
+public class CrawlJobRecoveryTest {
+    private static final Duration LEASE_DURATION = Duration.ofMillis(300);
+    private static final String CHECKPOINT_DIRECTORY = "checkpoint_directory";
+
+    private static Path checkpointDirectory;
+
+    private Server shop;
+    private String baseUrl;
+    private MongoServer mongoServer;
+    private MongoClient firstClient;
+    private MongoClient secondClient;
+    private Job job;
+
+    @BeforeClass
+    public static void setUpCheckpoints() throws Exception {
+        checkpointDirectory = Files.createTempDirectory("checkpoints");
+        System.setProperty(CHECKPOINT_DIRECTORY, checkpointDirectory.toString());
+    }
+
+    @AfterClass
+    public static void tearDownCheckpoints() throws Exception {
+        System.clearProperty(CHECKPOINT_DIRECTORY);
+        MoreFiles.deleteRecursively(checkpointDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        // A shop without a robots.txt
+        shop = new Server();
+        ServerConnector connector = new ServerConnector(shop);
+        connector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        shop.addConnector(connector);
+        shop.setHandler(new DefaultHandler());
+        shop.start();
+        baseUrl = "http://" + connector.getHost() + ":" + connector.getLocalPort();
+
+        mongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress address = mongoServer.bind();
+        firstClient = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+        secondClient = MongoClients.create("mongodb://" + address.getHostString() + ":" + address.getPort());
+
+        job = new Job(baseUrl + "/", JobType.CRAWL, Collections.singletonList(baseUrl + "/"), Collections.emptyList(), false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CheckpointStore.getInstance().delete(job.getId().toString());
+        firstClient.close();
+        secondClient.close();
+        mongoServer.shutdownNow();
+        shop.stop();
+    }
+
+    @Test
+    public void startsAStolenJobOverWithTheOptionsOfItsLease() throws Exception {
+        List<String> additionalSitemaps = Collections.singletonList(baseUrl + "/products.xml");
+        JobLease stolenLease = stealJob(new CrawlOptions(60L, 5L, null, null, null, additionalSitemaps));
+
+        assertFalse(CheckpointStore.getInstance().load(stolenLease.getJobId()).isPresent());
+        Crawler crawler = CrawlJobRecovery.resumeOrCreateCrawler(job, CrawlOptions.fromMap(stolenLease.getOptions()));
+
+        // Chosen again rather than resumed, and with the sitemaps the request gave, which only the lease kept
+        assertTrue(crawler instanceof SitemapSaxCrawler);
+        assertEquals(additionalSitemaps, crawler.getRobotRules().getSitemaps());
+    }
+
+    @Test
+    public void resumesAStolenJobWhoseCheckpointItCanRead() throws Exception {
+        JobLease stolenLease = stealJob(new CrawlOptions(null, null, null, null, null, null));
+        CrawlCheckpoint checkpoint = new CrawlCheckpoint();
+        checkpoint.setCrawler(HttpShelfCrawler.class.getSimpleName());
+        CheckpointStore.getInstance().save(stolenLease.getJobId(), checkpoint);
+
+        Crawler crawler = CrawlJobRecovery.resumeOrCreateCrawler(job, CrawlOptions.fromMap(stolenLease.getOptions()));
+
+        assertTrue(crawler instanceof HttpShelfCrawler);
+    }
+
+    /**
+     * @return The lease of the job as the second worker took it, once the first one let it expire.
+     */
+    private JobLease stealJob(CrawlOptions options) throws InterruptedException {
+        LeaseStore first = new LeaseStore(firstClient.getDatabase("crawler").getCollection("crawl_leases"));
+        LeaseStore second = new LeaseStore(secondClient.getDatabase("crawler").getCollection("crawl_leases"));
+        first.enqueue(job.getId().toString(), job.getDomain(), 0, options.toMap());
+        assertTrue(first.claim("worker-1", CrawlLane.HTTP, LEASE_DURATION).isPresent());
+
+        Thread.sleep(LEASE_DURATION.toMillis() * 2);
+        Optional<JobLease> stolenLease = second.claim("worker-2", CrawlLane.HTTP, LEASE_DURATION);
+        assertTrue(stolenLease.isPresent());
+        assertFalse(first.renew(job.getId().toString(), "worker-1", LEASE_DURATION));
+        return stolenLease.get();
+    }
+}
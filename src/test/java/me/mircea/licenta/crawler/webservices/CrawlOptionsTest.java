@@ -0,0 +1,107 @@
+package me.mircea.licenta.crawler.webservices;
+
+import me.mircea.licenta.core.crawl.db.model.Job;
+import me.mircea.licenta.core.crawl.db.model.JobType;
+import me.mircea.licenta.crawler.Crawler;
+import me.mircea.licenta.crawler.fetch.RobotRulesCache;
+import me.mircea.licenta.crawler.impl.SitemapSaxCrawler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the sitemaps a request gives reach the crawler of its job, whether or not robots.txt lists any,
+ * against a shop on the loopback address.
+ * @author mircea
+ */
+public class CrawlOptionsTest {
+    private Server server;
+    private String baseUrl;
+    private volatile String robotsTxt;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        server.addConnector(connector);
+        server.setHandler(new RobotsHandler());
+        server.start();
+        baseUrl = "http://" + connector.getHost() + ":" + connector.getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void readsAdditionalSitemapsOfAShopWithoutRobotsSitemaps() throws Exception {
+        robotsTxt = null;
+        List<String> additionalSitemaps = Collections.singletonList(baseUrl + "/products.xml");
+
+        Crawler crawler = withAdditionalSitemaps(additionalSitemaps).createCrawler(newJob());
+
+        assertTrue(crawler instanceof SitemapSaxCrawler);
+        assertEquals(additionalSitemaps, crawler.getRobotRules().getSitemaps());
+    }
+
+    @Test
+    public void readsAdditionalSitemapsAlongWithRobotsSitemapsWithoutChangingTheCachedRules() throws Exception {
+        robotsTxt = "User-agent: *\nSitemap: " + baseUrl + "/sitemap.xml\n";
+        Job job = newJob();
+
+        Crawler crawler = withAdditionalSitemaps(Arrays.asList(baseUrl + "/products.xml", baseUrl + "/sitemap.xml")).createCrawler(job);
+
+        assertTrue(crawler instanceof SitemapSaxCrawler);
+        assertEquals(Arrays.asList(baseUrl + "/sitemap.xml", baseUrl + "/products.xml"), crawler.getRobotRules().getSitemaps());
+        assertEquals(Collections.singletonList(baseUrl + "/sitemap.xml"), RobotRulesCache.getShared().getRules(baseUrl + "/").getSitemaps());
+    }
+
+    @Test
+    public void keepsAdditionalSitemapsForTheNodeCreatingTheCrawler() throws Exception {
+        robotsTxt = null;
+        List<String> additionalSitemaps = Collections.singletonList(baseUrl + "/products.xml");
+
+        CrawlOptions options = CrawlOptions.fromMap(withAdditionalSitemaps(additionalSitemaps).toMap());
+
+        assertEquals(additionalSitemaps, options.createCrawler(newJob()).getRobotRules().getSitemaps());
+    }
+
+    private Job newJob() throws IOException {
+        return new Job(baseUrl + "/", JobType.CRAWL, Collections.singletonList(baseUrl + "/"), Collections.emptyList(), false);
+    }
+
+    private static CrawlOptions withAdditionalSitemaps(List<String> additionalSitemaps) {
+        return new CrawlOptions(null, null, null, null, null, additionalSitemaps);
+    }
+
+    private class RobotsHandler extends AbstractHandler {
+        @Override
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            baseRequest.setHandled(true);
+            if ("/robots.txt".equals(target) && robotsTxt != null) {
+                response.setContentType("text/plain");
+                response.getOutputStream().write(robotsTxt.getBytes(StandardCharsets.UTF_8));
+            } else {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            }
+        }
+    }
+}